@@ -0,0 +1,26 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>
+ * Runs the benchmarks with the GC profiler on, so every result comes with its
+ * allocation rate. Takes the same options as the JMH command line, e.g.
+ * <code>java -jar target/benchmarks.jar Cpu -f 2</code>.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions cli = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder().parent(cli).addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,77 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cpu.Bus;
+import cpu.CPU6502;
+
+/**
+ * <p>
+ * Raw 6502 throughput, in cpu cycles per second, on a flat 64KB {@code Bus}.
+ * <code>6502.bin</code> is the memory of the easy6502 snake game, the program
+ * starts at $0600.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CpuBenchmark {
+
+	private static final int CYCLES = 100_000;
+
+	// The game's entry point, and its game over label.
+	private static final int START = 0x0600;
+	private static final int GAME_OVER = 0x0735;
+
+	@Param({ "MICROCODE", "SWITCH" })
+	public CPU6502.Core core;
+
+	private CPU6502 cpu;
+	private byte[] ram;
+	private int random = 1;
+
+	@Setup
+	public void setup() {
+		ram = Fixtures.image6502();
+		cpu = new CPU6502(new Bus(ram));
+		cpu.setCore(core);
+
+		// Nobody presses a key, so the snake soon dies. Start a new game instead
+		// of falling into BRK: LDX #$FF, TXS, JMP $0600.
+		int[] restart = { 0xa2, 0xff, 0x9a, 0x4c, START & 0xff, START >> 8 };
+		for (int i = 0; i < restart.length; i++) {
+			ram[GAME_OVER + i] = (byte) restart[i];
+		}
+
+		cpu.setProgramCounter(START);
+		cpu.setStackPointer(0xff);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CYCLES)
+	public int run() {
+		// The game reads a random byte from $FE.
+		random = random * 1103515245 + 12345;
+		ram[0xfe] = (byte) (random >>> 16);
+		return cpu.run(CYCLES);
+	}
+}
@@ -0,0 +1,139 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * <p>
+ * What the benchmarks run: the <code>6502.bin</code> image bundled with the
+ * emulator and a small NROM test program built here, so no game has to be
+ * around. A real ROM can be used instead with <code>-Dnes.rom=path</code>.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+final class Fixtures {
+
+	// Where nes/ is, relative to the directory the benchmarks run from.
+	static final String NES_HOME = System.getProperty("nes.home", "../nes");
+
+	// The test program, assembled. On reset it fills the palette and the first
+	// nametable, puts 64 sprites in the OAM buffer at $0200, turns on NMI and
+	// rendering and polls $2002 forever. The NMI DMAs $0200 to OAM, moves
+	// sprite 0 and scrolls.
+	private static final int[] RESET = {
+			0x78, 0xa2, 0xff, 0x9a, 0xad, 0x02, 0x20, 0xa9, 0x3f, 0x8d, 0x06, 0x20, 0xa9, 0x00, 0x8d, 0x06, 0x20,
+			0xa2, 0x00, 0x8a, 0x0a, 0x69, 0x07, 0x8d, 0x07, 0x20, 0xe8, 0xe0, 0x20, 0xd0, 0xf4, 0xa9, 0x20, 0x8d,
+			0x06, 0x20, 0xa9, 0x00, 0x8d, 0x06, 0x20, 0xa2, 0x00, 0xa0, 0x10, 0x8e, 0x07, 0x20, 0xe8, 0xd0, 0xfa,
+			0x88, 0xd0, 0xf7, 0xa2, 0x00, 0x8a, 0x49, 0x5a, 0x9d, 0x00, 0x02, 0xe8, 0xd0, 0xf7, 0xa9, 0x90, 0x8d,
+			0x00, 0x20, 0xa9, 0x1e, 0x8d, 0x01, 0x20, 0xa0, 0x00, 0xad, 0x02, 0x20, 0x99, 0x00, 0x03, 0xc8, 0xe6,
+			0x20, 0x4c, 0x4d, 0x80 };
+	private static final int[] NMI = {
+			0x48, 0xa9, 0x02, 0x8d, 0x14, 0x40, 0xee, 0x00, 0x02, 0xee, 0x03, 0x02, 0xad, 0x02, 0x20, 0xa5, 0x21,
+			0x8d, 0x05, 0x20, 0x0a, 0x8d, 0x05, 0x20, 0xe6, 0x21, 0x68, 0x40 };
+
+	private static String testRom;
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @return The 64KB image in <code>6502.bin</code>, zero filled past its end.
+	 */
+	static byte[] image6502() {
+		byte[] memory = new byte[0x10000];
+		try {
+			byte[] bin = Files.readAllBytes(Paths.get(NES_HOME, "6502.bin"));
+			System.arraycopy(bin, 0, memory, 0, Math.min(bin.length, memory.length));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return memory;
+	}
+
+	/**
+	 * @return The path of the ROM the full system benchmarks run.
+	 */
+	static synchronized String rom() {
+		String rom = System.getProperty("nes.rom");
+		if (rom != null)
+			return rom;
+
+		if (testRom == null)
+			testRom = writeTestRom();
+		return testRom;
+	}
+
+	/**
+	 * <p>
+	 * A ROM for the mapper benchmarks: no program, every 16KB PRG bank filled
+	 * with its number and every 1KB of CHR with its number.
+	 * </p>
+	 *
+	 * @param mapper
+	 * @param prgBanks
+	 *            16KB banks.
+	 * @param chrBanks
+	 *            8KB banks, 0 for CHR RAM.
+	 * @return The path of the ROM.
+	 */
+	static String mapperRom(int mapper, int prgBanks, int chrBanks) {
+		byte[] rom = new byte[16 + prgBanks * 0x4000 + chrBanks * 0x2000];
+		byte[] header = { 'N', 'E', 'S', 0x1a, (byte) prgBanks, (byte) chrBanks, (byte) ((mapper & 0x0f) << 4),
+				(byte) (mapper & 0xf0) };
+		System.arraycopy(header, 0, rom, 0, header.length);
+
+		for (int i = 16; i < 16 + prgBanks * 0x4000; i++) {
+			rom[i] = (byte) ((i - 16) >> 14);
+		}
+		for (int i = 16 + prgBanks * 0x4000; i < rom.length; i++) {
+			rom[i] = (byte) ((i - 16 - prgBanks * 0x4000) >> 10);
+		}
+		return write(rom);
+	}
+
+	// One 16KB PRG bank at $C000 (mirrored at $8000) and one 8KB CHR bank of
+	// noise.
+	private static String writeTestRom() {
+		byte[] rom = new byte[16 + 0x4000 + 0x2000];
+		byte[] header = { 'N', 'E', 'S', 0x1a, 1, 1, 1 };
+		System.arraycopy(header, 0, rom, 0, header.length);
+
+		for (int i = 0; i < RESET.length; i++) {
+			rom[16 + i] = (byte) RESET[i];
+		}
+		for (int i = 0; i < NMI.length; i++) {
+			rom[16 + 0x100 + i] = (byte) NMI[i];
+		}
+
+		// NMI $8100, RESET $8000, IRQ $8100.
+		int[] vectors = { 0x00, 0x81, 0x00, 0x80, 0x00, 0x81 };
+		for (int i = 0; i < vectors.length; i++) {
+			rom[16 + 0x3ffa + i] = (byte) vectors[i];
+		}
+
+		int seed = 0x2c9277b5;
+		for (int i = 16 + 0x4000; i < rom.length; i++) {
+			seed ^= seed << 13;
+			seed ^= seed >>> 17;
+			seed ^= seed << 5;
+			rom[i] = (byte) seed;
+		}
+		return write(rom);
+	}
+
+	private static String write(byte[] rom) {
+		try {
+			File file = File.createTempFile("bench", ".nes");
+			file.deleteOnExit();
+			Files.write(file.toPath(), rom);
+			return file.getAbsolutePath();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cpu.Bus;
+import cpu.Cartridge;
+import cpu.PPU2C02;
+
+/**
+ * <p>
+ * The cost of a PRG read through the cpu's bus and of a CHR read through the
+ * PPU's, per mapper, with and without bank switching. The switching benchmarks
+ * switch the PRG or CHR bank every 256 reads, with the register writes a game
+ * would use; on NROM the writes hit ROM and do nothing, which is the baseline
+ * the others should match. Mappers without PRG (or CHR) banks switch nothing.
+ * </p>
+ *
+ * <p>
+ * With 5 forks of 10 iterations, in ns a read (error about 0.1 to 0.25 for
+ * PRG, 0.03 to 0.08 for CHR, 0.18 for MMC3's):
+ * </p>
+ *
+ * <pre>
+ *                    NROM  MMC1  UxROM CNROM MMC3  AxROM GxROM
+ * prgRead            2.89  2.76  2.99  2.77  2.52  2.70  2.94
+ * prgReadSwitching   3.19  2.88  2.90  2.54  3.20  2.48  3.18
+ * chrRead            0.65  0.71  0.76  0.68  1.55  0.70  0.69
+ * chrReadSwitching   0.82  1.61  0.83  1.53  2.37  0.78  1.54
+ * </pre>
+ *
+ * <p>
+ * A switch only changes the offsets of the windows it moves, the {@code Bus}
+ * reads $8000-$FFFF through the mapper's PRG offsets and the
+ * {@code Cartridge} through its CHR ones. PRG reads switching every 256 are
+ * within noise of NROM's. So are CHR reads, as long as the banks switched in
+ * are the same memory: built with one 8KB CHR bank instead of four, so every
+ * switch lands where the last one was, CNROM reads at 0.82ns and GxROM at
+ * 0.83ns against NROM's 0.77ns (MMC1 at 0.98ns, its five writes a switch).
+ * The 0.7ns left above is the reads going over 32KB of CHR instead of 8KB,
+ * not the switch. A mapper whose windows show one run of 8KB, wherever it is,
+ * reads as NROM does.
+ * </p>
+ *
+ * <p>
+ * MMC3 is the one that doesn't: its CHR is two 2KB and four 1KB windows, and
+ * R0-R5 power on as 0, so here, as in a game, they are never one run of 8KB.
+ * Every read looks its window's offset up and then the byte, two loads one
+ * after the other, which is the 1.55ns against 0.65ns. Keeping each window's
+ * offset less its address, to save masking the address, made no difference
+ * (1.59ns). Its switching number adds the 32KB on top, as for the others.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(5)
+public class MapperBenchmark {
+
+	private static final int READS = 4096;
+	// The reads between two switches. The reads run in a loop of their own,
+	// and the benchmarks without switching use the same loops.
+	private static final int SWITCH_EVERY = 256;
+
+	@Param({ "0", "1", "2", "3", "4", "7", "66" })
+	public int mapper;
+
+	private Bus bus;
+	private PPU2C02 ppu;
+	private int bank = 0;
+
+	@Setup
+	public void setup() {
+		int prgBanks = (mapper == 0 || mapper == 3) ? 2 : 8;
+		Cartridge cart = new Cartridge(Fixtures.mapperRom(mapper, prgBanks, 4));
+		ppu = new PPU2C02(cart);
+		bus = new Bus(ppu);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public int prgRead() {
+		int sum = 0;
+		for (int block = 0; block < READS; block += SWITCH_EVERY) {
+			for (int i = block; i < block + SWITCH_EVERY; i++) {
+				sum += bus.cpuRead(0x8000 | ((i * 97) & 0x7fff), false);
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public int prgReadSwitching() {
+		int sum = 0;
+		for (int block = 0; block < READS; block += SWITCH_EVERY) {
+			switchPrg(bank++);
+			for (int i = block; i < block + SWITCH_EVERY; i++) {
+				sum += bus.cpuRead(0x8000 | ((i * 97) & 0x7fff), false);
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public int chrRead() {
+		int sum = 0;
+		for (int block = 0; block < READS; block += SWITCH_EVERY) {
+			for (int i = block; i < block + SWITCH_EVERY; i++) {
+				sum += ppu.ppuRead((i * 97) & 0x1fff, false);
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public int chrReadSwitching() {
+		int sum = 0;
+		for (int block = 0; block < READS; block += SWITCH_EVERY) {
+			switchChr(bank++);
+			for (int i = block; i < block + SWITCH_EVERY; i++) {
+				sum += ppu.ppuRead((i * 97) & 0x1fff, false);
+			}
+		}
+		return sum;
+	}
+
+	// The writes that switch the PRG bank at $8000.
+	private void switchPrg(int bank) {
+		switch (mapper) {
+			case 1 :
+				// MMC1: five writes, one bit each, to the PRG register.
+				for (int i = 0; i < 5; i++) {
+					bus.cpuWrite(0xe000, (bank >> i) & 1);
+				}
+				break;
+			case 3 :
+				// CNROM only switches CHR.
+				break;
+			case 4 :
+				// MMC3: select R6, the 8KB bank at $8000, and write it.
+				bus.cpuWrite(0x8000, 0x06);
+				bus.cpuWrite(0x8001, bank);
+				break;
+			case 66 :
+				bus.cpuWrite(0x8000, (bank & 0x03) << 4);
+				break;
+			default :
+				bus.cpuWrite(0x8000, bank);
+				break;
+		}
+	}
+
+	// The writes that switch the CHR bank at $0000.
+	private void switchChr(int bank) {
+		switch (mapper) {
+			case 1 :
+				// MMC1: five writes to CHR bank 0, 4KB at $0000.
+				for (int i = 0; i < 5; i++) {
+					bus.cpuWrite(0xa000, (bank >> i) & 1);
+				}
+				break;
+			case 3 :
+				bus.cpuWrite(0x8000, bank);
+				break;
+			case 4 :
+				// MMC3: select R0, the 2KB bank at $0000, and write it.
+				bus.cpuWrite(0x8000, 0x00);
+				bus.cpuWrite(0x8001, bank << 1);
+				break;
+			case 66 :
+				bus.cpuWrite(0x8000, bank & 0x03);
+				break;
+			default :
+				break;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cpu.Bus;
+import cpu.Cartridge;
+import cpu.PPU2C02;
+
+/**
+ * <p>
+ * PPU frames per second with nothing else running. The nametable, palette and
+ * OAM are filled once, through the registers, with a fixed pattern: every tile
+ * different, background and 64 sprites on.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PpuBenchmark {
+
+	@Param({ "DOT", "SCANLINE" })
+	public PPU2C02.RenderMode renderMode;
+
+	private PPU2C02 ppu;
+
+	@Setup
+	public void setup() {
+		Cartridge cart = new Cartridge(Fixtures.rom());
+		cart.setRenderMode(renderMode);
+		ppu = new PPU2C02(cart);
+		new Bus(ppu);
+
+		// Palettes.
+		ppu.cpuWrite(6, 0x3f);
+		ppu.cpuWrite(6, 0x00);
+		for (int i = 0; i < 32; i++) {
+			ppu.cpuWrite(7, (i * 7 + 1) & 0x3f);
+		}
+
+		// Nametable 0, tiles then attributes.
+		ppu.cpuWrite(6, 0x20);
+		ppu.cpuWrite(6, 0x00);
+		for (int i = 0; i < 0x3c0; i++) {
+			ppu.cpuWrite(7, i & 0xff);
+		}
+		for (int i = 0; i < 0x40; i++) {
+			ppu.cpuWrite(7, (i * 0x1b) & 0xff);
+		}
+
+		// 64 sprites spread over the screen.
+		for (int i = 0; i < 64; i++) {
+			ppu.OAM[i * 4] = (i * 29) % 232;
+			ppu.OAM[i * 4 + 1] = i;
+			ppu.OAM[i * 4 + 2] = i & 0xe3;
+			ppu.OAM[i * 4 + 3] = (i * 53) & 0xff;
+		}
+
+		// Scroll to 0,0, background from the second pattern table, show
+		// everything.
+		ppu.cpuWrite(5, 0x00);
+		ppu.cpuWrite(5, 0x00);
+		ppu.cpuWrite(6, 0x00);
+		ppu.cpuWrite(6, 0x00);
+		ppu.cpuWrite(0, 0x10);
+		ppu.cpuWrite(1, 0x1e);
+	}
+
+	@Benchmark
+	public int frame() {
+		ppu.setFrameComplete(false);
+		while (!ppu.isFrameComplete()) {
+			ppu.clock();
+		}
+		return ppu.getScreen()[0];
+	}
+}
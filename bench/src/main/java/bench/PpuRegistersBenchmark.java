@@ -0,0 +1,130 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cpu.PPUIO;
+
+/**
+ * <p>
+ * The cost per dot of the PPU registers alone: one visible scanline of the
+ * register reads and writes <code>PPU2C02.clock()</code> does, without the
+ * memory reads and the pixels. The mask is tested on every dot, the tile
+ * fetches build their addresses from loopy V, the scroll is incremented every
+ * 8 dots and at dot 256, and X is copied back from loopy T at dot 257.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PpuRegistersBenchmark {
+
+	private static final int DOTS = 341;
+
+	private PPUIO.Mask mask;
+	private PPUIO.Controller control;
+	private PPUIO.loopyReg loopyV;
+	private PPUIO.loopyReg loopyT;
+
+	@Setup
+	public void setup() {
+		mask = new PPUIO.Mask();
+		control = new PPUIO.Controller();
+		loopyV = new PPUIO.loopyReg();
+		loopyT = new PPUIO.loopyReg();
+
+		mask.set(0x1e);
+		control.set(0x90);
+		loopyT.register(0x0c00);
+		loopyV.register(0x0c00);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(DOTS)
+	public int scanline() {
+		int address = 0;
+
+		for (int cycle = 0; cycle < DOTS; cycle++) {
+			if (mask.renderBackground() == 1 && mask.renderSprites() == 1)
+				address++;
+
+			if ((cycle >= 2 && cycle < 258) || (cycle >= 321 && cycle < 338)) {
+				switch ((cycle - 1) % 8) {
+					case 2 :
+						address += 0x23c0 | (loopyV.nametableY() << 11) | (loopyV.nametableX() << 10)
+								| ((loopyV.coarseY() >> 2) << 3) | (loopyV.coarseX() >> 2);
+						break;
+					case 4 :
+					case 6 :
+						address += (control.patternBackground() << 12) + loopyV.fineY();
+						break;
+					case 7 :
+						incrementScrollX();
+						break;
+				}
+			}
+
+			if (cycle == 256)
+				incrementScrollY();
+			if (cycle == 257)
+				transferAddressX();
+		}
+
+		return address + loopyV.register();
+	}
+
+	// As in PPU2C02.
+	private void incrementScrollX() {
+		if (mask.renderBackground() == 1 || mask.renderSprites() == 1) {
+			if (loopyV.coarseX() == 31) {
+				loopyV.coarseX(0);
+				loopyV.nametableX(~loopyV.nametableX());
+			} else {
+				loopyV.coarseX(loopyV.coarseX() + 1);
+			}
+		}
+	}
+
+	private void incrementScrollY() {
+		if (mask.renderBackground() == 1 || mask.renderSprites() == 1) {
+			int fineY = loopyV.fineY();
+			if (fineY < 7) {
+				loopyV.fineY(fineY + 1);
+			} else {
+				loopyV.fineY(0);
+				if (loopyV.coarseY() == 29) {
+					loopyV.coarseY(0);
+					loopyV.nametableY(~loopyV.nametableY());
+				} else if (loopyV.coarseY() == 31) {
+					loopyV.coarseY(0);
+				} else {
+					loopyV.coarseY(loopyV.coarseY() + 1);
+				}
+			}
+		}
+	}
+
+	private void transferAddressX() {
+		if (mask.renderBackground() == 1 || mask.renderSprites() == 1) {
+			loopyV.nametableX(loopyT.nametableX());
+			loopyV.coarseX(loopyT.coarseX());
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cpu.NesRunner;
+import cpu.Rewind;
+import cpu.SaveState;
+
+/**
+ * <p>
+ * What a save state costs: writing one, reading one back, and recording a
+ * frame for rewind (a save state, XORed against its keyframe and encoded).
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaveStateBenchmark {
+
+	private NesRunner runner;
+	private ByteBuffer buffer;
+	private ByteBuffer saved;
+	private Rewind rewind;
+
+	@Setup
+	public void setup() {
+		runner = new NesRunner(Fixtures.rom());
+		for (int i = 0; i < 60; i++) {
+			runner.runFrame();
+		}
+
+		buffer = SaveState.allocate();
+		saved = SaveState.allocate();
+		runner.saveState(saved);
+		saved.flip();
+
+		rewind = new Rewind(runner, 16 << 20, 60);
+	}
+
+	@Benchmark
+	public int save() {
+		buffer.clear();
+		runner.saveState(buffer);
+		return buffer.position();
+	}
+
+	@Benchmark
+	public int load() {
+		saved.rewind();
+		runner.loadState(saved);
+		return saved.position();
+	}
+
+	@Benchmark
+	public int rewindRecord() {
+		rewind.record();
+		return rewind.frames();
+	}
+}
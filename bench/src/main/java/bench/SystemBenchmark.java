@@ -0,0 +1,63 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cpu.CPU6502;
+import cpu.NesRunner;
+import cpu.PPU2C02;
+
+/**
+ * <p>
+ * Whole machine frames per second through {@link NesRunner#runFrame()}, on the
+ * test ROM or the one given with <code>-Dnes.rom</code>.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SystemBenchmark {
+
+	@Param({ "DOT", "SCANLINE" })
+	public PPU2C02.RenderMode renderMode;
+
+	@Param({ "MICROCODE", "SWITCH" })
+	public CPU6502.Core core;
+
+	private NesRunner runner;
+
+	@Setup
+	public void setup() {
+		runner = new NesRunner(Fixtures.rom());
+		runner.getPpu().setRenderMode(renderMode);
+		runner.getCpu().setCore(core);
+
+		// Get past the game's start up.
+		for (int i = 0; i < 60; i++) {
+			runner.runFrame();
+		}
+	}
+
+	@Benchmark
+	public int runFrame() {
+		runner.runFrame();
+		return runner.systemClock;
+	}
+}
@@ -0,0 +1,210 @@
+package cpu;
+
+/**
+ * <p>
+ * A mapper that switches banks in fixed windows, the way every mapper so far
+ * does. The cpu sees $8000-$FFFF as four 8KB PRG windows and the PPU sees
+ * $0000-$1FFF as eight 1KB CHR windows; each window holds the offset of its
+ * bank, so a read is the address plus an offset and nothing else.
+ * </p>
+ *
+ * <p>
+ * Subclasses only decode their registers in {@link #writeRegister(int, int)}
+ * and point the windows with the setters, 8KB, 16KB or 32KB at a time for PRG
+ * and 1KB to 8KB for CHR. A bank number is taken modulo the number of banks of
+ * that size, so -1 is the last one. The {@code Bus} and the {@code Cartridge}
+ * read through the windows themselves, so a switch is the change of an offset;
+ * after each write the cartridge is only told which CHR windows moved.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public abstract class BankedMapper extends Mapper {
+
+	private final int[] prgOffsets = new int[4];
+	private final int[] chrOffsets = new int[8];
+
+	// A bit per CHR window that moved since the last applyBanks().
+	private int chrMoved = 0;
+
+	private final int prgSize;
+	private final int chrSize;
+
+	public BankedMapper(int prgBanks, int chrBanks) {
+		super(prgBanks, chrBanks);
+		prgSize = prgBanks * 0x4000;
+		// No CHR ROM means 8KB of CHR RAM.
+		chrSize = (chrBanks == 0) ? 0x2000 : chrBanks * 0x2000;
+	}
+
+	/**
+	 * <p>
+	 * Decodes a write to $8000-$FFFF.
+	 * </p>
+	 *
+	 * @param addr
+	 * @param data
+	 */
+	protected abstract void writeRegister(int addr, int data);
+
+	@Override
+	final int cpuRead(int addr) {
+		if (addr >= 0x8000 && addr <= 0xffff)
+			return prgOffsets[(addr >> 13) & 0x03] + (addr & 0x1fff);
+		return -1;
+	}
+
+	@Override
+	final int cpuWrite(int addr, int data) {
+		if (addr < 0x8000 || addr > 0xffff)
+			return -1;
+
+		writeRegister(addr, data);
+		applyBanks();
+		return addr;
+	}
+
+	@Override
+	final int ppuRead(int addr) {
+		if (addr >= 0x0000 && addr <= 0x1fff)
+			return chrOffsets[addr >> 10] + (addr & 0x03ff);
+		return -1;
+	}
+
+	@Override
+	final int ppuWrite(int addr) {
+		// Only CHR RAM can be written.
+		if (addr >= 0x0000 && addr <= 0x1fff && chrBanks == 0)
+			return chrOffsets[addr >> 10] + (addr & 0x03ff);
+		return -1;
+	}
+
+	@Override
+	final int[] prgWindows() {
+		return prgOffsets;
+	}
+
+	@Override
+	final int[] chrWindows() {
+		return chrOffsets;
+	}
+
+	// O---------------------------#
+	// | PRG WINDOWS
+	// O---------------------------#
+
+	/**
+	 * @param window
+	 *            0 to 3, for $8000, $A000, $C000 and $E000.
+	 * @param bank
+	 */
+	protected void setPrg8k(int window, int bank) {
+		setPrg(window, 1, bank, 0x2000);
+	}
+
+	/**
+	 * @param window
+	 *            0 or 1, for $8000 and $C000.
+	 * @param bank
+	 */
+	protected void setPrg16k(int window, int bank) {
+		setPrg(window * 2, 2, bank, 0x4000);
+	}
+
+	protected void setPrg32k(int bank) {
+		setPrg(0, 4, bank, 0x8000);
+	}
+
+	// O---------------------------#
+	// | CHR WINDOWS
+	// O---------------------------#
+
+	/**
+	 * @param window
+	 *            0 to 7, for $0000, $0400, ... $1C00.
+	 * @param bank
+	 */
+	protected void setChr1k(int window, int bank) {
+		setChr(window, 1, bank, 0x0400);
+	}
+
+	/**
+	 * @param window
+	 *            0 to 3, for $0000, $0800, $1000 and $1800.
+	 * @param bank
+	 */
+	protected void setChr2k(int window, int bank) {
+		setChr(window * 2, 2, bank, 0x0800);
+	}
+
+	/**
+	 * @param window
+	 *            0 or 1, for $0000 and $1000.
+	 * @param bank
+	 */
+	protected void setChr4k(int window, int bank) {
+		setChr(window * 4, 4, bank, 0x1000);
+	}
+
+	protected void setChr8k(int bank) {
+		setChr(0, 8, bank, 0x2000);
+	}
+
+	/**
+	 * <p>
+	 * Tells the cartridge about the CHR windows that moved since the last call.
+	 * Called after every register write; mappers that switch banks elsewhere,
+	 * e.g. when loading a state, call it themselves.
+	 * </p>
+	 */
+	protected void applyBanks() {
+		// Each run of windows next to each other is one call.
+		while (chrMoved != 0) {
+			int first = Integer.numberOfTrailingZeros(chrMoved);
+			int last = Integer.numberOfTrailingZeros(~(chrMoved >> first)) + first - 1;
+			chrMoved &= ~(((2 << last) - 1) & ~((1 << first) - 1));
+			chrBanksChanged(first * 0x0400, last * 0x0400 + 0x03ff);
+		}
+	}
+
+	// O---------------------------#
+	// | HELPER FUNCTIONS
+	// O---------------------------#
+
+	// Points count 8KB windows from first on at the bank of the given size.
+	private void setPrg(int first, int count, int bank, int size) {
+		int offset = bank(bank, prgSize, size) * size;
+		for (int i = 0; i < count; i++) {
+			int window = first + i;
+			int windowOffset = offset + i * 0x2000;
+			// A bank bigger than the ROM, e.g. 32KB of NROM-128, repeats it.
+			if (windowOffset >= prgSize)
+				windowOffset %= prgSize;
+			prgOffsets[window] = windowOffset;
+		}
+	}
+
+	private void setChr(int first, int count, int bank, int size) {
+		int offset = bank(bank, chrSize, size) * size;
+		for (int i = 0; i < count; i++) {
+			int window = first + i;
+			int windowOffset = offset + i * 0x0400;
+			if (windowOffset >= chrSize)
+				windowOffset %= chrSize;
+			if (chrOffsets[window] != windowOffset) {
+				chrOffsets[window] = windowOffset;
+				chrMoved |= 1 << window;
+			}
+		}
+	}
+
+	// The bank number modulo the number of banks of that size. Sizes are powers
+	// of two, and so is the memory of almost every board.
+	private static int bank(int bank, int memorySize, int size) {
+		int banks = Math.max(1, memorySize >> Integer.numberOfTrailingZeros(size));
+		if ((banks & (banks - 1)) == 0)
+			return bank & (banks - 1);
+		return Math.floorMod(bank, banks);
+	}
+}
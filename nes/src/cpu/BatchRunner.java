@@ -0,0 +1,194 @@
+package cpu;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Runs many ROMs headless, each in its own {@code NesRunner}, on a
+ * work-stealing pool with a thread per core. Nothing is shared between the
+ * runners but the read-only {@code RomImage}s, so the jobs don't wait on each
+ * other.
+ * </p>
+ * 
+ * <p>
+ * For every job it reports how fast it ran and a hash of the last frame and of
+ * the cpu's RAM, to compare runs against each other.
+ * </p>
+ * 
+ * @author jorgejimenez
+ *
+ */
+public class BatchRunner {
+
+	// FNV-1a, 64 bits.
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * A ROM and the number of frames to run it for.
+	 */
+	public static final class Job {
+		public final String rom;
+		public final int frames;
+
+		public Job(String rom, int frames) {
+			this.rom = rom;
+			this.frames = frames;
+		}
+	}
+
+	/**
+	 * What a {@link Job} did. A job that failed has its <code>error</code> set
+	 * and nothing else.
+	 */
+	public static final class Result {
+		public final Job job;
+		public final long nanos;
+		public final long screenHash;
+		public final long ramHash;
+		public final String error;
+
+		private Result(Job job, long nanos, long screenHash, long ramHash, String error) {
+			this.job = job;
+			this.nanos = nanos;
+			this.screenHash = screenHash;
+			this.ramHash = ramHash;
+			this.error = error;
+		}
+
+		public double fps() {
+			return (nanos == 0) ? 0 : job.frames * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			if (error != null)
+				return job.rom + " FAILED: " + error;
+
+			return String.format("%s %d frames %.1f fps screen %016x ram %016x", job.rom, job.frames, fps(), screenHash,
+					ramHash);
+		}
+	}
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * A runner with one thread per core.
+	 */
+	public BatchRunner() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public BatchRunner(int threads) {
+		pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * <p>
+	 * Runs every job and waits for all of them.
+	 * </p>
+	 * 
+	 * @param jobs
+	 * @return The results, in the same order as the jobs.
+	 */
+	public List<Result> run(List<Job> jobs) {
+		List<Future<Result>> futures = new ArrayList<>();
+		for (Job job : jobs) {
+			futures.add(pool.submit(() -> run(job)));
+		}
+
+		List<Result> results = new ArrayList<>();
+		for (Future<Result> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			} catch (ExecutionException e) {
+				// run(Job) catches what the emulator throws.
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Stops the threads once the running jobs are done.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Runs a single job on the calling thread.
+	 * 
+	 * @param job
+	 * @return
+	 */
+	public static Result run(Job job) {
+		try {
+			NesRunner runner = new NesRunner(job.rom);
+
+			long start = System.nanoTime();
+			for (int i = 0; i < job.frames; i++) {
+				runner.runFrame();
+			}
+			long nanos = System.nanoTime() - start;
+
+			int[] screen = runner.getPpu().getScreen();
+			long screenHash = FNV_OFFSET;
+			for (int i = 0; i < screen.length; i++) {
+				screenHash = (screenHash ^ screen[i]) * FNV_PRIME;
+			}
+
+			byte[] ram = runner.getBus().getCPUMem();
+			long ramHash = FNV_OFFSET;
+			for (int i = 0; i < ram.length; i++) {
+				ramHash = (ramHash ^ (ram[i] & 0xff)) * FNV_PRIME;
+			}
+
+			return new Result(job, nanos, screenHash, ramHash, null);
+		} catch (RuntimeException e) {
+			return new Result(job, 0, 0, 0, e.toString());
+		}
+	}
+
+	/**
+	 * <p>
+	 * Usage: <code>BatchRunner frames rom...</code>
+	 * </p>
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println("Usage: BatchRunner frames rom...");
+			return;
+		}
+
+		int frames = Integer.parseInt(args[0]);
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			jobs.add(new Job(args[i], frames));
+		}
+
+		BatchRunner batch = new BatchRunner();
+		long start = System.nanoTime();
+		List<Result> results = batch.run(jobs);
+		long nanos = System.nanoTime() - start;
+		batch.shutdown();
+
+		long totalFrames = 0;
+		for (Result result : results) {
+			System.out.println(result);
+			if (result.error == null)
+				totalFrames += frames;
+		}
+		System.out.printf("%d jobs, %d frames in %.2f s, %.1f fps overall%n", results.size(), totalFrames, nanos / 1e9,
+				totalFrames * 1e9 / nanos);
+	}
+}
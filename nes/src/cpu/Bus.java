@@ -1,44 +1,158 @@
 package cpu;
 
+import java.nio.ByteBuffer;
+
 /**
  * <p>
  * The CPU on the NES is addressed through the bus in the following way:
  * </p>
  * 
+ * <pre>
+ * $0000-$1FFF  2KB of RAM, mirrored four times
+ * $2000-$3FFF  PPU registers, mirrored every 8 bytes
+ * $4000-$401F  APU and I/O registers
+ * $4020-$FFFF  Cartridge
+ * </pre>
+ * 
+ * <p>
+ * Every 256 byte page has an entry in a page table. Pages backed by an array
+ * (RAM, and PRG ROM the cartridge maps a page at a time) are read with a
+ * single array index; the rest go through a {@link Handler}. PRG ROM switched
+ * in 8KB windows is read through the mapper's own window offsets, so switching
+ * a bank doesn't touch the page table.
+ * </p>
+ * 
  * @author jorgejimenez
  *
  */
 public class Bus {
-	private int[] cpuRam;
+
+	/**
+	 * <p>
+	 * Handles the reads and writes of a page that isn't plain memory: the PPU
+	 * registers, the I/O registers and whatever the cartridge doesn't map
+	 * straight to an array.
+	 * </p>
+	 * 
+	 * @author jorgejimenez
+	 *
+	 */
+	public interface Handler {
+		int read(int addr, boolean readOnly);
+
+		void write(int addr, int data);
+	}
+
+	private byte[] cpuRam;
 	private PPU2C02 ppu;
 	private Cartridge cart;
 
+	// •–––––––––––––––––––––––––––•
+	// | PAGE TABLE
+	// •–––––––––––––––––––––––––––•
+
+	// One entry per page. A page with an array is read as
+	// readPages[page][bases[page] + addr], any other page goes to its handler.
+	// The base is where the page starts in its array minus the page's address,
+	// so all the pages of a bank have the same one. Only RAM is written
+	// straight to its array.
+	private final byte[][] readPages = new byte[256][];
+	private final byte[][] writePages = new byte[256][];
+	private final int[] bases = new int[256];
+	private final Handler[] handlers = new Handler[256];
+
+	// While windowed, $8000-$FFFF is read as
+	// prgMem[prgWindows[(addr >> 13) & 3] + (addr & 0x1fff)], before the page
+	// table. The windows are the mapper's, a switch only changes an offset in
+	// them. A read watchpoint on any of the pages turns it off, the pages then
+	// go to their handlers.
+	private byte[] prgMem;
+	private int[] prgWindows;
+	private boolean prgWindowed = false;
+	private int watchedPrgPages = 0;
+
+	// •–––––––––––––––––––––––––––•
+	// | WATCHPOINTS
+	// •–––––––––––––––––––––––––––•
+
+	// Pages with a watchpoint on them. The watched directions are taken out of
+	// the page table and the page's handler is the watch handler, which finds
+	// the real mapping here. Unwatched pages cost nothing.
+	private final boolean[] watchReads = new boolean[256];
+	private final boolean[] watchWrites = new boolean[256];
+	private final byte[][] watchedReadPages = new byte[256][];
+	private final byte[][] watchedWritePages = new byte[256][];
+	private final Handler[] watchedHandlers = new Handler[256];
+	private Debugger debugger;
+
 	// •–––––––––––––––––––––––––––•
 	// | OAM
 	// •–––––––––––––––––––––––––––•
 
-	public int dmaPage = 0x00;
-	public int dmaAddr = 0x00;
-	public int dmaData = 0x00;
-	public boolean dmaDummy = true;
-	public boolean dmaTranfer = true;
+	// The page the last write to $4014 asked for, and whether it hasn't been
+	// copied yet. The machine has always powered on with a DMA of page 0
+	// pending, both NesRunner.clock() and the Scheduler start by doing it.
+	private int dmaPage = 0x00;
+	private boolean dmaPending = true;
 
 	private int[] controllerState;
 	public int[] controller;
 	public CPU6502 cpu;
+	private Scheduler scheduler;
 
 	public Bus(PPU2C02 ppu) {
-		cpuRam = new int[0x800];
+		cpuRam = new byte[0x800];
 		this.ppu = ppu;
 		this.cart = ppu.getCart();
 		controller = new int[2];
 		controllerState = new int[2];
 		this.ppu.connect(this);
+
+		for (int page = 0x00; page < 0x20; page++) {
+			readPages[page] = cpuRam;
+			writePages[page] = cpuRam;
+			bases[page] = ((page & 0x07) << 8) - (page << 8);
+		}
+
+		for (int page = 0x20; page < 0x40; page++) {
+			handlers[page] = ppuRegisters;
+		}
+
+		handlers[0x40] = ioRegisters;
+		for (int page = 0x41; page < 0x100; page++) {
+			handlers[page] = cartridge;
+		}
+
+		cart.connect(this);
+	}
+
+	/**
+	 * <p>
+	 * A bus with nothing on it but 64KB of RAM, for running a {@code CPU6502} on
+	 * its own, e.g. test programs. Every page is mapped straight to the array, so
+	 * the cpu reads and writes it the same way it does the NES's RAM and there is
+	 * no PPU or cartridge behind it.
+	 * </p>
+	 *
+	 * @param memory
+	 *            The 64KB the cpu sees, used as is.
+	 */
+	public Bus(byte[] memory) {
+		if (memory.length != 0x10000)
+			throw new IllegalArgumentException("A flat bus needs 64KB of memory.");
+
+		cpuRam = memory;
+		controller = new int[2];
+		controllerState = new int[2];
+
+		for (int page = 0x00; page < 0x100; page++) {
+			mapPage(page, memory, page << 8, true);
+		}
 	}
 
 	/**
 	 * <p>
-	 * TODO:
+	 * Reads a byte from the CPU's address space.
 	 * </p>
 	 * 
 	 * @param addr
@@ -46,72 +160,366 @@ public class Bus {
 	 * @return
 	 */
 	public int cpuRead(int addr, boolean readOnly) {
-		int data = 0x00;
+		addr &= 0xffff;
+		if (addr >= 0x8000 && prgWindowed) {
+			return prgMem[prgWindows[(addr >> 13) & 0x03] + (addr & 0x1fff)] & 0xff;
+		}
 
-		data = cart.cpuRead(addr);
+		int page = addr >> 8;
+		byte[] memory = readPages[page];
+		if (memory != null) {
+			return memory[bases[page] + addr] & 0xff;
+		}
 
-		// If the address was in the cartridge's memory range
-		// return the byte in that memory address. Otherwise check
-		// main RAM or PPU I/O.
-		if (data != -1) {
-			return data;
+		return handlers[page].read(addr, readOnly);
+	}
+
+	/**
+	 * <p>
+	 * Writes a byte to the CPU's address space.
+	 * </p>
+	 * 
+	 * @param addr
+	 * @param data
+	 */
+	public void cpuWrite(int addr, int data) {
+		addr &= 0xffff;
+		int page = addr >> 8;
+
+		byte[] memory = writePages[page];
+		if (memory != null) {
+			memory[bases[page] + addr] = (byte) data;
+			return;
 		}
 
-		data = 0x00;
+		handlers[page].write(addr, data);
+	}
 
-		if (addr >= 0x0000 && addr <= 0x1fff) {
-			// Reading from the main RAM
-			data = cpuRam[addr & 0x07ff];
+	/**
+	 * <p>
+	 * Points a page at an array, e.g. a bank of PRG ROM, so reads from the page
+	 * index the array directly. Passing <code>null</code> sends the reads back to
+	 * the page's handler. The {@code Cartridge} maps its PRG RAM with it, and
+	 * its PRG ROM when the mapper has no windows.
+	 * </p>
+	 * 
+	 * @param page
+	 *            The high byte of the addresses in the page.
+	 * @param memory
+	 * @param offset
+	 *            The index in {@code memory} of the first byte of the page.
+	 */
+	public void mapPage(int page, byte[] memory, int offset) {
+		mapPage(page, memory, offset, false);
+	}
 
-		} else if (addr >= 0x2000 && addr <= 0x3fff) {
-			// Accessing the memory mapped I/O registers for the PPU
-			data = ppu.cpuRead(addr & 0x0007, readOnly);
+	/**
+	 * <p>
+	 * Same as {@link #mapPage(int, byte[], int)}, but writes can also go straight
+	 * to the array, e.g. for PRG RAM.
+	 * </p>
+	 * 
+	 * @param page
+	 * @param memory
+	 * @param offset
+	 * @param writable
+	 */
+	public void mapPage(int page, byte[] memory, int offset, boolean writable) {
+		byte[] writeMemory = writable ? memory : null;
+		bases[page] = offset - (page << 8);
+		if (page >= 0x80) {
+			prgWindows = null;
+			prgWindowed = false;
+		}
 
-		} else if (addr >= 0x4016 && addr <= 0x4017) {
-			data = (controllerState[addr & 0x0001] >> 7) & 1;
-			// data = (controllerState[addr & 0x0001] & 0x80) > 0;
-			controllerState[addr & 0x0001] <<= 1;
+		if (watchReads[page] || watchWrites[page]) {
+			watchedReadPages[page] = memory;
+			watchedWritePages[page] = writeMemory;
+			readPages[page] = watchReads[page] ? null : memory;
+			writePages[page] = watchWrites[page] ? null : writeMemory;
+			return;
 		}
 
-		return data;
+		readPages[page] = memory;
+		writePages[page] = writeMemory;
 	}
 
-	public void cpuWrite(int addr, int data) {
+	/**
+	 * <p>
+	 * Reads $8000-$FFFF through four 8KB windows, e.g. the PRG banks a mapper
+	 * switches. The array of offsets is kept, not copied: the mapper switches a
+	 * bank by changing the offset of its window and the bus reads from there on.
+	 * Writes still go to the pages' handlers, and mapping one of the pages with
+	 * {@link #mapPage(int, byte[], int)} unmaps the windows.
+	 * </p>
+	 * 
+	 * @param memory
+	 *            The PRG ROM.
+	 * @param windows
+	 *            The index in {@code memory} of the first byte of $8000, $A000,
+	 *            $C000 and $E000.
+	 */
+	public void mapPrgWindows(byte[] memory, int[] windows) {
+		for (int page = 0x80; page < 0x100; page++) {
+			mapPage(page, null, 0);
+		}
+		prgMem = memory;
+		prgWindows = windows;
+		prgWindowed = watchedPrgPages == 0;
+	}
 
-		// If the write to the cartridge was successful move on.
-		// Otherwise try to write to main RAM or PPU I/O.
-		if (cart.cpuWrite(addr, data) == 0) {
-			return;
+	/**
+	 * <p>
+	 * Sends the reads or writes of a page through the {@code Debugger}. Called
+	 * by the debugger when a watchpoint is added to or removed from the page.
+	 * </p>
+	 * 
+	 * @param page
+	 * @param read
+	 * @param write
+	 */
+	void watchPage(int page, boolean read, boolean write) {
+		if (watchReads[page] || watchWrites[page]) {
+			readPages[page] = watchedReadPages[page];
+			writePages[page] = watchedWritePages[page];
+			handlers[page] = watchedHandlers[page];
 		}
 
-		if (addr >= 0x0000 && addr <= 0x1fff) {
+		if (page >= 0x80 && watchReads[page] != read) {
+			watchedPrgPages += read ? 1 : -1;
+			prgWindowed = prgWindows != null && watchedPrgPages == 0;
+		}
 
-			cpuRam[addr & 0x07ff] = data;
+		watchReads[page] = read;
+		watchWrites[page] = write;
+		if (!read && !write)
+			return;
+
+		watchedReadPages[page] = readPages[page];
+		watchedWritePages[page] = writePages[page];
+		watchedHandlers[page] = handlers[page];
+		if (read)
+			readPages[page] = null;
+		if (write)
+			writePages[page] = null;
+		handlers[page] = watchHandler;
+	}
 
-		} else if (addr >= 0x2000 && addr <= 0x3fff) {
+	// O---------------------------#
+	// | PAGE HANDLERS
+	// O---------------------------#
+
+	// $2000-$3FFF
+	private final Handler ppuRegisters = new Handler() {
+		@Override
+		public int read(int addr, boolean readOnly) {
+			if (scheduler != null)
+				scheduler.catchUp();
+			return ppu.cpuRead(addr & 0x0007, readOnly);
+		}
 
+		@Override
+		public void write(int addr, int data) {
+			if (scheduler != null)
+				scheduler.catchUp();
 			ppu.cpuWrite(addr & 0x0007, data);
+			if (scheduler != null)
+				scheduler.ppuWrite(addr);
+		}
+	};
+
+	// $4000-$40FF, from $4020 on it's the cartridge's.
+	private final Handler ioRegisters = new Handler() {
+		@Override
+		public int read(int addr, boolean readOnly) {
+			if (addr >= 0x4020)
+				return cartridge.read(addr, readOnly);
 
-		} else if (addr == 0x4014) {
+			int data = 0x00;
+			if (addr >= 0x4016 && addr <= 0x4017) {
+				data = (controllerState[addr & 0x0001] >> 7) & 1;
+				// data = (controllerState[addr & 0x0001] & 0x80) > 0;
+				controllerState[addr & 0x0001] <<= 1;
+			}
+			return data;
+		}
 
-			dmaPage = data;
-			dmaAddr = 0x00;
-			dmaTranfer = true;
+		@Override
+		public void write(int addr, int data) {
+			if (addr >= 0x4020) {
 
-		} else if (addr >= 0x4016 && addr <= 0x4017) {
+				cartridge.write(addr, data);
 
-			controllerState[addr & 0x0001] = controller[addr & 0x0001];
+			} else if (addr == 0x4014) {
 
+				dmaPage = data & 0xff;
+				dmaPending = true;
+				if (scheduler != null)
+					scheduler.dmaRequest();
+
+			} else if (addr >= 0x4016 && addr <= 0x4017) {
+
+				controllerState[addr & 0x0001] = controller[addr & 0x0001];
+
+			}
+		}
+	};
+
+	// Whatever the cartridge doesn't map to an array, and every write to it.
+	private final Handler cartridge = new Handler() {
+		@Override
+		public int read(int addr, boolean readOnly) {
+			int data = cart.cpuRead(addr);
+			return (data == -1) ? 0x00 : data;
 		}
 
+		@Override
+		public void write(int addr, int data) {
+			if (scheduler != null)
+				scheduler.cartridgeWrite();
+			cart.cpuWrite(addr, data);
+		}
+	};
+
+	/**
+	 * @return The PPU dot the instruction being executed started on, or -1 on a
+	 *         flat bus.
+	 */
+	int ppuDot() {
+		return (scheduler != null) ? scheduler.instructionDot() : -1;
 	}
 
-	public int[] getCPUMem() {
+	// A watched page. Reports the access, then does it the way the page is
+	// really mapped.
+	private final Handler watchHandler = new Handler() {
+		@Override
+		public int read(int addr, boolean readOnly) {
+			int page = addr >> 8;
+			byte[] memory = watchedReadPages[page];
+			int data = (memory != null) ? memory[bases[page] + addr] & 0xff
+					: watchedHandlers[page].read(addr, readOnly);
+
+			if (watchReads[page] && !readOnly)
+				debugger.read(addr, data);
+			return data;
+		}
+
+		@Override
+		public void write(int addr, int data) {
+			int page = addr >> 8;
+			if (watchWrites[page])
+				debugger.write(addr, data & 0xff);
+
+			byte[] memory = watchedWritePages[page];
+			if (memory != null)
+				memory[bases[page] + addr] = (byte) data;
+			else
+				watchedHandlers[page].write(addr, data);
+		}
+	};
+
+	public byte[] getCPUMem() {
 		return cpuRam;
 	}
 
+	/**
+	 * @return Whether the cpu wrote to $4014 and the DMA hasn't run yet.
+	 */
+	public boolean isDmaPending() {
+		return dmaPending;
+	}
+
+	/**
+	 * <p>
+	 * Runs the pending OAM DMA in one go: the page is copied into the PPU's
+	 * OAM straight from its array when it is RAM or ROM, and read through the
+	 * bus otherwise. The caller stalls the cpu for the cycles returned.
+	 * </p>
+	 * 
+	 * @param cycle
+	 *            The cpu cycle the DMA starts on.
+	 * @return 513 cycles, 514 when starting on an even cycle: one dummy cycle
+	 *         (two to line up with a read cycle), then a read and a write per
+	 *         byte.
+	 */
+	public int oamDma(long cycle) {
+		int[] oam = ppu.OAM;
+		byte[] memory = readPages[dmaPage];
+		int offset = bases[dmaPage] + (dmaPage << 8);
+		if (dmaPage >= 0x80 && prgWindowed) {
+			memory = prgMem;
+			offset = prgWindows[(dmaPage >> 5) & 0x03] + ((dmaPage & 0x1f) << 8);
+		}
+		if (memory != null) {
+			for (int i = 0; i < 256; i++) {
+				oam[i] = memory[offset + i] & 0xff;
+			}
+		} else {
+			int addr = dmaPage << 8;
+			for (int i = 0; i < 256; i++) {
+				oam[i] = cpuRead(addr | i, false);
+			}
+		}
+
+		dmaPending = false;
+		return (cycle % 2 == 1) ? 513 : 514;
+	}
+
+	// O---------------------------#
+	// | SAVE STATES
+	// O---------------------------#
+
+	/**
+	 * <p>
+	 * Writes the RAM, the pending DMA and the controllers. The page table is
+	 * rebuilt by the {@code Cartridge}, it isn't part of the state.
+	 * </p>
+	 *
+	 * @param buffer
+	 */
+	public void saveState(ByteBuffer buffer) {
+		buffer.put(cpuRam);
+		buffer.put((byte) dmaPage);
+		SaveState.putBoolean(buffer, dmaPending);
+		SaveState.putBytes(buffer, controller);
+
+		// The shift registers are never masked, keep every bit.
+		SaveState.putInts(buffer, controllerState);
+	}
+
+	public void loadState(ByteBuffer buffer) {
+		buffer.get(cpuRam);
+		dmaPage = buffer.get() & 0xff;
+		dmaPending = SaveState.getBoolean(buffer);
+		SaveState.getBytes(buffer, controller);
+		SaveState.getInts(buffer, controllerState);
+	}
+
 	public void connect(CPU6502 cpu6502) {
 		this.cpu = cpu6502;
 
 	}
-}
\ No newline at end of file
+
+	/**
+	 * <p>
+	 * Lets the scheduler catch the PPU up before the cpu touches its registers
+	 * or the mapper's, and hands it the OAM DMA.
+	 * </p>
+	 * 
+	 * @param scheduler
+	 */
+	public void connect(Scheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * <p>
+	 * The debugger told about the accesses to watched pages.
+	 * </p>
+	 * 
+	 * @param debugger
+	 */
+	public void connect(Debugger debugger) {
+		this.debugger = debugger;
+	}
+}
@@ -1,6 +1,8 @@
 
 package cpu;
 
+import java.nio.ByteBuffer;
+
 import edu.princeton.cs.algs4.HexDump;
 import helpers.Hexdump;
 
@@ -20,13 +22,6 @@ import helpers.Hexdump;
  */
 public class CPU6502 {
 
-	// •–––––––––––––––––––––––––––––––––––––––––––––––
-	// |DEBUGGING
-	// •–––––––––––––––––––––––––––––––––––––––––––––––
-	public static boolean STOP_RUN = false;
-
-	public static boolean START_CLOCK = false;
-
 	// Array containing the instruction set.
 	// The opcode is the used to access the instruction i.e., $0a instruction
 	// ASL.
@@ -34,6 +29,28 @@ public class CPU6502 {
 	public Instruction[][] instructions = new Instruction[0x0f + 1][0x0f + 1];
 	private Bus bus;
 
+	/**
+	 * <p>
+	 * The interpretation cores the {@code CPU6502} can run with.
+	 * <code>MICROCODE</code> runs the {@code Executable} pairs built by
+	 * {@code InstructionSet}. <code>SWITCH</code> runs the flat opcode switch of
+	 * {@code SwitchCore}.
+	 * </p>
+	 */
+	public static enum Core {
+		MICROCODE, SWITCH;
+	}
+
+	private Core core = Core.MICROCODE;
+	private final SwitchCore switchCore;
+
+	// Null unless CpuProfiler.ENABLED.
+	final CpuProfiler profiler;
+	// Null unless tracing.
+	TraceRecorder trace;
+	// Null unless debugging.
+	Debugger debugger;
+
 	// A pointer to the Instruction currently being executed.
 	private Instruction currentInstruction = null;
 
@@ -58,7 +75,15 @@ public class CPU6502 {
 	// control
 	// flags are held in a special status register. Each flag has a single bit
 	// within the register.
+	// Only I, D, B and the unused bit are kept here. N, Z, C and V are kept as
+	// the values they come from and packed by getStatus() when P is needed.
 	private int status = 0x00;
+	// N is bit 7 of negative, Z is set when the low byte of zero is 0, C is
+	// carry (0 or 1) and V is bit 6 of overflow.
+	private int negative = 0x00;
+	private int zero = 0x01;
+	private int carry = 0x00;
+	private int overflow = 0x00;
 
 	// Keep track of the number of cycles.
 	public int cycle = 0;
@@ -69,11 +94,10 @@ public class CPU6502 {
 	// Store the addresses passed to the current instruction.
 	public int handlingData = 0x0000;
 
-	// •–––––––––––––––––––––––––––––––––––––––•
-	// | DEBUGGING
-	// •–––––––––––––––––––––––––––––––––––––––•
-	private boolean DEBUG_FILL2007_STOP = false;
-	private boolean DEBUG_FILL2007_END_STOP = false;
+	// Cycles used by the current run() up to the start of the instruction being
+	// executed, and the cycle budget of the run.
+	private int runCycles = 0;
+	private int runBudget = 0;
 
 	public CPU6502(Bus bus) {
 
@@ -81,12 +105,63 @@ public class CPU6502 {
 		this.bus = bus;
 		bus.connect(this);
 		getInstructionsSet();
+		profiler = CpuProfiler.ENABLED ? new CpuProfiler(this) : null;
+		switchCore = new SwitchCore(this, bus);
 	}
 
 	public Bus getBus() {
 		return this.bus;
 	}
 
+	/**
+	 * @return The profiler counting what this cpu executes, or null if
+	 *         profiling is off (see {@link CpuProfiler#ENABLED}).
+	 */
+	public CpuProfiler getProfiler() {
+		return profiler;
+	}
+
+	public Debugger getDebugger() {
+		return debugger;
+	}
+
+	/**
+	 * Checks the debugger's breakpoints before every instruction, or stops with
+	 * null. Use {@link Debugger#attach()}.
+	 * 
+	 * @param debugger
+	 */
+	void setDebugger(Debugger debugger) {
+		this.debugger = debugger;
+	}
+
+	public TraceRecorder getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Starts recording every instruction to the trace, or stops with null.
+	 * 
+	 * @param trace
+	 */
+	public void setTrace(TraceRecorder trace) {
+		this.trace = trace;
+	}
+
+	public Core getCore() {
+		return core;
+	}
+
+	/**
+	 * Selects the interpretation core used by {@link #clock()}. The core can be
+	 * switched between instructions.
+	 * 
+	 * @param core
+	 */
+	public void setCore(Core core) {
+		this.core = core;
+	}
+
 	/**
 	 * Gets and executes the next instructions.
 	 * 
@@ -105,41 +180,12 @@ public class CPU6502 {
 
 		currentInstruction = instructions[ms][ls];
 
-		cycle = currentInstruction.cycles;
-
-		// ––––––––––––––––––––––––––––––––––––––––
-		// DEBUG
-
-		if (this.programCounter > 0xf1c8 && this.programCounter <= 0xf1ce) {
-			this.DEBUG_FILL2007_STOP = true;
-		}
-
-		if (this.programCounter >= 0xf1d7) {
-			this.DEBUG_FILL2007_END_STOP = true;
-		}
-
-		if (this.programCounter >= 0xc7c2) {
-			this.DEBUG_FILL2007_END_STOP = true;
-		}
-		if (this.programCounter >= 0xf213 && this.programCounter <= 0xf220) {
-			this.DEBUG_FILL2007_END_STOP = true;
-		}
-		if (this.programCounter >= 0xf21c && this.programCounter <= 0xf220) {
-			this.DEBUG_FILL2007_END_STOP = true;
-		}
-
-		if (this.programCounter >= 0xf202 && this.programCounter <= 0xf207) {
-			this.DEBUG_FILL2007_END_STOP = true;
-		}
-
-		if (this.programCounter == 0xf21c) {
-			this.DEBUG_FILL2007_END_STOP = true;
-		}
-		if (this.programCounter == 0xcbd9) {
-			this.DEBUG_FILL2007_END_STOP = true;
-		}
+		if (debugger != null)
+			debugger.execute(programCounter, opcode);
+		if (trace != null)
+			trace.record(programCounter, opcode, a, x, y, getStatus(), stackPointer, totalCycles);
 
-		// ––––––––––––––––––––––––––––––––––––––––
+		cycle = currentInstruction.cycles;
 
 		// Run mode then instruction. and keep track of cycles. If both return 1
 		// add one
@@ -149,6 +195,9 @@ public class CPU6502 {
 
 		cycle += (m & i);
 
+		if (CpuProfiler.ENABLED)
+			profiler.instruction(opcode, cycle - currentInstruction.cycles);
+
 		totalCycles += cycle;
 
 	}
@@ -165,7 +214,7 @@ public class CPU6502 {
 	 */
 	public boolean getFlag(Flag f) {
 
-		return (status & f.getFlag()) > 0 ? true : false;
+		return (getStatus() & f.getFlag()) != 0;
 	}
 
 	/**
@@ -174,7 +223,7 @@ public class CPU6502 {
 	 * @param f
 	 */
 	public void setFlag(Flag f) {
-		status |= f.getFlag();
+		setStatus(getStatus() | f.getFlag());
 	}
 
 	/**
@@ -183,7 +232,76 @@ public class CPU6502 {
 	 * @param f
 	 */
 	public void clearFlag(Flag f) {
-		status &= ~(f.getFlag());
+		setStatus(getStatus() & ~f.getFlag());
+	}
+
+	// O---------------------------#
+	// | LAZY FLAGS
+	// O---------------------------#
+
+	/**
+	 * Sets N and Z from a result, only its low byte counts.
+	 * 
+	 * @param value
+	 */
+	public void setNZ(int value) {
+		negative = value;
+		zero = value;
+	}
+
+	/**
+	 * N = bit 7 of the value.
+	 * 
+	 * @param value
+	 */
+	public void setNegative(int value) {
+		negative = value;
+	}
+
+	/**
+	 * Z = the low byte of the value is 0.
+	 * 
+	 * @param value
+	 */
+	public void setZero(int value) {
+		zero = value;
+	}
+
+	/**
+	 * C = bit 0 of the value.
+	 * 
+	 * @param value
+	 */
+	public void setCarry(int value) {
+		carry = value & 1;
+	}
+
+	/**
+	 * V = bit 6 of the value.
+	 * 
+	 * @param value
+	 */
+	public void setOverflow(int value) {
+		overflow = value;
+	}
+
+	/**
+	 * @return 1 if C is set, 0 if not.
+	 */
+	public int getCarry() {
+		return carry;
+	}
+
+	public boolean isNegative() {
+		return (negative & 0x80) != 0;
+	}
+
+	public boolean isZero() {
+		return (zero & 0xff) == 0;
+	}
+
+	public boolean isOverflow() {
+		return (overflow & 0x40) != 0;
 	}
 
 	/**
@@ -199,7 +317,7 @@ public class CPU6502 {
 	 */
 	public void reset() {
 		// clear the statusRegister.
-		this.status = 0x00 | Flag.UNUSED.getFlag();
+		setStatus(0x00 | Flag.UNUSED.getFlag());
 
 		// Get the location of the PC from the next two addresses.
 		int lowByte = read(0xfffc);
@@ -241,11 +359,12 @@ public class CPU6502 {
 
 			// Store Status Reg.
 
+			// The pushed status has the mask as it was, so RTI unmasks.
 			clearFlag(Flag.BREAK);
 			setFlag(Flag.UNUSED);
-			setFlag(Flag.INTERRUPT_DISABLE);
 			write(0x0100 + getStackPointer(), getStatus());
 			decSP();
+			setFlag(Flag.INTERRUPT_DISABLE);
 
 			// Load the PC from 0xfffe and 0xffff
 			int lowbyte = read(0xfffe);
@@ -253,6 +372,9 @@ public class CPU6502 {
 			setProgramCounter((highbyte << 8) | lowbyte);
 
 			cycle = 7;
+
+			if (CpuProfiler.ENABLED)
+				profiler.irq();
 		}
 	}
 
@@ -277,9 +399,9 @@ public class CPU6502 {
 
 		clearFlag(Flag.BREAK);
 		setFlag(Flag.UNUSED);
-		setFlag(Flag.INTERRUPT_DISABLE);
 		write(0x0100 + getStackPointer(), getStatus());
 		decSP();
+		setFlag(Flag.INTERRUPT_DISABLE);
 
 		// Load the PC from 0xfffe and 0xffff
 		int lowbyte = read(0xfffa);
@@ -289,17 +411,76 @@ public class CPU6502 {
 
 		cycle = 8;
 
+		if (CpuProfiler.ENABLED)
+			profiler.nmi();
+
 	}
 
 	public void clock() {
 		// TODO:
 		if (cycle == 0) {
-			this.setFlag(Flag.UNUSED);
+			if (core == Core.SWITCH) {
+				cycle = switchCore.run(0, 1);
+				totalCycles += cycle;
+			} else {
+				status |= Flag.UNUSED.getFlag();
+				fetchInstruction(read(getProgramCounter()));
+				incPC();
+			}
+		}
+		cycle--;
+	}
+
+	/**
+	 * <p>
+	 * Executes whole instructions until at least {@code cycleBudget} cycles have
+	 * been used or {@link #endRun()} is called. Cycles still owed from the last
+	 * {@link #clock()}, {@link #NMI()} or {@link #IRQ()} are used first. Unlike
+	 * {@link #clock()} the cpu is never left in the middle of an instruction.
+	 * </p>
+	 * 
+	 * @param cycleBudget
+	 * @return The number of cycles used. It can go over the budget by the length
+	 *         of the last instruction.
+	 */
+	public int run(int cycleBudget) {
+		int owed = cycle;
+		cycle = 0;
+
+		if (core == Core.SWITCH) {
+			int used = switchCore.run(owed, cycleBudget);
+			totalCycles += used - owed;
+			return used;
+		}
+
+		runCycles = owed;
+		runBudget = cycleBudget;
+		while (runCycles < runBudget) {
+			status |= Flag.UNUSED.getFlag();
 			fetchInstruction(read(getProgramCounter()));
 			incPC();
-
+			runCycles += cycle;
 		}
-		cycle--;
+		cycle = 0;
+
+		return runCycles;
+	}
+
+	/**
+	 * Makes the current {@link #run(int)} return after the instruction being
+	 * executed.
+	 */
+	public void endRun() {
+		runBudget = 0;
+		switchCore.stop();
+	}
+
+	/**
+	 * @return The number of cycles the current {@link #run(int)} has used up to
+	 *         the start of the instruction being executed.
+	 */
+	public int getRunCycles() {
+		return (core == Core.SWITCH) ? switchCore.elapsed : runCycles;
 	}
 
 	/**
@@ -380,12 +561,21 @@ public class CPU6502 {
 		this.a = registerA % 256;
 	}
 
+	/**
+	 * @return P, packed from the flags.
+	 */
 	public int getStatus() {
-		return status;
+		// (zero & 0xff) - 1 is negative only when the low byte is 0.
+		int z = (((zero & 0xff) - 1) >>> 31) << 1;
+		return status | (negative & 0x80) | (overflow & 0x40) | z | carry;
 	}
 
 	public void setStatus(int statusRegister) {
-		this.status = statusRegister;
+		status = statusRegister & 0x3c;
+		negative = statusRegister;
+		zero = ~statusRegister & 0x02;
+		carry = statusRegister & 0x01;
+		overflow = statusRegister;
 	}
 
 	public int getCycles() {
@@ -404,6 +594,43 @@ public class CPU6502 {
 		this.handlingData = absoluteAddress;
 	}
 
+	// O------------------------x
+	// | SAVE STATES
+	// O------------------------x
+
+	/**
+	 * <p>
+	 * Writes the registers, the cycles left of the current instruction and the
+	 * instruction's data. The registers are kept whole, the cores don't always
+	 * mask them.
+	 * </p>
+	 *
+	 * @param buffer
+	 */
+	public void saveState(ByteBuffer buffer) {
+		buffer.putInt(programCounter);
+		buffer.putInt(stackPointer);
+		buffer.putInt(a);
+		buffer.putInt(x);
+		buffer.putInt(y);
+		buffer.putInt(getStatus());
+		buffer.putInt(cycle);
+		buffer.putInt(totalCycles);
+		buffer.putInt(handlingData);
+	}
+
+	public void loadState(ByteBuffer buffer) {
+		programCounter = buffer.getInt();
+		stackPointer = buffer.getInt();
+		a = buffer.getInt();
+		x = buffer.getInt();
+		y = buffer.getInt();
+		setStatus(buffer.getInt());
+		cycle = buffer.getInt();
+		totalCycles = buffer.getInt();
+		handlingData = buffer.getInt();
+	}
+
 	// @Override
 	// public String toString() {
 	// Instruction ins = (this.currentInstruction != null) ?
@@ -454,7 +681,7 @@ public class CPU6502 {
 
 		sb.append("NV-BDIZC Fetching Data: " + String.format("0x%02x", handlingData));
 		sb.append('\n');
-		sb.append(String.format("%8s", Integer.toBinaryString(status)).replace(' ', '0'));
+		sb.append(String.format("%8s", Integer.toBinaryString(getStatus())).replace(' ', '0'));
 		sb.append('\n');
 		sb.append("Cycles: " + this.totalCycles);
 		return sb.toString();
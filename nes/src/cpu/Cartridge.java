@@ -1,15 +1,51 @@
 package cpu;
 
-import helpers.NesRead;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
 import helpers.Hexdump;
 public class Cartridge {
 
-	private int[] prgMem;
-	private int[] chrMem;
-	private NesRead.Header header;
+	// The PRG and CHR ROM are shared with every cartridge of the same game and
+	// are never written to. chrMem is CHR RAM owned by this cartridge when the
+	// board has no CHR ROM.
+	private RomImage rom;
+	private byte[] prgMem;
+	private byte[] chrMem;
+	private byte[] prgRam = new byte[0x2000];
 	private NametableMirror mirroring = NametableMirror.VERTICAL;
 	private int mapperId;
 	private Mapper mapper;
+	private TileCache tileCache;
+	// The offset in chrMem of each 1KB window of $0000-$1FFF. The mapper's own
+	// array when it has one, so a switch changes it in place, otherwise looked
+	// up whenever the mapper switches CHR banks.
+	private int[] chrWindows;
+	// Where in chrMem $0000 is when the windows show one run of 8KB, as on NROM
+	// and on any mapper switching all of it at once, so reads can skip the
+	// windows, otherwise -1.
+	private int chrBase;
+	// chrBase is 0, reads skip the add too.
+	private boolean chrUnbanked;
+	private Bus bus;
+	private PPU2C02 ppu;
+	private PPU2C02.RenderMode renderMode = PPU2C02.RenderMode.DOT;
+
+	// •–––––––––––––––––––––––––––•
+	// | MAPPERS, BY iNES NUMBER
+	// •–––––––––––––––––––––––––––•
+	private static final Map<Integer, Mapper.Factory> MAPPERS = new HashMap<>();
+
+	static {
+		register(0, Mapper_0::new);
+		register(1, Mapper_1::new);
+		register(2, Mapper_2::new);
+		register(3, Mapper_3::new);
+		register(4, Mapper_4::new);
+		register(7, Mapper_7::new);
+		register(66, Mapper_66::new);
+	}
 
 	/**
 	 * <p>
@@ -22,51 +58,94 @@ public class Cartridge {
 	 * "https://wiki.nesdev.com/w/index.php/Mirroring#Nametable_Mirroring">Nesdev.com</a>
 	 * </p>
 	 * 
+	 * <p>
+	 * Each mode is the 1KB bank of VRAM behind each of the four nametables at
+	 * $2000, $2400, $2800 and $2C00. <code>SINGLE</code> shows the lower bank
+	 * everywhere and <code>SINGLE_UPPER</code> the upper one; <code>FOUR_SCREEN</code>
+	 * boards add 2KB of VRAM so every nametable is its own.
+	 * </p>
+	 * 
 	 * @author jorgejimenez
 	 *
 	 */
 	public static enum NametableMirror {
 
-		VERTICAL, HORIZONTAL, SINGLE, FOUR_SCREEN;
-	}
+		VERTICAL(0, 1, 0, 1), HORIZONTAL(0, 0, 1, 1), SINGLE(0, 0, 0, 0), FOUR_SCREEN(0, 1, 2, 3),
+		// Last, so the ordinals in save states don't move.
+		SINGLE_UPPER(1, 1, 1, 1);
 
-	public Cartridge(String filePath) {
-		NesRead game = new NesRead(filePath);
+		// values() copies the array every call.
+		static final NametableMirror[] VALUES = values();
 
-		// Did we find a game file.
-		if (game.gameExists()) {
-			header = game.readHeader();
-			int flag6 = header.mapper1;
+		private final int[] banks;
 
-			// Check if the iNes file contains a trainer and get rid of it.
-			if (((flag6 >> 2) & 1) == 1)
-				game.readBytes(new int[512]);
+		private NametableMirror(int... banks) {
+			this.banks = banks;
+		}
 
-			// The mapper id's low 4 bits are given by bits 4-7 and the upper byble of the
-			// mapper id is 4-7 of mapper 2.
-			mapperId = (header.mapper2 & 0xf0) | (header.mapper1 >> 4);
+		/**
+		 * @param nametable
+		 *            0 to 3.
+		 * @return The bank of VRAM behind it.
+		 */
+		public int bank(int nametable) {
+			return banks[nametable];
+		}
+	}
 
-			// Nametable mirroring.
-			mirroring = ((header.mapper1 & 0b0000_0001) == 1) ? NametableMirror.VERTICAL : NametableMirror.HORIZONTAL;
+	/**
+	 * <p>
+	 * Adds a mapper, or replaces the one with the same number, for the
+	 * cartridges built from now on.
+	 * </p>
+	 * 
+	 * @param mapperId
+	 *            The iNES mapper number.
+	 * @param factory
+	 */
+	static void register(int mapperId, Mapper.Factory factory) {
+		MAPPERS.put(mapperId, factory);
+	}
 
-			// Get the program ROM & the Char ROM.
-			prgMem = new int[16384 * header.sizeOfPrgRom];
-			chrMem = new int[8192 * header.sizeOfChrRom];
+	/**
+	 * @param mapperId
+	 * @return Whether a cartridge can be built for a ROM with this mapper.
+	 */
+	public static boolean isSupported(int mapperId) {
+		return MAPPERS.containsKey(mapperId);
+	}
 
-			game.readBytes(prgMem);
-			game.readBytes(chrMem);
+	public Cartridge(String filePath) {
+		this(RomImage.load(filePath));
+	}
 
-			// What mapper are we running.
-			switch (mapperId) {
-			case 0:
-				mapper = new Mapper_0(header.sizeOfPrgRom, header.sizeOfChrRom);
-				break;
-			}
+	/**
+	 * <p>
+	 * Builds a cartridge around a ROM image. Only the mutable parts (CHR RAM, PRG
+	 * RAM and the mapper's registers) belong to the cartridge.
+	 * </p>
+	 * 
+	 * @param rom
+	 */
+	public Cartridge(RomImage rom) {
+		this.rom = rom;
+		mapperId = rom.getMapperId();
+		mirroring = rom.getMirroring();
+		prgMem = rom.getPrgRom();
 
-			return;
-		}
+		// No CHR ROM means the board has 8KB of CHR RAM instead.
+		chrMem = (rom.getChrBanks() == 0) ? new byte[8192] : rom.getChrRom();
 
-		throw new IllegalArgumentException("The file was not found.");
+		// What mapper are we running.
+		Mapper.Factory factory = MAPPERS.get(mapperId);
+		if (factory == null)
+			throw new IllegalArgumentException("Mapper " + mapperId + " isn't supported.");
+		mapper = factory.create(rom.getPrgBanks(), rom.getChrBanks());
+
+		mapper.connect(this);
+		chrWindows = (mapper.chrWindows() != null) ? mapper.chrWindows() : new int[8];
+		mapChrWindows(0, 7);
+		tileCache = new TileCache(chrMem, chrWindows);
 	}
 
 	/**
@@ -80,10 +159,14 @@ public class Cartridge {
 	 */
 	public int cpuRead(int addr) {
 
+		if (addr >= 0x6000 && addr <= 0x7fff) {
+			return prgRam[addr & 0x1fff] & 0xff;
+		}
+
 		int mappedAddress = mapper.cpuRead(addr);
 
 		if (mappedAddress != -1) {
-			return prgMem[mappedAddress];
+			return prgMem[mappedAddress] & 0xff;
 		}
 
 		return -1;
@@ -100,10 +183,16 @@ public class Cartridge {
 	 *         written successfully.
 	 */
 	public int cpuWrite(int addr, int data) {
-		int mappedAddress = mapper.cpuWrite(addr);
 
+		if (addr >= 0x6000 && addr <= 0x7fff) {
+			prgRam[addr & 0x1fff] = (byte) data;
+			return 0;
+		}
+
+		int mappedAddress = mapper.cpuWrite(addr, data);
+
+		// PRG ROM can't be written, the write is the mapper's.
 		if (mappedAddress != -1) {
-			prgMem[mappedAddress] = data;
 			return 0;
 		}
 
@@ -112,7 +201,8 @@ public class Cartridge {
 
 	/**
 	 * <p>
-	 * Reads using the {@code PPU2C02}'s bus. TODO:
+	 * Reads using the {@code PPU2C02}'s bus. CHR is read through the windows
+	 * the mapper last switched, without asking it.
 	 * </p>
 	 * 
 	 * @param addr
@@ -120,10 +210,12 @@ public class Cartridge {
 	 * @return The data at the address or -1 if not in the cartridge's memory range.
 	 */
 	public int ppuRead(int addr) {
-		int mappedAddress = mapper.ppuRead(addr);
-
-		if (mappedAddress != -1) {
-			return chrMem[mappedAddress];
+		if (addr >= 0x0000 && addr <= 0x1fff) {
+			if (chrUnbanked)
+				return chrMem[addr] & 0xff;
+			if (chrBase >= 0)
+				return chrMem[chrBase + addr] & 0xff;
+			return chrMem[chrWindows[addr >> 10] + (addr & 0x03ff)] & 0xff;
 		}
 
 		return -1;
@@ -142,7 +234,10 @@ public class Cartridge {
 		int mappedAddress = mapper.ppuWrite(addr);
 
 		if (mappedAddress != -1) {
-			chrMem[mappedAddress] = data;
+			chrMem[mappedAddress] = (byte) data;
+			// By where it is in CHR RAM, so every window showing it sees the
+			// change.
+			tileCache.invalidate(mappedAddress);
 			return 0;
 		}
 		return -1;
@@ -158,14 +253,198 @@ public class Cartridge {
 	// | - it is not used for the emulator
 	// | - it is only for debugging.
 	// •––––––––––––––––––––––––––––––––––––
-	public int[] getChrMem() {
+	public byte[] getChrMem() {
 		return chrMem;
 	}
 
+	/**
+	 * <p>
+	 * Connects the cartridge to the cpu's {@code Bus} and maps the PRG banks into
+	 * its page table.
+	 * </p>
+	 * 
+	 * @param bus
+	 */
+	public void connect(Bus bus) {
+		this.bus = bus;
+		mapPrgPages();
+	}
+
+	/**
+	 * <p>
+	 * Points the PRG RAM pages ($6000-$7FFF) and every page from $4100 to $FFFF
+	 * the mapper maps to PRG ROM at the right part of their arrays, or
+	 * $8000-$FFFF at the mapper's PRG windows if it has them. Called again by
+	 * the mapper whenever it switches PRG banks, unless it has windows.
+	 * </p>
+	 */
+	void mapPrgPages() {
+		if (bus == null)
+			return;
+
+		int last = 0xff;
+		int[] prgWindows = mapper.prgWindows();
+		if (prgWindows != null) {
+			bus.mapPrgWindows(prgMem, prgWindows);
+			last = 0x7f;
+		}
+
+		for (int page = 0x41; page <= last; page++) {
+			if (page >= 0x60 && page < 0x80) {
+				bus.mapPage(page, prgRam, (page & 0x1f) << 8, true);
+				continue;
+			}
+
+			int mappedAddress = mapper.cpuRead(page << 8);
+			bus.mapPage(page, (mappedAddress != -1) ? prgMem : null, mappedAddress);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Connects the cartridge to the {@code PPU2C02} built for it, which is told
+	 * whenever the mirroring changes.
+	 * </p>
+	 * 
+	 * @param ppu
+	 */
+	void connect(PPU2C02 ppu) {
+		this.ppu = ppu;
+	}
+
+	/**
+	 * The mapper switched CHR banks.
+	 */
+	void chrBanksChanged() {
+		mapChrWindows(0, 7);
+	}
+
+	/**
+	 * The mapper switched the CHR banks from {@code from} to {@code to}. Decoded
+	 * tiles are kept by where they are in CHR memory, none are thrown away.
+	 */
+	void chrBanksChanged(int from, int to) {
+		mapChrWindows(from >> 10, to >> 10);
+	}
+
+	private void mapChrWindows(int first, int last) {
+		if (chrWindows != mapper.chrWindows()) {
+			for (int window = first; window <= last; window++) {
+				chrWindows[window] = Math.max(mapper.ppuRead(window << 10), 0);
+			}
+		}
+
+		chrBase = chrWindows[0];
+		for (int window = 1; window < 8; window++) {
+			if (chrWindows[window] != chrBase + (window << 10))
+				chrBase = -1;
+		}
+		chrUnbanked = chrBase == 0;
+	}
+
+	// •–––––––––––––––––––––––––––––––––––––––
+	// | SCANLINE IRQ, SEE Mapper
+	// •–––––––––––––––––––––––––––––––––––––––
+
+	void scanline() {
+		mapper.scanline();
+	}
+
+	/**
+	 * @return Whether the mapper is holding the cpu's IRQ line low.
+	 */
+	public boolean irq() {
+		return mapper.irq();
+	}
+
+	int scanlinesToIrq() {
+		return mapper.scanlinesToIrq();
+	}
+
+	// O---------------------------#
+	// | SAVE STATES
+	// O---------------------------#
+
+	/**
+	 * <p>
+	 * Writes the PRG RAM, the CHR RAM if the board has it, the mirroring and the
+	 * mapper's registers. The ROM is the {@code RomImage}'s and isn't saved.
+	 * </p>
+	 * 
+	 * @param buffer
+	 */
+	public void saveState(ByteBuffer buffer) {
+		buffer.put(prgRam);
+		if (rom.getChrBanks() == 0)
+			buffer.put(chrMem);
+		buffer.put((byte) mirroring.ordinal());
+		mapper.saveState(buffer);
+	}
+
+	public void loadState(ByteBuffer buffer) {
+		buffer.get(prgRam);
+		if (rom.getChrBanks() == 0)
+			buffer.get(chrMem);
+		setMirroring(NametableMirror.VALUES[buffer.get()]);
+		mapper.loadState(buffer);
+
+		mapPrgPages();
+		mapChrWindows(0, 7);
+		tileCache.invalidateAll();
+	}
+
+	public RomImage getRom() {
+		return rom;
+	}
+
+	TileCache getTileCache() {
+		return tileCache;
+	}
+
 	public NametableMirror getMirroring() {
 		return mirroring;
 	}
 
+	/**
+	 * <p>
+	 * Changes the mirroring, for mappers that switch it. The PPU rebuilds its
+	 * nametable table right away. Four-screen boards keep theirs.
+	 * </p>
+	 * 
+	 * @param mirroring
+	 */
+	void setMirroring(NametableMirror mirroring) {
+		// The extra VRAM of four-screen boards is wired in, whatever the mapper
+		// says.
+		if (this.mirroring == NametableMirror.FOUR_SCREEN || this.mirroring == mirroring)
+			return;
+		this.mirroring = mirroring;
+		if (ppu != null)
+			ppu.mirroringChanged();
+	}
+
+	/**
+	 * @return How a {@code PPU2C02} built for this cartridge draws. Defaults to
+	 *         <code>DOT</code>.
+	 */
+	public PPU2C02.RenderMode getRenderMode() {
+		return renderMode;
+	}
+
+	/**
+	 * <p>
+	 * Picks the render mode for this cartridge. Games that don't change the PPU
+	 * registers in the middle of a scanline can use <code>SCANLINE</code>. Must be
+	 * set before the {@code PPU2C02} is created; use
+	 * {@link PPU2C02#setRenderMode(PPU2C02.RenderMode)} afterwards.
+	 * </p>
+	 * 
+	 * @param renderMode
+	 */
+	public void setRenderMode(PPU2C02.RenderMode renderMode) {
+		this.renderMode = renderMode;
+	}
+
 	@Override
 	public String toString() {
 		return "Cartridge: ";
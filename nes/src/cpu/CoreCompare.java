@@ -0,0 +1,139 @@
+package cpu;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import helpers.Hexdump;
+
+/**
+ * <p>
+ * Runs the same ROM on two {@code CPU6502}s, one with the
+ * <code>MICROCODE</code> core and one with the <code>SWITCH</code> core, and
+ * compares their traces instruction by instruction. With nestest the program
+ * counter is set to $C000 so the ROM runs in its automated mode. Given
+ * nestest.log, both are also compared against it, line by line; its cycle
+ * counts are taken from its first line on.
+ * </p>
+ *
+ * <pre>
+ * CoreCompare rom [log]
+ * </pre>
+ * 
+ * @author jorgejimenez
+ *
+ */
+public class CoreCompare {
+
+	private static final int MAX_INSTRUCTIONS = 8991;
+
+	/**
+	 * Formats the state of the cpu the same way the nestest log does.
+	 * 
+	 * @param cpu
+	 * @return
+	 */
+	public static String trace(CPU6502 cpu) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(Hexdump.printHexPadded(cpu.getProgramCounter(), 4));
+		sb.append(" A:" + Hexdump.printHexPadded(cpu.getA(), 2));
+		sb.append(" X:" + Hexdump.printHexPadded(cpu.getX(), 2));
+		sb.append(" Y:" + Hexdump.printHexPadded(cpu.getY(), 2));
+		sb.append(" P:" + Hexdump.printHexPadded(cpu.getStatus(), 2));
+		sb.append(" SP:" + Hexdump.printHexPadded(cpu.getStackPointer() & 0xff, 2));
+		sb.append(" CYC:" + cpu.totalCycles);
+		return sb.toString();
+	}
+
+	private static CPU6502 create(String filename, CPU6502.Core core) {
+		Cartridge cart = new Cartridge(filename);
+		CPU6502 cpu = new CPU6502(new Bus(new PPU2C02(cart)));
+		cpu.setCore(core);
+		cpu.reset();
+		cpu.setProgramCounter(0xc000);
+		cpu.setCycles(0);
+		return cpu;
+	}
+
+	// Runs the current instruction to completion.
+	private static void step(CPU6502 cpu) {
+		do {
+			cpu.clock();
+		} while (!cpu.complete());
+	}
+
+	// A line of nestest.log as trace(cpu) prints it, its cycle count moved by
+	// cycleOffset.
+	private static String logTrace(String line, int cycleOffset) {
+		int registers = line.indexOf("A:");
+		int end = line.indexOf(" PPU:");
+		if (end == -1)
+			end = line.indexOf(" CYC:");
+		return line.substring(0, 4) + " " + line.substring(registers, end) + " CYC:" + (logCycles(line) + cycleOffset);
+	}
+
+	private static int logCycles(String line) {
+		return Integer.parseInt(line.substring(line.indexOf("CYC:") + 4).trim());
+	}
+
+	/**
+	 * Usage: <code>CoreCompare rom [log]</code>, with nestest.log as the log to
+	 * compare both cores against it too.
+	 * 
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: CoreCompare rom [log]");
+			return;
+		}
+
+		CPU6502 microcode = create(args[0], CPU6502.Core.MICROCODE);
+		CPU6502 fast = create(args[0], CPU6502.Core.SWITCH);
+		byte[] ramA = microcode.getBus().getCPUMem();
+		byte[] ramB = fast.getBus().getCPUMem();
+
+		List<String> log = (args.length > 1) ? Files.readAllLines(Paths.get(args[1])) : null;
+		int instructions = (log != null) ? log.size() : MAX_INSTRUCTIONS;
+		// nestest.log starts counting cycles at 7, this cpu's reset at 8.
+		int cycleOffset = (log != null) ? microcode.totalCycles - logCycles(log.get(0)) : 0;
+
+		int i = 0;
+		for (; i < instructions; i++) {
+			String expected = trace(microcode);
+			String actual = trace(fast);
+
+			if (!expected.equals(actual) || !Arrays.equals(ramA, ramB)) {
+				System.out.println("Traces differ after " + i + " instructions.");
+				System.out.println("MICROCODE: " + expected);
+				System.out.println("SWITCH:    " + actual);
+				return;
+			}
+
+			if (log != null && !expected.equals(logTrace(log.get(i), cycleOffset))) {
+				System.out.println("Traces differ from the log after " + i + " instructions.");
+				System.out.println("Log:       " + logTrace(log.get(i), cycleOffset));
+				System.out.println("Both:      " + expected);
+				return;
+			}
+
+			// Neither core implements the unofficial opcodes, so stop at the
+			// first one.
+			try {
+				step(microcode);
+				step(fast);
+			} catch (RuntimeException e) {
+				System.out.println("Stopped after " + i + " instructions at " + expected + ": " + e);
+				break;
+			}
+		}
+
+		if (i == instructions)
+			System.out.println("Traces match for " + i + " instructions" + ((log != null) ? ", log included." : "."));
+		System.out.println("Result codes: $02 = " + Hexdump.printHexPadded(ramA[0x02] & 0xff, 2) + " $03 = "
+				+ Hexdump.printHexPadded(ramA[0x03] & 0xff, 2));
+	}
+}
@@ -0,0 +1,297 @@
+package cpu;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import helpers.Hexdump;
+
+/**
+ * <p>
+ * Counts what a {@code CPU6502} executes: how many times each opcode runs and
+ * how many cycles over its base count it takes (page crossings and taken
+ * branches), and the NMIs and IRQs it enters, in total and for the last
+ * frame. Published over JMX as {@link CpuProfilerMBean}.
+ * </p>
+ * 
+ * <p>
+ * Profiling is turned on for the whole JVM with
+ * <code>-Dnes.profile=true</code>. {@link #ENABLED} is a constant, so when it is
+ * off the JIT drops every call to the profiler and the cpu runs the same code
+ * it would without it.
+ * </p>
+ * 
+ * <p>
+ * With run-ahead on, the frames run ahead count towards the frame they were
+ * run for.
+ * </p>
+ * 
+ * @author jorgejimenez
+ *
+ */
+public class CpuProfiler implements CpuProfilerMBean {
+
+	public static final boolean ENABLED = Boolean.getBoolean("nes.profile");
+
+	// Extra cycles an instruction can take: a page crossing, a taken branch and
+	// a taken branch to another page.
+	private static final int MAX_EXTRA = 3;
+
+	private final CPU6502 cpu;
+
+	// Executions by opcode and extra cycles, (opcode << 2) | extra.
+	private final long[] histogram = new long[256 * 4];
+	private long nmis = 0;
+	private long irqs = 0;
+
+	// The same for the frame being run, and for the last complete one.
+	private final int[] frameHistogram = new int[256 * 4];
+	private int frameNmis = 0;
+	private int frameIrqs = 0;
+	private final int[] lastFrameHistogram = new int[256 * 4];
+	private int lastFrameNmis = 0;
+	private int lastFrameIrqs = 0;
+
+	CpuProfiler(CPU6502 cpu) {
+		this.cpu = cpu;
+	}
+
+	// •–––––––––––––––––––––––––––––––––––––––
+	// | CALLED BY THE CPU
+	// •–––––––––––––––––––––––––––––––––––––––
+
+	/**
+	 * An instruction was executed.
+	 * 
+	 * @param opcode
+	 * @param extra
+	 *            The cycles it took over its base count.
+	 */
+	void instruction(int opcode, int extra) {
+		int i = (opcode << 2) | Math.min(extra, MAX_EXTRA);
+		histogram[i]++;
+		frameHistogram[i]++;
+	}
+
+	void nmi() {
+		nmis++;
+		frameNmis++;
+	}
+
+	void irq() {
+		irqs++;
+		frameIrqs++;
+	}
+
+	/**
+	 * <p>
+	 * Ends the frame: what was counted since the last call becomes the last
+	 * frame's snapshot. Called by the {@code NesRunner}.
+	 * </p>
+	 */
+	public void frame() {
+		System.arraycopy(frameHistogram, 0, lastFrameHistogram, 0, frameHistogram.length);
+		Arrays.fill(frameHistogram, 0);
+		lastFrameNmis = frameNmis;
+		lastFrameIrqs = frameIrqs;
+		frameNmis = 0;
+		frameIrqs = 0;
+	}
+
+	/**
+	 * <p>
+	 * Publishes the profiler on the platform MBean server as
+	 * <code>nes:type=CpuProfiler,name=</code><i>name</i>.
+	 * </p>
+	 * 
+	 * @param name
+	 */
+	public void register(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("nes:type=CpuProfiler,name=" + ObjectName.quote(name)));
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// O---------------------------#
+	// | TOTALS
+	// O---------------------------#
+
+	@Override
+	public long getInstructions() {
+		long total = 0;
+		for (long n : histogram) {
+			total += n;
+		}
+		return total;
+	}
+
+	@Override
+	public long getCycles() {
+		long total = 0;
+		for (long n : getCyclesByOpcode()) {
+			total += n;
+		}
+		return total;
+	}
+
+	@Override
+	public long getNmis() {
+		return nmis;
+	}
+
+	@Override
+	public long getIrqs() {
+		return irqs;
+	}
+
+	@Override
+	public long[] getExecutions() {
+		long[] executions = new long[256];
+		for (int i = 0; i < histogram.length; i++) {
+			executions[i >> 2] += histogram[i];
+		}
+		return executions;
+	}
+
+	@Override
+	public long[] getCyclesByOpcode() {
+		long[] cycles = new long[256];
+		for (int i = 0; i < histogram.length; i++) {
+			cycles[i >> 2] += histogram[i] * (SwitchCore.CYCLES[i >> 2] + (i & MAX_EXTRA));
+		}
+		return cycles;
+	}
+
+	/**
+	 * @param opcode
+	 * @return How many times the opcode took 0, 1, 2 and 3 extra cycles.
+	 */
+	public long[] getCycleHistogram(int opcode) {
+		return Arrays.copyOfRange(histogram, opcode << 2, (opcode << 2) + 4);
+	}
+
+	/**
+	 * @return The extra cycles taken by the opcodes of each addressing mode.
+	 */
+	public Map<String, Long> getPenalties() {
+		Map<String, Long> penalties = new LinkedHashMap<>();
+		for (int i = 0; i < histogram.length; i++) {
+			if ((i & MAX_EXTRA) == 0 || histogram[i] == 0)
+				continue;
+
+			String mode = modeName(i >> 2);
+			penalties.merge(mode, histogram[i] * (i & MAX_EXTRA), Long::sum);
+		}
+		return penalties;
+	}
+
+	@Override
+	public String[] getPenaltiesByMode() {
+		List<String> lines = new ArrayList<>();
+		for (Map.Entry<String, Long> e : getPenalties().entrySet()) {
+			lines.add(e.getKey() + ": " + e.getValue());
+		}
+		return lines.toArray(new String[0]);
+	}
+
+	@Override
+	public String[] getTopOpcodes() {
+		long[] cycles = getCyclesByOpcode();
+		long[] executions = getExecutions();
+		long total = Math.max(1, getCycles());
+
+		Integer[] opcodes = new Integer[256];
+		for (int i = 0; i < 256; i++) {
+			opcodes[i] = i;
+		}
+		Arrays.sort(opcodes, (a, b) -> Long.compare(cycles[b], cycles[a]));
+
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 20 && cycles[opcodes[i]] > 0; i++) {
+			int opcode = opcodes[i];
+			lines.add(String.format("$%s %s %s: %d executions, %d cycles (%.1f%%)", Hexdump.printHexPadded(opcode, 2),
+					name(opcode), modeName(opcode), executions[opcode], cycles[opcode], cycles[opcode] * 100.0 / total));
+		}
+		return lines.toArray(new String[0]);
+	}
+
+	// O---------------------------#
+	// | LAST FRAME
+	// O---------------------------#
+
+	@Override
+	public long getLastFrameInstructions() {
+		long total = 0;
+		for (int n : lastFrameHistogram) {
+			total += n;
+		}
+		return total;
+	}
+
+	@Override
+	public long getLastFrameCycles() {
+		long total = 0;
+		for (int i = 0; i < lastFrameHistogram.length; i++) {
+			total += (long) lastFrameHistogram[i] * (SwitchCore.CYCLES[i >> 2] + (i & MAX_EXTRA));
+		}
+		return total;
+	}
+
+	@Override
+	public int getLastFrameNmis() {
+		return lastFrameNmis;
+	}
+
+	@Override
+	public int getLastFrameIrqs() {
+		return lastFrameIrqs;
+	}
+
+	/**
+	 * @return A copy of the last frame's executions by opcode and extra cycles,
+	 *         indexed by <code>(opcode << 2) | extra</code>.
+	 */
+	public int[] getLastFrameHistogram() {
+		return lastFrameHistogram.clone();
+	}
+
+	@Override
+	public void reset() {
+		Arrays.fill(histogram, 0);
+		Arrays.fill(frameHistogram, 0);
+		Arrays.fill(lastFrameHistogram, 0);
+		nmis = 0;
+		irqs = 0;
+		frameNmis = 0;
+		frameIrqs = 0;
+		lastFrameNmis = 0;
+		lastFrameIrqs = 0;
+	}
+
+	// O---------------------------#
+	// | HELPER FUNCTIONS
+	// O---------------------------#
+
+	private Instruction instruction(int opcode) {
+		return cpu.instructions[opcode >> 4][opcode & 0x0f];
+	}
+
+	private String name(int opcode) {
+		Instruction instruction = instruction(opcode);
+		return (instruction != null) ? instruction.name : "xxx";
+	}
+
+	private String modeName(int opcode) {
+		Instruction instruction = instruction(opcode);
+		return (instruction != null && instruction.modeName != null) ? instruction.modeName : "unknown";
+	}
+}
@@ -0,0 +1,51 @@
+package cpu;
+
+/**
+ * <p>
+ * What a {@link CpuProfiler} publishes over JMX.
+ * </p>
+ * 
+ * @author jorgejimenez
+ *
+ */
+public interface CpuProfilerMBean {
+
+	long getInstructions();
+
+	long getCycles();
+
+	long getNmis();
+
+	long getIrqs();
+
+	/**
+	 * @return Executions of every opcode, indexed by opcode.
+	 */
+	long[] getExecutions();
+
+	/**
+	 * @return Cycles spent on every opcode, indexed by opcode.
+	 */
+	long[] getCyclesByOpcode();
+
+	/**
+	 * @return One line per addressing mode with the extra cycles its opcodes
+	 *         took: page crossings, and taken branches for relative.
+	 */
+	String[] getPenaltiesByMode();
+
+	/**
+	 * @return The opcodes that took the most cycles, one per line, most first.
+	 */
+	String[] getTopOpcodes();
+
+	long getLastFrameInstructions();
+
+	long getLastFrameCycles();
+
+	int getLastFrameNmis();
+
+	int getLastFrameIrqs();
+
+	void reset();
+}
@@ -0,0 +1,354 @@
+package cpu;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import helpers.Hexdump;
+
+/**
+ * <p>
+ * Runs a 64KB memory image on a {@code CPU6502} with nothing but a flat
+ * {@code Bus}: no PPU, no cartridge. Both cores run the image in lock step and
+ * must agree on every instruction and on the memory at the end, then each one
+ * runs it again alone to measure how many instructions per second it does.
+ * </p>
+ *
+ * <p>
+ * A run ends on a BRK or on a trap, an instruction that jumps to itself (how
+ * functional test images report where they stopped). Given a success address,
+ * the run only passes if it traps there.
+ * </p>
+ *
+ * <p>
+ * The bundled <code>6502.bin</code> is not a functional test but the memory of
+ * the easy6502 snake game, which starts at $0600 and reads a random byte from
+ * $FE. With <code>-easy6502</code> $FE gets a new (seeded) random byte before
+ * every instruction; nobody presses a key, so the snake dies and the game ends
+ * in a BRK.
+ * </p>
+ *
+ * <p>
+ * With <code>-flags</code> it runs no image but every operand pair of ADC, SBC,
+ * CMP, CPX and CPY (immediate), from every combination of C, D, V and N/Z
+ * before it, plus every byte through PLP, RTI and PHP, on both cores, and
+ * compares A and the packed P with each other and with an eager model of the
+ * flags. The 2A03 has no decimal mode, so D must change nothing; PLP keeps
+ * bit 4 and sets bit 5, RTI clears both and PHP pushes both set.
+ * </p>
+ *
+ * <pre>
+ * CpuRun [image [start [success]]] [-easy6502]
+ * CpuRun                      same as: CpuRun 6502.bin 0600 -easy6502
+ * CpuRun -flags
+ * </pre>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class CpuRun {
+
+	private static final int MAX_INSTRUCTIONS = 100_000_000;
+	private static final long BENCHMARK_INSTRUCTIONS = 50_000_000;
+
+	private final byte[] image;
+	private final int start;
+	private final boolean easy6502;
+
+	private CpuRun(byte[] image, int start, boolean easy6502) {
+		this.image = image;
+		this.start = start;
+		this.easy6502 = easy6502;
+	}
+
+	private CPU6502 create(CPU6502.Core core) {
+		CPU6502 cpu = new CPU6502(new Bus(image.clone()));
+		cpu.setCore(core);
+		cpu.setProgramCounter(start);
+		cpu.setStackPointer(0xff);
+		cpu.setStatus(Flag.UNUSED.getFlag() | Flag.INTERRUPT_DISABLE.getFlag());
+		return cpu;
+	}
+
+	/**
+	 * Runs one instruction.
+	 *
+	 * @param cpu
+	 * @param random
+	 * @return false if the cpu hit a BRK or a trap.
+	 */
+	private boolean step(CPU6502 cpu, int random) {
+		int pc = cpu.getProgramCounter();
+		byte[] memory = cpu.getBus().getCPUMem();
+
+		if (memory[pc & 0xffff] == 0x00)
+			return false;
+
+		if (easy6502)
+			memory[0xfe] = (byte) random;
+
+		cpu.run(1);
+		return cpu.getProgramCounter() != pc;
+	}
+
+	private static boolean same(CPU6502 a, CPU6502 b) {
+		return a.getProgramCounter() == b.getProgramCounter() && a.getA() == b.getA() && a.getX() == b.getX()
+				&& a.getY() == b.getY() && a.getStatus() == b.getStatus()
+				&& (a.getStackPointer() & 0xff) == (b.getStackPointer() & 0xff) && a.totalCycles == b.totalCycles;
+	}
+
+	// Both cores side by side. Returns the number of instructions, or -1.
+	private long conformance() {
+		CPU6502 microcode = create(CPU6502.Core.MICROCODE);
+		CPU6502 fast = create(CPU6502.Core.SWITCH);
+		int random = 1;
+
+		long instructions = 0;
+		while (instructions < MAX_INSTRUCTIONS) {
+			random = random * 1103515245 + 12345;
+			boolean running = step(microcode, random >>> 16);
+			step(fast, random >>> 16);
+			instructions++;
+
+			if (!same(microcode, fast)) {
+				System.out.println("The cores differ after " + instructions + " instructions.");
+				System.out.println("MICROCODE: " + CoreCompare.trace(microcode));
+				System.out.println("SWITCH:    " + CoreCompare.trace(fast));
+				return -1;
+			}
+
+			if (!running)
+				break;
+		}
+
+		if (!Arrays.equals(microcode.getBus().getCPUMem(), fast.getBus().getCPUMem())) {
+			System.out.println("The cores agree on the registers but not on the memory.");
+			return -1;
+		}
+
+		System.out.println("Cores agree, stopped at " + CoreCompare.trace(microcode) + " after " + instructions
+				+ " instructions.");
+		return instructions;
+	}
+
+	// One core alone, the whole program over and over until it has run enough
+	// instructions to time. Returns where it stopped.
+	private int benchmark(CPU6502.Core core, long instructions) {
+		long repeats = Math.max(1, BENCHMARK_INSTRUCTIONS / instructions);
+		CPU6502 cpu = create(core);
+		byte[] memory = cpu.getBus().getCPUMem();
+		long cycles = 0;
+
+		long begin = System.nanoTime();
+		for (long r = 0; r < repeats; r++) {
+			System.arraycopy(image, 0, memory, 0, memory.length);
+			cpu.setProgramCounter(start);
+			cpu.setStackPointer(0xff);
+			cpu.setStatus(Flag.UNUSED.getFlag() | Flag.INTERRUPT_DISABLE.getFlag());
+			cpu.setA(0);
+			cpu.setX(0);
+			cpu.setY(0);
+			cpu.totalCycles = 0;
+
+			int random = 1;
+			for (long i = 0; i < instructions; i++) {
+				random = random * 1103515245 + 12345;
+				step(cpu, random >>> 16);
+			}
+			cycles += cpu.totalCycles;
+		}
+		long nanos = System.nanoTime() - begin;
+
+		System.out.printf("%-9s %.2f MIPS, %.2f MHz%n", core, repeats * instructions * 1e3 / nanos, cycles * 1e3 / nanos);
+		return cpu.getProgramCounter();
+	}
+
+	// A, X, Y and P after one instruction at $0200, or -1 if the PC isn't at
+	// the next instruction.
+	private static int execute(CPU6502 cpu, int length) {
+		cpu.setProgramCounter(0x0200);
+		cpu.run(1);
+		if (cpu.getProgramCounter() != 0x0200 + length)
+			return -1;
+		return (cpu.getA() << 24) | (cpu.getX() << 16) | (cpu.getY() << 8) | cpu.getStatus();
+	}
+
+	// What ADC, SBC, CMP, CPX or CPY leave in A, X, Y and P, flag by flag.
+	private static int expected(int opcode, int a, int m, int p) {
+		int x = a, y = a;
+		int r;
+		switch (opcode) {
+			case 0x69 :
+			case 0xe9 :
+				if (opcode == 0xe9)
+					m ^= 0xff;
+				r = a + m + (p & 0x01);
+				p &= ~0xc3;
+				p |= r >> 8;
+				if (((a ^ r) & (m ^ r) & 0x80) != 0)
+					p |= 0x40;
+				a = r & 0xff;
+				break;
+			default :
+				r = a - m;
+				p &= ~0x83;
+				if (a >= m)
+					p |= 0x01;
+				break;
+		}
+		if ((r & 0xff) == 0)
+			p |= 0x02;
+		p |= r & 0x80;
+		return (a << 24) | (x << 16) | (y << 8) | p;
+	}
+
+	private static boolean flagsDiffer(String what, int microcode, int fast, int expected) {
+		if (microcode == expected && fast == expected)
+			return false;
+		System.out.printf("%s: MICROCODE %08X, SWITCH %08X, expected %08X (A X Y P)%n", what, microcode, fast,
+				expected);
+		return true;
+	}
+
+	// Both cores, every operand pair and every pulled status. Returns the
+	// number of cases, or -1.
+	private static long flags() {
+		CPU6502[] cpus = new CPU6502[2];
+		cpus[0] = new CPU6502(new Bus(new byte[0x10000]));
+		cpus[0].setCore(CPU6502.Core.MICROCODE);
+		cpus[1] = new CPU6502(new Bus(new byte[0x10000]));
+		cpus[1].setCore(CPU6502.Core.SWITCH);
+		int[] results = new int[2];
+		long cases = 0;
+
+		// C, D, V, and N with Z, set or clear before the instruction.
+		int[] before = new int[16];
+		for (int i = 0; i < before.length; i++) {
+			before[i] = 0x24 | (i & 0x01) | ((i & 0x02) << 2) | ((i & 0x04) << 4) | ((i & 0x08) != 0 ? 0x82 : 0);
+		}
+
+		for (int opcode : new int[] { 0x69, 0xe9, 0xc9, 0xe0, 0xc0 }) {
+			for (int p : before) {
+				for (int a = 0; a < 0x100; a++) {
+					for (int m = 0; m < 0x100; m++) {
+						for (int c = 0; c < cpus.length; c++) {
+							CPU6502 cpu = cpus[c];
+							byte[] memory = cpu.getBus().getCPUMem();
+							memory[0x0200] = (byte) opcode;
+							memory[0x0201] = (byte) m;
+							cpu.setA(a);
+							cpu.setX(a);
+							cpu.setY(a);
+							cpu.setStatus(p);
+							results[c] = execute(cpu, 2);
+						}
+						cases++;
+						if (flagsDiffer(String.format("%02X #$%02X, A=%02X P=%02X", opcode, m, a, p), results[0],
+								results[1], expected(opcode, a, m, p)))
+							return -1;
+					}
+				}
+			}
+		}
+
+		for (int v = 0; v < 0x100; v++) {
+			int[] pushed = new int[2];
+			for (int c = 0; c < cpus.length; c++) {
+				CPU6502 cpu = cpus[c];
+				byte[] memory = cpu.getBus().getCPUMem();
+				cpu.setA(0);
+				cpu.setX(0);
+				cpu.setY(0);
+
+				// PLP with v on the stack, from the opposite flags.
+				memory[0x0200] = 0x28;
+				memory[0x01ff] = (byte) v;
+				cpu.setStatus(~v & 0xff);
+				cpu.setStackPointer(0xfe);
+				results[c] = execute(cpu, 1);
+			}
+			cases++;
+			if (flagsDiffer(String.format("PLP $%02X", v), results[0], results[1], v | 0x20))
+				return -1;
+
+			for (int c = 0; c < cpus.length; c++) {
+				CPU6502 cpu = cpus[c];
+				byte[] memory = cpu.getBus().getCPUMem();
+
+				// RTI to $0200 with v as the flags.
+				memory[0x0200] = 0x40;
+				memory[0x01fd] = (byte) v;
+				memory[0x01fe] = 0x00;
+				memory[0x01ff] = 0x02;
+				cpu.setStatus(~v & 0xff);
+				cpu.setStackPointer(0xfc);
+				results[c] = execute(cpu, 0);
+			}
+			cases++;
+			if (flagsDiffer(String.format("RTI $%02X", v), results[0], results[1], v & ~0x30))
+				return -1;
+
+			for (int c = 0; c < cpus.length; c++) {
+				CPU6502 cpu = cpus[c];
+				byte[] memory = cpu.getBus().getCPUMem();
+
+				// PHP with v as the flags.
+				memory[0x0200] = 0x08;
+				cpu.setStatus(v);
+				cpu.setStackPointer(0xff);
+				results[c] = execute(cpu, 1);
+				pushed[c] = memory[0x01ff] & 0xff;
+			}
+			cases++;
+			if (flagsDiffer(String.format("PHP $%02X", v), results[0], results[1], v & ~0x30)
+					|| flagsDiffer(String.format("PHP $%02X, pushed", v), pushed[0], pushed[1], v | 0x30))
+				return -1;
+		}
+
+		System.out.println("Flags agree on " + cases + " cases.");
+		return cases;
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean easy6502 = args.length == 0;
+		String[] values = new String[3];
+		int count = 0;
+		for (String arg : args) {
+			if (arg.equals("-flags"))
+				System.exit(flags() < 0 ? 1 : 0);
+			else if (arg.equals("-easy6502"))
+				easy6502 = true;
+			else if (count < values.length)
+				values[count++] = arg;
+		}
+
+		String filename = (values[0] != null) ? values[0] : "6502.bin";
+		int start = (values[1] != null) ? Integer.parseInt(values[1], 16) : 0x0600;
+		int success = (values[2] != null) ? Integer.parseInt(values[2], 16) : -1;
+
+		byte[] image = new byte[0x10000];
+		byte[] file = Files.readAllBytes(Paths.get(filename));
+		System.arraycopy(file, 0, image, 0, Math.min(file.length, image.length));
+
+		CpuRun run = new CpuRun(image, start, easy6502);
+		long instructions = run.conformance();
+		if (instructions < 0) {
+			System.exit(1);
+		}
+
+		// Twice each, the first one warms the JIT up.
+		run.benchmark(CPU6502.Core.MICROCODE, instructions);
+		run.benchmark(CPU6502.Core.SWITCH, instructions);
+		run.benchmark(CPU6502.Core.MICROCODE, instructions);
+		int pc = run.benchmark(CPU6502.Core.SWITCH, instructions);
+
+		if (success != -1) {
+			boolean passed = pc == success;
+			System.out.println((passed ? "PASSED" : "FAILED") + ": stopped at $" + Hexdump.printHexPadded(pc, 4)
+					+ ", success is $" + Hexdump.printHexPadded(success, 4));
+			if (!passed)
+				System.exit(1);
+		}
+	}
+}
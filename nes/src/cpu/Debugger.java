@@ -0,0 +1,454 @@
+package cpu;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Execute breakpoints and read/write watchpoints on a {@code CPU6502} and its
+ * {@code Bus}. When one is hit, and its condition holds, the
+ * {@link Listener} is called on the emulation thread.
+ * </p>
+ *
+ * <p>
+ * Breakpoints are bits in a 64K-bit map, tested once per instruction, and only
+ * while a debugger is attached to the cpu. Watchpoints are flagged on the
+ * bus's pages: a watched page is taken out of the page table so its accesses
+ * go through the debugger, the others are read and written as always.
+ * </p>
+ *
+ * <p>
+ * A breakpoint is hit before its instruction runs, a watchpoint in the middle
+ * of it. Either way the cpu's registers are the ones it had when the
+ * instruction started, and a listener that calls {@link CPU6502#endRun()}
+ * makes the current run return after the instruction.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class Debugger {
+
+	public static enum Kind {
+		EXECUTE, READ, WRITE;
+	}
+
+	/**
+	 * Called when a breakpoint or watchpoint is hit.
+	 */
+	public interface Listener {
+		/**
+		 * @param kind
+		 * @param addr
+		 * @param data
+		 *            The byte read or written, the opcode for
+		 *            <code>EXECUTE</code>.
+		 */
+		void hit(Kind kind, int addr, int data);
+	}
+
+	/**
+	 * <p>
+	 * A condition on the state of the cpu, tested when its breakpoint or
+	 * watchpoint is hit.
+	 * </p>
+	 */
+	public interface Condition {
+		boolean test(CPU6502 cpu);
+
+		/**
+		 * <p>
+		 * Parses a condition such as {@code A == $10 && [$0300] != 0}. Values
+		 * are the registers {@code A X Y P SP PC}, numbers in hex ({@code $ff})
+		 * or decimal, and memory in brackets ({@code [$0300]},
+		 * {@code [$10 & X]}). They can be masked with {@code &}, compared with
+		 * {@code == != < <= > >=}, negated with {@code !} and joined with
+		 * {@code && ||} and parentheses. A value on its own is true when it
+		 * isn't zero.
+		 * </p>
+		 *
+		 * @param expression
+		 * @return
+		 * @throws IllegalArgumentException
+		 *             If the expression doesn't parse.
+		 */
+		static Condition parse(String expression) {
+			return new Parser(expression).parse();
+		}
+	}
+
+	private final CPU6502 cpu;
+	private final Bus bus;
+	private Listener listener;
+	private boolean attached = false;
+	private long hits = 0;
+
+	// One bit per address.
+	private final long[] breakpoints = new long[0x10000 / 64];
+	private final long[] readWatches = new long[0x10000 / 64];
+	private final long[] writeWatches = new long[0x10000 / 64];
+
+	// The conditions of the points that have one.
+	private final Map<Integer, Condition> breakpointConditions = new HashMap<>();
+	private final Map<Integer, Condition> readConditions = new HashMap<>();
+	private final Map<Integer, Condition> writeConditions = new HashMap<>();
+
+	/**
+	 * <p>
+	 * A debugger on the cpu and its bus. It does nothing until
+	 * {@link #attach()} is called.
+	 * </p>
+	 *
+	 * @param cpu
+	 */
+	public Debugger(CPU6502 cpu) {
+		this.cpu = cpu;
+		this.bus = cpu.getBus();
+	}
+
+	/**
+	 * Starts checking the breakpoints and watchpoints.
+	 */
+	public void attach() {
+		attached = true;
+		cpu.setDebugger(this);
+		bus.connect(this);
+		for (int page = 0; page < 0x100; page++) {
+			updatePage(page);
+		}
+	}
+
+	/**
+	 * Stops checking them. The cpu and the bus run as if there was no debugger.
+	 */
+	public void detach() {
+		attached = false;
+		if (cpu.getDebugger() == this)
+			cpu.setDebugger(null);
+		for (int page = 0; page < 0x100; page++) {
+			bus.watchPage(page, false, false);
+		}
+		bus.connect((Debugger) null);
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return The number of times a point was hit and its condition held.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	// O---------------------------#
+	// | BREAKPOINTS AND WATCHPOINTS
+	// O---------------------------#
+
+	public void addBreakpoint(int addr) {
+		add(Kind.EXECUTE, addr, null);
+	}
+
+	/**
+	 * @param kind
+	 * @param addr
+	 * @param condition
+	 *            Null to always break.
+	 */
+	public void add(Kind kind, int addr, Condition condition) {
+		addr &= 0xffff;
+		bits(kind)[addr >> 6] |= 1L << addr;
+		if (condition != null)
+			conditions(kind).put(addr, condition);
+		else
+			conditions(kind).remove(addr);
+
+		if (kind != Kind.EXECUTE)
+			updatePage(addr >> 8);
+	}
+
+	public void remove(Kind kind, int addr) {
+		addr &= 0xffff;
+		bits(kind)[addr >> 6] &= ~(1L << addr);
+		conditions(kind).remove(addr);
+
+		if (kind != Kind.EXECUTE)
+			updatePage(addr >> 8);
+	}
+
+	/**
+	 * Removes every breakpoint and watchpoint.
+	 */
+	public void clear() {
+		for (Kind kind : Kind.values()) {
+			Arrays.fill(bits(kind), 0);
+			conditions(kind).clear();
+		}
+		for (int page = 0; page < 0x100; page++) {
+			updatePage(page);
+		}
+	}
+
+	// •–––––––––––––––––––––––––––––––––––––––
+	// | CALLED BY THE CPU AND THE BUS
+	// •–––––––––––––––––––––––––––––––––––––––
+
+	/**
+	 * The cpu is about to run the instruction at pc.
+	 */
+	void execute(int pc, int opcode) {
+		if ((breakpoints[pc >> 6] & (1L << pc)) != 0)
+			hit(Kind.EXECUTE, pc, opcode);
+	}
+
+	/**
+	 * A byte was read from a watched page.
+	 */
+	void read(int addr, int data) {
+		if ((readWatches[addr >> 6] & (1L << addr)) != 0)
+			hit(Kind.READ, addr, data);
+	}
+
+	/**
+	 * A byte was written to a watched page.
+	 */
+	void write(int addr, int data) {
+		if ((writeWatches[addr >> 6] & (1L << addr)) != 0)
+			hit(Kind.WRITE, addr, data);
+	}
+
+	// O---------------------------#
+	// | HELPER FUNCTIONS
+	// O---------------------------#
+
+	private void hit(Kind kind, int addr, int data) {
+		Condition condition = conditions(kind).get(addr);
+		if (condition != null && !condition.test(cpu))
+			return;
+
+		hits++;
+		if (listener != null)
+			listener.hit(kind, addr, data);
+	}
+
+	// Tells the bus whether anything on the page is watched.
+	private void updatePage(int page) {
+		if (!attached)
+			return;
+
+		int from = page << 2;
+		boolean read = false;
+		boolean write = false;
+		for (int i = from; i < from + 4; i++) {
+			read |= readWatches[i] != 0;
+			write |= writeWatches[i] != 0;
+		}
+		bus.watchPage(page, read, write);
+	}
+
+	private long[] bits(Kind kind) {
+		switch (kind) {
+			case READ :
+				return readWatches;
+			case WRITE :
+				return writeWatches;
+			default :
+				return breakpoints;
+		}
+	}
+
+	private Map<Integer, Condition> conditions(Kind kind) {
+		switch (kind) {
+			case READ :
+				return readConditions;
+			case WRITE :
+				return writeConditions;
+			default :
+				return breakpointConditions;
+		}
+	}
+
+	// O---------------------------#
+	// | CONDITIONS
+	// O---------------------------#
+
+	// A value in a condition.
+	private interface Value {
+		int get(CPU6502 cpu);
+	}
+
+	// A recursive descent parser for conditions:
+	//
+	// or      := and ('||' and)*
+	// and     := compare ('&&' compare)*
+	// compare := mask (op mask)?
+	// mask    := unary ('&' unary)*
+	// unary   := '!' unary | '(' or ')' | '[' mask ']' | register | number
+	private static final class Parser {
+		private final String s;
+		private int i = 0;
+
+		Parser(String s) {
+			this.s = s;
+		}
+
+		Condition parse() {
+			Value value = or();
+			skipSpaces();
+			if (i < s.length())
+				throw error("Unexpected '" + s.charAt(i) + "'");
+			return cpu -> value.get(cpu) != 0;
+		}
+
+		private Value or() {
+			Value left = and();
+			while (accept("||")) {
+				Value a = left;
+				Value b = and();
+				left = cpu -> (a.get(cpu) != 0 || b.get(cpu) != 0) ? 1 : 0;
+			}
+			return left;
+		}
+
+		private Value and() {
+			Value left = compare();
+			while (accept("&&")) {
+				Value a = left;
+				Value b = compare();
+				left = cpu -> (a.get(cpu) != 0 && b.get(cpu) != 0) ? 1 : 0;
+			}
+			return left;
+		}
+
+		private Value compare() {
+			Value a = mask();
+			if (accept("==")) {
+				Value b = mask();
+				return cpu -> (a.get(cpu) == b.get(cpu)) ? 1 : 0;
+			} else if (accept("!=")) {
+				Value b = mask();
+				return cpu -> (a.get(cpu) != b.get(cpu)) ? 1 : 0;
+			} else if (accept("<=")) {
+				Value b = mask();
+				return cpu -> (a.get(cpu) <= b.get(cpu)) ? 1 : 0;
+			} else if (accept(">=")) {
+				Value b = mask();
+				return cpu -> (a.get(cpu) >= b.get(cpu)) ? 1 : 0;
+			} else if (accept("<")) {
+				Value b = mask();
+				return cpu -> (a.get(cpu) < b.get(cpu)) ? 1 : 0;
+			} else if (accept(">")) {
+				Value b = mask();
+				return cpu -> (a.get(cpu) > b.get(cpu)) ? 1 : 0;
+			}
+			return a;
+		}
+
+		private Value mask() {
+			Value left = unary();
+			while (peek('&') && !s.startsWith("&&", i)) {
+				i++;
+				Value a = left;
+				Value b = unary();
+				left = cpu -> a.get(cpu) & b.get(cpu);
+			}
+			return left;
+		}
+
+		private Value unary() {
+			skipSpaces();
+			if (i >= s.length())
+				throw error("Missing a value");
+
+			char c = s.charAt(i);
+			if (c == '!' && !s.startsWith("!=", i)) {
+				i++;
+				Value a = unary();
+				return cpu -> (a.get(cpu) == 0) ? 1 : 0;
+			} else if (c == '(') {
+				i++;
+				Value a = or();
+				expect(")");
+				return a;
+			} else if (c == '[') {
+				i++;
+				Value a = mask();
+				expect("]");
+				return cpu -> cpu.getBus().cpuRead(a.get(cpu), true);
+			} else if (c == '$') {
+				return number(i + 1, 16);
+			} else if (Character.isDigit(c)) {
+				return number(i, 10);
+			}
+			return register();
+		}
+
+		private Value number(int start, int radix) {
+			int end = start;
+			while (end < s.length() && Character.digit(s.charAt(end), radix) >= 0) {
+				end++;
+			}
+			if (end == start)
+				throw error("Bad number");
+
+			int n = Integer.parseInt(s.substring(start, end), radix);
+			i = end;
+			return cpu -> n;
+		}
+
+		private Value register() {
+			int start = i;
+			while (i < s.length() && Character.isLetter(s.charAt(i))) {
+				i++;
+			}
+			switch (s.substring(start, i).toUpperCase()) {
+				case "A" :
+					return CPU6502::getA;
+				case "X" :
+					return CPU6502::getX;
+				case "Y" :
+					return CPU6502::getY;
+				case "P" :
+					return CPU6502::getStatus;
+				case "SP" :
+					return cpu -> cpu.getStackPointer() & 0xff;
+				case "PC" :
+					return CPU6502::getProgramCounter;
+				default :
+					i = start;
+					throw error("Unknown value");
+			}
+		}
+
+		private boolean accept(String token) {
+			skipSpaces();
+			if (s.startsWith(token, i)) {
+				i += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		private boolean peek(char c) {
+			skipSpaces();
+			return i < s.length() && s.charAt(i) == c;
+		}
+
+		private void expect(String token) {
+			if (!accept(token))
+				throw error("Expected '" + token + "'");
+		}
+
+		private void skipSpaces() {
+			while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+				i++;
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at " + i + " in: " + s);
+		}
+	}
+}
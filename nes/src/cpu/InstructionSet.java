@@ -43,29 +43,13 @@ public class InstructionSet {
 			// bit.
 			int m = cpu.read(cpu.handlingData);
 			int a = cpu.getA();
-			int c = (cpu.getFlag(Flag.CARRY)) ? 1 : 0;
-			int result = a + m + c;
+			int result = a + m + cpu.getCarry();
 
-			if (result > 255)
-				cpu.setFlag(Flag.CARRY);
-			else
-				cpu.clearFlag(Flag.CARRY);
-
-			if ((result & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
+			cpu.setCarry(result >> 8);
+			cpu.setNZ(result);
 
-			// ~(A^M) & (A^R)
-			if ((((result ^ a) & (result ^ m)) & 0x0080) == 0x80)
-				cpu.setFlag(Flag.OVERFLOW);
-			else
-				cpu.clearFlag(Flag.OVERFLOW);
-
-			if ((result & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			// ~(A^M) & (A^R), bit 7 moved to V.
+			cpu.setOverflow(((result ^ a) & (result ^ m) & 0x80) >> 1);
 
 			// load the first eight bits of the result.
 			cpu.setA(result & 0xff);
@@ -88,20 +72,9 @@ public class InstructionSet {
 
 			t = t << 1;
 
-			if ((t & 0xff00) > 0)
-				cpu.setFlag(Flag.CARRY);
-			else
-				cpu.clearFlag(Flag.CARRY);
+			cpu.setCarry(t >> 8);
 
-			if ((t & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((t & 0x80) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(t);
 
 			if (cpu.getCurrentInstruction().modeName == "implied")
 				cpu.setA(t & 0x00ff); // Set it and throw away the high byte.
@@ -124,15 +97,7 @@ public class InstructionSet {
 
 			cpu.setA(cpu.getA() & value);
 
-			if (cpu.getA() == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((cpu.getA() & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cpu.getA());
 
 			return 1;
 		};
@@ -148,11 +113,13 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> BCC() {
 		return (cpu) -> {
-			if (!cpu.getFlag(Flag.CARRY)) {
+			if (cpu.getCarry() == 0) {
 				cpu.cycle++;
 				int t = cpu.getProgramCounter() + cpu.handlingData;
 
-				if ((cpu.handlingData & 0xff00) != (cpu.getProgramCounter() & 0xff00))
+				// The next instruction is at PC + 1, the branch crosses a page if the
+				// target is on another page than it.
+				if (((t + 1) & 0xff00) != ((cpu.getProgramCounter() + 1) & 0xff00))
 					cpu.cycle++;
 
 				cpu.setProgramCounter(t);
@@ -171,11 +138,11 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> BCS() {
 		return (cpu) -> {
-			if (cpu.getFlag(Flag.CARRY)) {
+			if (cpu.getCarry() != 0) {
 				cpu.cycle++;
 				int t = cpu.getProgramCounter() + cpu.handlingData;
 
-				if ((cpu.handlingData & 0xff00) != (cpu.getProgramCounter() & 0xff00))
+				if (((t + 1) & 0xff00) != ((cpu.getProgramCounter() + 1) & 0xff00))
 					cpu.cycle++;
 
 				cpu.setProgramCounter(t);
@@ -194,11 +161,11 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> BEQ() {
 		return (cpu) -> {
-			if (cpu.getFlag(Flag.ZERO)) {
+			if (cpu.isZero()) {
 				cpu.cycle++;
 				int t = cpu.getProgramCounter() + cpu.handlingData;
 
-				if ((cpu.handlingData & 0xff00) != (cpu.getProgramCounter() & 0xff00))
+				if (((t + 1) & 0xff00) != ((cpu.getProgramCounter() + 1) & 0xff00))
 					cpu.cycle++;
 
 				cpu.setProgramCounter(t);
@@ -226,20 +193,9 @@ public class InstructionSet {
 
 			int result = a & m;
 
-			if ((result & 0x00ff) == 0x00)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((m & (1 << 6)) == 0)
-				cpu.clearFlag(Flag.OVERFLOW);
-			else
-				cpu.setFlag(Flag.OVERFLOW);
-
-			if ((m & (1 << 7)) == 0)
-				cpu.clearFlag(Flag.NEGATIVE);
-			else
-				cpu.setFlag(Flag.NEGATIVE);
+			cpu.setZero(result);
+			cpu.setOverflow(m);
+			cpu.setNegative(m);
 
 			return 0;
 		};
@@ -255,11 +211,11 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> BMI() {
 		return (cpu) -> {
-			if (cpu.getFlag(Flag.NEGATIVE)) {
+			if (cpu.isNegative()) {
 				cpu.cycle++;
 				int t = cpu.getProgramCounter() + cpu.handlingData;
 
-				if ((cpu.handlingData & 0xff00) != (cpu.getProgramCounter() & 0xff00))
+				if (((t + 1) & 0xff00) != ((cpu.getProgramCounter() + 1) & 0xff00))
 					cpu.cycle++;
 
 				cpu.setProgramCounter(t);
@@ -278,11 +234,11 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> BNE() {
 		return (cpu) -> {
-			if (!cpu.getFlag(Flag.ZERO)) {
+			if (!cpu.isZero()) {
 				cpu.cycle++;
 				int t = cpu.getProgramCounter() + cpu.handlingData;
 
-				if ((cpu.handlingData & 0xff00) != (cpu.getProgramCounter() & 0xff00))
+				if (((t + 1) & 0xff00) != ((cpu.getProgramCounter() + 1) & 0xff00))
 					cpu.cycle++;
 
 				cpu.setProgramCounter(t);
@@ -301,11 +257,11 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> BPL() {
 		return (cpu) -> {
-			if (!cpu.getFlag(Flag.NEGATIVE)) {
+			if (!cpu.isNegative()) {
 				cpu.cycle++;
 				int t = cpu.getProgramCounter() + cpu.handlingData;
 
-				if ((cpu.handlingData & 0xff00) != (cpu.getProgramCounter() & 0xff00))
+				if (((t + 1) & 0xff00) != ((cpu.getProgramCounter() + 1) & 0xff00))
 					cpu.cycle++;
 
 				cpu.setProgramCounter(t);
@@ -330,7 +286,7 @@ public class InstructionSet {
 
 			cpu.setFlag(Flag.INTERRUPT_DISABLE);
 
-			cpu.write(0x100 + cpu.getStackPointer(), cpu.getProgramCounter() & 0xff00);
+			cpu.write(0x100 + cpu.getStackPointer(), (cpu.getProgramCounter() >> 8) & 0x00ff);
 			cpu.decSP(); // decreases the stack pointer.
 
 			cpu.write(0x100 + cpu.getStackPointer(), cpu.getProgramCounter() & 0x00ff);
@@ -357,11 +313,11 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> BVC() {
 		return (cpu) -> {
-			if (!cpu.getFlag(Flag.OVERFLOW)) {
+			if (!cpu.isOverflow()) {
 				cpu.cycle++;
 				int t = cpu.getProgramCounter() + cpu.handlingData;
 
-				if ((cpu.handlingData & 0xff00) != (cpu.getProgramCounter() & 0xff00))
+				if (((t + 1) & 0xff00) != ((cpu.getProgramCounter() + 1) & 0xff00))
 					cpu.cycle++;
 
 				cpu.setProgramCounter(t);
@@ -380,11 +336,11 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> BVS() {
 		return (cpu) -> {
-			if (cpu.getFlag(Flag.OVERFLOW)) {
+			if (cpu.isOverflow()) {
 				cpu.cycle++;
 				int t = cpu.getProgramCounter() + cpu.handlingData;
 
-				if ((cpu.handlingData & 0xff00) != (cpu.getProgramCounter() & 0xff00))
+				if (((t + 1) & 0xff00) != ((cpu.getProgramCounter() + 1) & 0xff00))
 					cpu.cycle++;
 
 				cpu.setProgramCounter(t);
@@ -404,7 +360,7 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> CLC() {
 		return (cpu) -> {
-			cpu.clearFlag(Flag.CARRY);
+			cpu.setCarry(0);
 			return 0;
 		};
 	}
@@ -453,7 +409,7 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> CLV() {
 		return (cpu) -> {
-			cpu.clearFlag(Flag.OVERFLOW);
+			cpu.setOverflow(0);
 			return 0;
 		};
 	}
@@ -472,20 +428,10 @@ public class InstructionSet {
 		return (cpu) -> {
 			int cmp = cpu.getA() - cpu.read(cpu.handlingData);
 
-			if (cpu.getA() >= cpu.read(cpu.handlingData))
-				cpu.setFlag(Flag.CARRY);
-			else
-				cpu.clearFlag(Flag.CARRY);
+			// C = A >= M, when the sign bit of A - M is clear.
+			cpu.setCarry(~(cpu.getA() - cpu.read(cpu.handlingData)) >>> 31);
 
-			if ((cmp & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((cmp & 0x0080) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cmp);
 
 			return 1;
 		};
@@ -507,20 +453,10 @@ public class InstructionSet {
 
 			int cmp = cpu.getX() - cpu.read(cpu.handlingData);
 
-			if (cpu.getX() >= cpu.read(cpu.handlingData))
-				cpu.setFlag(Flag.CARRY);
-			else
-				cpu.clearFlag(Flag.CARRY);
-
-			if ((cmp & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
+			// C = X >= M, when the sign bit of X - M is clear.
+			cpu.setCarry(~(cpu.getX() - cpu.read(cpu.handlingData)) >>> 31);
 
-			if ((cmp & 0x0080) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cmp);
 
 			return 0;
 		};
@@ -541,20 +477,10 @@ public class InstructionSet {
 			int m = cpu.read(cpu.handlingData);
 			int cmp = cpu.getY() - m;
 
-			if (cpu.getY() >= m)
-				cpu.setFlag(Flag.CARRY);
-			else
-				cpu.clearFlag(Flag.CARRY);
-
-			if ((cmp & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
+			// C = Y >= M, when the sign bit of Y - M is clear.
+			cpu.setCarry(~cmp >>> 31);
 
-			if ((cmp & 0x80) == 0x80)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cmp);
 
 			return 0;
 		};
@@ -578,15 +504,7 @@ public class InstructionSet {
 
 			cpu.write(cpu.handlingData, t);
 
-			if ((t & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((t & 0x80) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(t);
 
 			return 0;
 		};
@@ -608,15 +526,7 @@ public class InstructionSet {
 			int t = cpu.getX() - 1;
 			t &= 0x00ff;
 
-			if (t == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((t & 0x80) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(t);
 
 			cpu.setX(t);
 			return 0;
@@ -640,15 +550,7 @@ public class InstructionSet {
 			int t = cpu.getY() - 1;
 			t &= 0x00ff;
 
-			if ((t & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((t & 0x80) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(t);
 
 			cpu.setY(t);
 
@@ -671,15 +573,7 @@ public class InstructionSet {
 			int value = cpu.read(cpu.handlingData);
 			int t = cpu.getA() ^ value;
 
-			if ((t & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((t & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(t);
 
 			cpu.setA(t);
 
@@ -703,15 +597,7 @@ public class InstructionSet {
 			t++;
 			t = t % 256;
 
-			if ((t & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((t & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(t);
 
 			cpu.write(cpu.handlingData, t);
 
@@ -734,16 +620,7 @@ public class InstructionSet {
 
 			cpu.setX(t);
 
-			if ((t & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			// 01001010
-			if ((t & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(t);
 
 			return 0;
 
@@ -763,16 +640,7 @@ public class InstructionSet {
 			int t = cpu.getY() + 1;
 
 			cpu.setY(t);
-			if ((t & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			// 01001010
-			if ((t & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(t);
 
 			return 0;
 		};
@@ -827,16 +695,7 @@ public class InstructionSet {
 		return (cpu) -> {
 			cpu.setA(cpu.read(cpu.handlingData));
 
-			if (cpu.getA() == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			// 01001010
-			if ((cpu.getA() & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cpu.getA());
 
 			return 1;
 		};
@@ -853,16 +712,7 @@ public class InstructionSet {
 		return (cpu) -> {
 			cpu.setX(cpu.read(cpu.handlingData));
 
-			if (cpu.getX() == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			// 01001010
-			if ((cpu.getX() & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cpu.getX());
 
 			return 1;
 		};
@@ -879,16 +729,7 @@ public class InstructionSet {
 		return (cpu) -> {
 			cpu.setY(cpu.read(cpu.handlingData));
 
-			if (cpu.getY() == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			// 01001010
-			if ((cpu.getY() & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cpu.getY());
 
 			return 1;
 
@@ -908,22 +749,11 @@ public class InstructionSet {
 		return (cpu) -> {
 			int t = fetchData(cpu);
 
-			if ((t & 0b0000_0001) == 1)
-				cpu.setFlag(Flag.CARRY);
-			else
-				cpu.clearFlag(Flag.CARRY);
+			cpu.setCarry(t);
 
 			t = t >> 1;
 
-			if ((t & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((t & 0x80) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(t);
 
 			if (cpu.getCurrentInstruction().modeName == "implied")
 				cpu.setA(t & 0x00ff); // Set it and throw away the high bytes.
@@ -963,15 +793,7 @@ public class InstructionSet {
 
 			cpu.setA((cpu.getA() | value) & 0x00ff);
 
-			if (cpu.getA() == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((cpu.getA() & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cpu.getA());
 
 			return 1;
 		};
@@ -1002,13 +824,11 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> PHP() {
 		return (cpu) -> {
-			cpu.setFlag(Flag.BREAK);
-			cpu.setFlag(Flag.UNUSED);
+			int status = cpu.getStatus() | Flag.BREAK.getFlag() | Flag.UNUSED.getFlag();
 
-			cpu.write(0x100 + cpu.getStackPointer(), cpu.getStatus());
+			cpu.write(0x100 + cpu.getStackPointer(), status);
 
-			cpu.clearFlag(Flag.BREAK);
-			cpu.clearFlag(Flag.UNUSED);
+			cpu.setStatus(status & ~(Flag.BREAK.getFlag() | Flag.UNUSED.getFlag()));
 			cpu.decSP();
 			return 0;
 		};
@@ -1027,15 +847,7 @@ public class InstructionSet {
 
 			cpu.setA(cpu.read(0x100 + cpu.getStackPointer()));
 
-			if (cpu.getA() == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			if ((cpu.getA() & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cpu.getA());
 
 			return 0;
 		};
@@ -1052,8 +864,7 @@ public class InstructionSet {
 		return (cpu) -> {
 			cpu.incSP();
 			int newStatus = cpu.read(0x100 + cpu.getStackPointer());
-			cpu.setStatus(newStatus);
-			cpu.setFlag(Flag.UNUSED);
+			cpu.setStatus(newStatus | Flag.UNUSED.getFlag());
 
 			return 0;
 		};
@@ -1072,22 +883,11 @@ public class InstructionSet {
 			int t = fetchData(cpu);
 
 			t = t << 1;
-			t |= cpu.getFlag(Flag.CARRY) ? 1 : 0;
-
-			if ((t & 0xff00) > 0)
-				cpu.setFlag(Flag.CARRY);
-			else
-				cpu.clearFlag(Flag.CARRY);
+			t |= cpu.getCarry();
 
-			if ((t & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
+			cpu.setCarry(t >> 8);
 
-			if ((t & 0x80) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(t);
 
 			if (cpu.getCurrentInstruction().modeName == "implied")
 				cpu.setA(t & 0x00ff); // Set it and throw away the high bytes.
@@ -1109,29 +909,13 @@ public class InstructionSet {
 	public static Executable<CPU6502> ROR() {
 		return (cpu) -> {
 			int t = fetchData(cpu);
-			int c = cpu.getFlag(Flag.CARRY) ? 1 : 0;
-
-			if ((t & 0b0000_0001) == 1)
-				cpu.setFlag(Flag.CARRY);
-			else
-				cpu.clearFlag(Flag.CARRY);
+			int c = cpu.getCarry();
 
-			t = t >> 1;
-			if (c == 1)
-				t |= 1 << 7;
-			else
-				t &= ~(1 << 7);
-//			t |= cpu.getFlag(Flag.CARRY) ? 1 << 7 : 0;
+			cpu.setCarry(t);
 
-			if ((t & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
+			t = (t >> 1) | (c << 7);
 
-			if ((t & 0x80) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(t);
 
 			if (cpu.getCurrentInstruction().modeName == "implied")
 				cpu.setA(t & 0x00ff); // Set it and throw away the high bytes.
@@ -1166,9 +950,8 @@ public class InstructionSet {
 
 			// Get the Processor flags.
 			cpu.incSP();
-			cpu.setStatus(cpu.read(0x0100 + cpu.getStackPointer()));
-			cpu.setStatus(cpu.getStatus() & ~Flag.BREAK.getFlag());
-			cpu.setStatus(cpu.getStatus() & ~Flag.UNUSED.getFlag());
+			int status = cpu.read(0x0100 + cpu.getStackPointer());
+			cpu.setStatus(status & ~(Flag.BREAK.getFlag() | Flag.UNUSED.getFlag()));
 
 			cpu.incSP();
 			int lowByte = cpu.read(0x0100 + cpu.getStackPointer());
@@ -1225,29 +1008,13 @@ public class InstructionSet {
 			m ^= 0x00ff;
 
 			int a = cpu.getA();
-			int c = (cpu.getFlag(Flag.CARRY)) ? 1 : 0;
-			int temp = a + m + c;
+			int temp = a + m + cpu.getCarry();
 
-			if (temp > 255)
-				cpu.setFlag(Flag.CARRY);
-			else
-				cpu.clearFlag(Flag.CARRY);
+			cpu.setCarry(temp >> 8);
+			cpu.setNZ(temp);
 
-			if ((temp & 0x00ff) == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			// ~(A^M) & (A^R)
-			if ((((temp ^ a) & (temp ^ m)) & 0x0080) == 0x80)
-				cpu.setFlag(Flag.OVERFLOW);
-			else
-				cpu.clearFlag(Flag.OVERFLOW);
-
-			if ((temp & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			// ~(A^M) & (A^R), bit 7 moved to V.
+			cpu.setOverflow(((temp ^ a) & (temp ^ m) & 0x80) >> 1);
 
 			// load the first eight bits of the result.
 			cpu.setA(temp & 0xff);
@@ -1265,7 +1032,7 @@ public class InstructionSet {
 	 */
 	public static Executable<CPU6502> SEC() {
 		return (cpu) -> {
-			cpu.setFlag(Flag.CARRY);
+			cpu.setCarry(1);
 			return 0;
 		};
 	}
@@ -1345,16 +1112,7 @@ public class InstructionSet {
 	public static Executable<CPU6502> TAX() {
 		return (cpu) -> {
 			cpu.setX(cpu.getA());
-			if (cpu.getX() == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			// 01001010
-			if ((cpu.getX() & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cpu.getX());
 
 			return 0;
 		};
@@ -1369,16 +1127,7 @@ public class InstructionSet {
 	public static Executable<CPU6502> TAY() {
 		return (cpu) -> {
 			cpu.setY(cpu.getA());
-			if (cpu.getY() == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			// 01001010
-			if ((cpu.getY() & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cpu.getY());
 
 			return 0;
 		};
@@ -1398,16 +1147,7 @@ public class InstructionSet {
 		return (cpu) -> {
 			cpu.setX(cpu.getStackPointer());
 
-			if (cpu.getX() == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			// 01001010
-			if ((cpu.getX() & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cpu.getX());
 
 			return 0;
 		};
@@ -1427,16 +1167,7 @@ public class InstructionSet {
 		return (cpu) -> {
 			cpu.setA(cpu.getX());
 
-			if (cpu.getA() == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			// 01001010
-			if ((cpu.getA() & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cpu.getA());
 
 			return 0;
 		};
@@ -1466,16 +1197,7 @@ public class InstructionSet {
 //			cpu.setY(cpu.getA());
 
 			cpu.setA(cpu.getY());
-			if (cpu.getA() == 0)
-				cpu.setFlag(Flag.ZERO);
-			else
-				cpu.clearFlag(Flag.ZERO);
-
-			// 01001010
-			if ((cpu.getA() & (1 << 7)) != 0)
-				cpu.setFlag(Flag.NEGATIVE);
-			else
-				cpu.clearFlag(Flag.NEGATIVE);
+			cpu.setNZ(cpu.getA());
 
 			return 0;
 		};
@@ -1,5 +1,7 @@
 package cpu;
 
+import java.nio.ByteBuffer;
+
 /**
  * Depending on the game, an NES cartridge contains RAM and ROM for both CPU PPU
  * busses. Often these chips are much large than 64K and depend on dedicated
@@ -15,17 +17,170 @@ package cpu;
  */
 public abstract class Mapper {
 
+	/**
+	 * <p>
+	 * Builds a mapper for a board with the given number of 16KB PRG banks and
+	 * 8KB CHR banks. The {@code Cartridge} keeps one per mapper number.
+	 * </p>
+	 */
+	interface Factory {
+		Mapper create(int prgBanks, int chrBanks);
+	}
+
 	protected int prgBanks;
 	protected int chrBanks;
 
+	private Cartridge cart;
+
 	public Mapper(int prgBanks, int chrBanks) {
 		this.prgBanks = prgBanks;
 		this.chrBanks = chrBanks;
 	}
 
+	void connect(Cartridge cart) {
+		this.cart = cart;
+	}
+
 	/**
 	 * <p>
-	 * Takes the address and maps it to the correct address on the cartridge.
+	 * Must be called by mappers whenever they switch what PRG memory the cpu
+	 * sees, so the pages in the {@code Bus} are pointed at the new banks.
+	 * </p>
+	 */
+	protected void prgBanksChanged() {
+		if (cart != null)
+			cart.mapPrgPages();
+	}
+
+	/**
+	 * <p>
+	 * Must be called by mappers whenever they switch what CHR memory the PPU sees,
+	 * so the cartridge looks up the new banks.
+	 * </p>
+	 */
+	protected void chrBanksChanged() {
+		if (cart != null)
+			cart.chrBanksChanged();
+	}
+
+	/**
+	 * <p>
+	 * Same as {@link #chrBanksChanged()} when only the addresses from
+	 * {@code from} to {@code to} were switched. Only their windows are looked up
+	 * again.
+	 * </p>
+	 * 
+	 * @param from
+	 * @param to
+	 */
+	protected void chrBanksChanged(int from, int to) {
+		if (cart != null)
+			cart.chrBanksChanged(from, to);
+	}
+
+	/**
+	 * <p>
+	 * For mappers that switch the nametable mirroring.
+	 * </p>
+	 * 
+	 * @param mirroring
+	 */
+	protected void setMirroring(Cartridge.NametableMirror mirroring) {
+		if (cart != null)
+			cart.setMirroring(mirroring);
+	}
+
+	// O---------------------------#
+	// | WINDOWS
+	// O---------------------------#
+
+	/**
+	 * <p>
+	 * For mappers that switch PRG in 8KB windows and keep where each window
+	 * starts in an array: the {@code Bus} then reads $8000-$FFFF through that
+	 * array, and a switch only has to change an offset in it, no
+	 * {@link #prgBanksChanged()} needed.
+	 * </p>
+	 *
+	 * @return The offsets in PRG ROM of $8000, $A000, $C000 and $E000, or null
+	 *         to be asked with {@link #cpuRead(int)} a page at a time.
+	 */
+	int[] prgWindows() {
+		return null;
+	}
+
+	/**
+	 * <p>
+	 * Same as {@link #prgWindows()} for CHR in 1KB windows, read by the
+	 * {@code Cartridge}. A switch must still call {@link #chrBanksChanged()}.
+	 * </p>
+	 *
+	 * @return The offsets in CHR memory of $0000, $0400, ... $1C00, or null.
+	 */
+	int[] chrWindows() {
+		return null;
+	}
+
+	// O---------------------------#
+	// | SCANLINE IRQ
+	// O---------------------------#
+
+	/**
+	 * <p>
+	 * Called by the PPU once per rendered scanline, on the dot A12 of the PPU's
+	 * address rises (see {@link PPU2C02#getCounterDot()}). Only mappers with a
+	 * scanline counter do something with it.
+	 * </p>
+	 */
+	void scanline() {
+	}
+
+	/**
+	 * @return Whether the mapper is holding the cpu's IRQ line low.
+	 */
+	boolean irq() {
+		return false;
+	}
+
+	/**
+	 * <p>
+	 * How many more calls to {@link #scanline()} it takes, if nothing is written
+	 * to the mapper in between, for it to raise its IRQ. The {@code Scheduler}
+	 * turns this into the dot the IRQ happens on and stops the cpu there.
+	 * </p>
+	 *
+	 * @return 1 or more, or -1 if the IRQ is off or already raised.
+	 */
+	int scanlinesToIrq() {
+		return -1;
+	}
+
+	/**
+	 * <p>
+	 * Writes the mapper's registers to a save state. Mappers without registers
+	 * have nothing to save.
+	 * </p>
+	 * 
+	 * @param buffer
+	 */
+	protected void saveState(ByteBuffer buffer) {
+	}
+
+	/**
+	 * <p>
+	 * Reads back what {@link #saveState(ByteBuffer)} wrote. The {@code Cartridge}
+	 * remaps the banks afterwards, mappers don't have to.
+	 * </p>
+	 * 
+	 * @param buffer
+	 */
+	protected void loadState(ByteBuffer buffer) {
+	}
+
+	/**
+	 * <p>
+	 * Takes the address and maps it to the correct address on the cartridge. The
+	 * {@code Bus} assumes a page (256 bytes) is always mapped as a whole.
 	 * </p>
 	 * 
 	 * @param addr
@@ -36,12 +191,14 @@ public abstract class Mapper {
 	/**
 	 * <p>
 	 * Takes the address and maps it to the correct address on the cartridge.
+	 * Writes to PRG ROM are how games talk to the mapper's registers.
 	 * </p>
 	 * 
 	 * @param addr
+	 * @param data
 	 * @return The mapped address or -1 if not in the range for the mapper.
 	 */
-	abstract int cpuWrite(int addr);
+	abstract int cpuWrite(int addr, int data);
 
 	/**
 	 * <p>
@@ -55,7 +212,8 @@ public abstract class Mapper {
 
 	/**
 	 * <p>
-	 * Takes the address and maps it to the correct address on the cartridge.
+	 * Takes the address and maps it to the correct address on the cartridge. The
+	 * {@code Cartridge} assumes CHR is switched in 1KB windows or bigger.
 	 * </p>
 	 * 
 	 * @param addr
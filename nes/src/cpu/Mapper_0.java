@@ -1,7 +1,5 @@
 package cpu;
 
-import javax.swing.plaf.ProgressBarUI;
-
 /**
  * <p>
  * Mapper 0 has two configurations:
@@ -19,56 +17,18 @@ import javax.swing.plaf.ProgressBarUI;
  * @author jorgejimenez
  *
  */
-public class Mapper_0 extends Mapper {
+public class Mapper_0 extends BankedMapper {
 
 	public Mapper_0(int prgBanks, int chrBanks) {
 		super(prgBanks, chrBanks);
-	}
-
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see cpu.Mapper#cpuRead(int)
-	 */
-	@Override
-	int cpuRead(int addr) {
-
-		return simpleCPUMap(addr);
-	}
-
-	@Override
-	int cpuWrite(int addr) {
-
-		return simpleCPUMap(addr);
-
-	}
-
-
-	@Override
-	int ppuWrite(int addr) {
-		// No mapping required for the PPU.
-		if (addr >= 0x0000 && addr <= 0x1FFF)
-			if (chrBanks == 0) // If the flag 5 (sizeOfChrRom == 0), use as RAM
-				return addr;
-		return -1;
+		// NROM-128 repeats its only bank.
+		setPrg32k(0);
+		setChr8k(0);
+		applyBanks();
 	}
 
 	@Override
-	int ppuRead(int addr) {
-		// No mapping required for the PPU.
-		if (addr >= 0x0000 && addr <= 0x1FFF)
-			return addr;
-		return -1;
-	}
-
-	// Is the address between $8000 and $FFFF?
-	private int simpleCPUMap(int addr) {
-		if (addr >= 0x8000 && addr <= 0xffff) {
-
-			int newAddress = addr & (prgBanks > 1 ? 0x7FFF : 0x3FFF);
-
-			return newAddress;
-		}
-		return -1;
+	protected void writeRegister(int addr, int data) {
+		// No registers, writes to ROM do nothing.
 	}
 }
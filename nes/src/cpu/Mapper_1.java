@@ -0,0 +1,160 @@
+package cpu;
+
+import java.nio.ByteBuffer;
+
+import cpu.Cartridge.NametableMirror;
+
+/**
+ * <p>
+ * Mapper 1, the MMC1 of the SxROM boards. The cpu loads its registers one bit
+ * at a time through a 5-bit shift register: four writes to $8000-$FFFF shift
+ * bits in, the fifth copies the value into the register its address selects.
+ * A write with bit 7 set clears the shift register and goes back to PRG mode
+ * 3.
+ * </p>
+ *
+ * <pre>
+ * $8000-$9FFF  control: CPPMM, CHR mode, PRG mode and mirroring
+ * $A000-$BFFF  CHR bank 0, 4KB at $0000 (8KB at $0000 in 8KB mode)
+ * $C000-$DFFF  CHR bank 1, 4KB at $1000 (ignored in 8KB mode)
+ * $E000-$FFFF  PRG bank, 16KB
+ * </pre>
+ *
+ * <p>
+ * A register write points the two 16KB PRG windows and the two 4KB CHR
+ * windows at their banks.
+ * On boards with 512KB of PRG ROM bit 4 of CHR bank 0 picks the 256KB half.
+ * The header's mirroring holds until the game writes the control register.
+ * Writes on consecutive cycles (read-modify-write instructions) aren't
+ * ignored the way the chip ignores the second one.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class Mapper_1 extends BankedMapper {
+
+	// A 1 in bit 4: when it reaches bit 0 the next write is the fifth.
+	private static final int SHIFT_RESET = 0x10;
+
+	private static final NametableMirror[] MIRRORING = { NametableMirror.SINGLE, NametableMirror.SINGLE_UPPER,
+			NametableMirror.VERTICAL, NametableMirror.HORIZONTAL };
+
+	// •–––––––––––––––––––––––––––•
+	// | REGISTERS
+	// •–––––––––––––––––––––––––––•
+	private int shift = SHIFT_RESET;
+	private int control = 0x0c;
+	private int chrBank0 = 0x00;
+	private int chrBank1 = 0x00;
+	private int prgBank = 0x00;
+
+	public Mapper_1(int prgBanks, int chrBanks) {
+		super(prgBanks, chrBanks);
+		updateBanks();
+		applyBanks();
+	}
+
+	@Override
+	protected void writeRegister(int addr, int data) {
+		if ((data & 0x80) != 0) {
+			shift = SHIFT_RESET;
+			control |= 0x0c;
+			updateBanks();
+			return;
+		}
+
+		boolean fifth = (shift & 1) != 0;
+		shift = (shift >> 1) | ((data & 1) << 4);
+		if (fifth) {
+			int value = shift;
+			shift = SHIFT_RESET;
+
+			switch ((addr >> 13) & 0x03) {
+				case 0 :
+					control = value;
+					setMirroring(MIRRORING[value & 0x03]);
+					break;
+				case 1 :
+					chrBank0 = value;
+					break;
+				case 2 :
+					chrBank1 = value;
+					break;
+				case 3 :
+					prgBank = value;
+					break;
+			}
+			updateBanks();
+		}
+	}
+
+	// O---------------------------#
+	// | SAVE STATES
+	// O---------------------------#
+
+	@Override
+	protected void saveState(ByteBuffer buffer) {
+		buffer.put((byte) shift);
+		buffer.put((byte) control);
+		buffer.put((byte) chrBank0);
+		buffer.put((byte) chrBank1);
+		buffer.put((byte) prgBank);
+	}
+
+	@Override
+	protected void loadState(ByteBuffer buffer) {
+		shift = buffer.get() & 0xff;
+		control = buffer.get() & 0xff;
+		chrBank0 = buffer.get() & 0xff;
+		chrBank1 = buffer.get() & 0xff;
+		prgBank = buffer.get() & 0xff;
+		updateBanks();
+		applyBanks();
+	}
+
+	// O---------------------------#
+	// | HELPER FUNCTIONS
+	// O---------------------------#
+
+	private void updateBanks() {
+		// 16KB PRG banks, within the 256KB half on 512KB boards.
+		int outer = (prgBanks > 16) ? chrBank0 & 0x10 : 0;
+		int bank = outer | (prgBank & 0x0f);
+		int prg0;
+		int prg1;
+		switch ((control >> 2) & 0x03) {
+			case 2 :
+				// First bank fixed at $8000.
+				prg0 = outer;
+				prg1 = bank;
+				break;
+			case 3 :
+				// Last bank fixed at $C000.
+				prg0 = bank;
+				prg1 = outer | 0x0f;
+				break;
+			default :
+				// 32KB, the low bit is ignored.
+				prg0 = bank & ~1;
+				prg1 = bank | 1;
+				break;
+		}
+		setPrg16k(0, prg0);
+		setPrg16k(1, prg1);
+
+		// 4KB CHR banks.
+		int chr0;
+		int chr1;
+		if ((control & 0x10) == 0) {
+			// 8KB, the low bit is ignored.
+			chr0 = chrBank0 & 0x1e;
+			chr1 = chr0 | 1;
+		} else {
+			chr0 = chrBank0;
+			chr1 = chrBank1;
+		}
+		setChr4k(0, chr0);
+		setChr4k(1, chr1);
+	}
+}
@@ -0,0 +1,54 @@
+package cpu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Mapper 2, the UxROM boards. Any write to $8000-$FFFF selects the 16KB PRG
+ * bank at $8000; the last bank is fixed at $C000. CHR is 8KB, almost always
+ * RAM.
+ * </p>
+ *
+ * <p>
+ * The boards have bus conflicts: the ROM drives the data bus during the
+ * write, so games write the value to a byte of ROM that holds it. The value
+ * written is used as is.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class Mapper_2 extends BankedMapper {
+
+	private int prgBank = 0x00;
+
+	public Mapper_2(int prgBanks, int chrBanks) {
+		super(prgBanks, chrBanks);
+		updateBanks();
+		applyBanks();
+	}
+
+	@Override
+	protected void writeRegister(int addr, int data) {
+		prgBank = data;
+		updateBanks();
+	}
+
+	@Override
+	protected void saveState(ByteBuffer buffer) {
+		buffer.put((byte) prgBank);
+	}
+
+	@Override
+	protected void loadState(ByteBuffer buffer) {
+		prgBank = buffer.get() & 0xff;
+		updateBanks();
+		applyBanks();
+	}
+
+	private void updateBanks() {
+		setPrg16k(0, prgBank);
+		setPrg16k(1, -1);
+		setChr8k(0);
+	}
+}
@@ -0,0 +1,46 @@
+package cpu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Mapper 3, the CNROM boards. PRG is 16KB or 32KB and fixed, as on NROM; any
+ * write to $8000-$FFFF selects the 8KB CHR bank.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class Mapper_3 extends BankedMapper {
+
+	private int chrBank = 0x00;
+
+	public Mapper_3(int prgBanks, int chrBanks) {
+		super(prgBanks, chrBanks);
+		updateBanks();
+		applyBanks();
+	}
+
+	@Override
+	protected void writeRegister(int addr, int data) {
+		chrBank = data;
+		updateBanks();
+	}
+
+	@Override
+	protected void saveState(ByteBuffer buffer) {
+		buffer.put((byte) chrBank);
+	}
+
+	@Override
+	protected void loadState(ByteBuffer buffer) {
+		chrBank = buffer.get() & 0xff;
+		updateBanks();
+		applyBanks();
+	}
+
+	private void updateBanks() {
+		setPrg32k(0);
+		setChr8k(chrBank);
+	}
+}
@@ -0,0 +1,184 @@
+package cpu;
+
+import java.nio.ByteBuffer;
+
+import cpu.Cartridge.NametableMirror;
+
+/**
+ * <p>
+ * Mapper 4, the MMC3 of the TxROM boards. PRG ROM is switched in 8KB banks and
+ * CHR in 1KB and 2KB banks, through eight bank registers R0-R7 the cpu selects
+ * and then writes.
+ * </p>
+ *
+ * <pre>
+ * $8000-$9FFE even  bank select: CP-- -RRR, CHR inversion, PRG mode, register
+ * $8001-$9FFF odd   bank data, for the selected register
+ * $A000-$BFFE even  mirroring, 0 vertical and 1 horizontal
+ * $A001-$BFFF odd   PRG RAM protect (ignored, the RAM is always on)
+ * $C000-$DFFE even  IRQ latch, the value the counter is reloaded with
+ * $C001-$DFFF odd   IRQ reload, the counter is reloaded on its next clock
+ * $E000-$FFFE even  IRQ off, and the IRQ acknowledged
+ * $E001-$FFFF odd   IRQ on
+ * </pre>
+ *
+ * <pre>
+ * PRG mode        0          1        CHR inversion    0          1
+ * $8000-$9FFF     R6         -2       $0000-$07FF      R0         R2-R3
+ * $A000-$BFFF     R7         R7       $0800-$0FFF      R1         R4-R5
+ * $C000-$DFFF     -2         R6       $1000-$17FF      R2-R3      R0
+ * $E000-$FFFF     -1         -1       $1800-$1FFF      R4-R5      R1
+ * </pre>
+ *
+ * <p>
+ * The counter is clocked by the PPU once per rendered scanline, where A12 of
+ * its address rises; when it is reloaded with, or counts down to, 0 and the
+ * IRQ is on, the IRQ line is pulled until $E000 is written. The PPU's fetches
+ * aren't watched for A12: {@link #scanlinesToIrq()} tells the
+ * {@code Scheduler} how many scanlines away the IRQ is so the cpu can run up
+ * to it in one go.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class Mapper_4 extends BankedMapper {
+
+	private static final NametableMirror[] MIRRORING = { NametableMirror.VERTICAL, NametableMirror.HORIZONTAL };
+
+	// •–––––––––––––––––––––––––––•
+	// | REGISTERS
+	// •–––––––––––––––––––––––––––•
+	private int bankSelect = 0x00;
+	private final int[] registers = new int[8];
+
+	private int irqLatch = 0x00;
+	private int irqCounter = 0x00;
+	private boolean irqReload = false;
+	private boolean irqEnabled = false;
+	private boolean irq = false;
+
+	public Mapper_4(int prgBanks, int chrBanks) {
+		super(prgBanks, chrBanks);
+		updateBanks();
+		applyBanks();
+	}
+
+	@Override
+	protected void writeRegister(int addr, int data) {
+		boolean odd = (addr & 1) != 0;
+		switch ((addr >> 13) & 0x03) {
+			case 0 :
+				if (odd)
+					registers[bankSelect & 0x07] = data;
+				else
+					bankSelect = data;
+				updateBanks();
+				break;
+			case 1 :
+				if (!odd)
+					setMirroring(MIRRORING[data & 1]);
+				break;
+			case 2 :
+				if (odd) {
+					irqCounter = 0;
+					irqReload = true;
+				} else {
+					irqLatch = data;
+				}
+				break;
+			case 3 :
+				irqEnabled = odd;
+				if (!odd)
+					irq = false;
+				break;
+		}
+	}
+
+	// O---------------------------#
+	// | SCANLINE IRQ
+	// O---------------------------#
+
+	@Override
+	void scanline() {
+		if (irqCounter == 0 || irqReload) {
+			irqCounter = irqLatch;
+			irqReload = false;
+		} else {
+			irqCounter--;
+		}
+
+		if (irqCounter == 0 && irqEnabled)
+			irq = true;
+	}
+
+	@Override
+	boolean irq() {
+		return irq;
+	}
+
+	@Override
+	int scanlinesToIrq() {
+		if (!irqEnabled || irq)
+			return -1;
+
+		// The value after the next clock, then one clock per count down to 0.
+		int next = (irqCounter == 0 || irqReload) ? irqLatch : irqCounter - 1;
+		return next + 1;
+	}
+
+	// O---------------------------#
+	// | SAVE STATES
+	// O---------------------------#
+
+	@Override
+	protected void saveState(ByteBuffer buffer) {
+		buffer.put((byte) bankSelect);
+		for (int i = 0; i < registers.length; i++) {
+			buffer.put((byte) registers[i]);
+		}
+		buffer.put((byte) irqLatch);
+		buffer.put((byte) irqCounter);
+		SaveState.putBoolean(buffer, irqReload);
+		SaveState.putBoolean(buffer, irqEnabled);
+		SaveState.putBoolean(buffer, irq);
+	}
+
+	@Override
+	protected void loadState(ByteBuffer buffer) {
+		bankSelect = buffer.get() & 0xff;
+		for (int i = 0; i < registers.length; i++) {
+			registers[i] = buffer.get() & 0xff;
+		}
+		irqLatch = buffer.get() & 0xff;
+		irqCounter = buffer.get() & 0xff;
+		irqReload = SaveState.getBoolean(buffer);
+		irqEnabled = SaveState.getBoolean(buffer);
+		irq = SaveState.getBoolean(buffer);
+		updateBanks();
+		applyBanks();
+	}
+
+	// O---------------------------#
+	// | HELPER FUNCTIONS
+	// O---------------------------#
+
+	private void updateBanks() {
+		// 8KB PRG banks, the last two are fixed.
+		int r6 = registers[6] & 0x3f;
+		boolean swapped = (bankSelect & 0x40) != 0;
+		setPrg8k(0, swapped ? -2 : r6);
+		setPrg8k(1, registers[7] & 0x3f);
+		setPrg8k(2, swapped ? r6 : -2);
+		setPrg8k(3, -1);
+
+		// 2KB CHR banks from R0 and R1 and 1KB ones from R2-R5, the halves
+		// swapped by the CHR inversion.
+		int invert = ((bankSelect & 0x80) != 0) ? 4 : 0;
+		setChr2k(invert >> 1, registers[0] >> 1);
+		setChr2k((invert >> 1) + 1, registers[1] >> 1);
+		for (int i = 0; i < 4; i++) {
+			setChr1k((invert ^ 4) + i, registers[2 + i]);
+		}
+	}
+}
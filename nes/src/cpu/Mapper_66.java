@@ -0,0 +1,50 @@
+package cpu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Mapper 66, the GxROM boards. A write to $8000-$FFFF selects the 32KB PRG
+ * bank with bits 4-5 and the 8KB CHR bank with bits 0-1.
+ * </p>
+ *
+ * <pre>
+ * --PP --CC
+ * </pre>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class Mapper_66 extends BankedMapper {
+
+	private int register = 0x00;
+
+	public Mapper_66(int prgBanks, int chrBanks) {
+		super(prgBanks, chrBanks);
+		updateBanks();
+		applyBanks();
+	}
+
+	@Override
+	protected void writeRegister(int addr, int data) {
+		register = data;
+		updateBanks();
+	}
+
+	@Override
+	protected void saveState(ByteBuffer buffer) {
+		buffer.put((byte) register);
+	}
+
+	@Override
+	protected void loadState(ByteBuffer buffer) {
+		register = buffer.get() & 0xff;
+		updateBanks();
+		applyBanks();
+	}
+
+	private void updateBanks() {
+		setPrg32k((register >> 4) & 0x03);
+		setChr8k(register & 0x03);
+	}
+}
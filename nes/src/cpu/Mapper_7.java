@@ -0,0 +1,54 @@
+package cpu;
+
+import java.nio.ByteBuffer;
+
+import cpu.Cartridge.NametableMirror;
+
+/**
+ * <p>
+ * Mapper 7, the AxROM boards. A write to $8000-$FFFF selects the 32KB PRG bank
+ * with bits 0-2 and which 1KB of VRAM every nametable shows with bit 4. CHR is
+ * 8KB of RAM.
+ * </p>
+ *
+ * <pre>
+ * ---M -PPP
+ * </pre>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class Mapper_7 extends BankedMapper {
+
+	private int register = 0x00;
+
+	public Mapper_7(int prgBanks, int chrBanks) {
+		super(prgBanks, chrBanks);
+		updateBanks();
+		applyBanks();
+	}
+
+	@Override
+	protected void writeRegister(int addr, int data) {
+		register = data;
+		updateBanks();
+		setMirroring(((data & 0x10) == 0) ? NametableMirror.SINGLE : NametableMirror.SINGLE_UPPER);
+	}
+
+	@Override
+	protected void saveState(ByteBuffer buffer) {
+		buffer.put((byte) register);
+	}
+
+	@Override
+	protected void loadState(ByteBuffer buffer) {
+		register = buffer.get() & 0xff;
+		updateBanks();
+		applyBanks();
+	}
+
+	private void updateBanks() {
+		setPrg32k(register & 0x07);
+		setChr8k(0);
+	}
+}
@@ -1,28 +1,50 @@
 package cpu;
 
+import java.nio.ByteBuffer;
+
 public class NesRunner {
 	private CPU6502 cpu;
 	private PPU2C02 ppu;
 	private Cartridge cart;
 	private Bus bus;
+	private Scheduler scheduler;
 	private String filename;
+	private RomImage rom;
+	private Rewind rewind;
 	public int systemClock = 0;
+	// The cpu cycles left of the OAM DMA in clock().
+	private int dmaCycles = 0;
+	// The PPU's frame count when clock() last ended a frame.
+	private int lastFrameCount = 0;
+
+	// •–––––––––––––––––––––––––––•
+	// | RUN-AHEAD
+	// •–––––––––––––––––––––––––––•
+	private int runAhead = 0;
+	private final ByteBuffer runAheadState = SaveState.allocate();
+	private long frameTime = 0;
+	private long runAheadTime = 0;
 
 	public NesRunner() {
-		// filename = "/Users/jorgejimenez/Downloads/Donkey Kong (JU).nes";
-		// filename = "/Users/jorgejimenez/Downloads/Donkey Kong.nes";
-		 filename = "/Users/jorgejimenez/Downloads/Super Mario Bros..nes";
-		// filename = "/Users/jorgejimenez/Downloads/Ice Climber.nes";
-//		filename = "/Users/jorgejimenez/Downloads/nestest.nes";
-		// filename = "/Users/jorgejimenez/Downloads/official_only.nes";
-		// filename = "/Users/jorgejimenez/Downloads/1942 (PC10).nes";
-
-		cart = new Cartridge(filename);
+		// "/Users/jorgejimenez/Downloads/Donkey Kong (JU).nes"
+		// "/Users/jorgejimenez/Downloads/Donkey Kong.nes"
+		// "/Users/jorgejimenez/Downloads/Ice Climber.nes"
+		// "/Users/jorgejimenez/Downloads/nestest.nes"
+		// "/Users/jorgejimenez/Downloads/official_only.nes"
+		// "/Users/jorgejimenez/Downloads/1942 (PC10).nes"
+		this("/Users/jorgejimenez/Downloads/Super Mario Bros..nes");
+	}
+
+	public NesRunner(String filename) {
+		this.filename = filename;
+		rom = RomImage.load(filename);
+		cart = new Cartridge(rom);
 		ppu = new PPU2C02(cart);
 		bus = new Bus(ppu);
 		cpu = new CPU6502(bus);
 
 		cpu.reset();
+		scheduler = new Scheduler(cpu, ppu, bus);
 	}
 
 	public void clock() {
@@ -31,27 +53,17 @@ public class NesRunner {
 
 		if (systemClock % 3 == 0) {
 
-			if (bus.dmaTranfer) {
-				if (bus.dmaDummy) {
-					if (systemClock % 2 == 1) {
-						bus.dmaDummy = false;
-					}
-				} else {
-					if (systemClock % 2 == 0) {
-						bus.dmaData = bus.cpuRead((bus.dmaPage << 8) | bus.dmaAddr, false);
-						bus.dmaData &= 0xff;
-					} else {
-						ppu.OAM[bus.dmaAddr] = bus.dmaData & 0xff;
-						bus.dmaAddr++;
-						bus.dmaAddr &= 0xff;
-						if (bus.dmaAddr == 0x00) {
-							bus.dmaTranfer = false;
-							bus.dmaDummy = true;
-						}
-
-					}
-				}
+			// The DMA is copied on its first cycle, the cpu sits out the rest.
+			if (dmaCycles == 0 && bus.isDmaPending())
+				dmaCycles = bus.oamDma(systemClock / 3);
+
+			if (dmaCycles > 0) {
+				dmaCycles--;
 			} else {
+				// The mapper's IRQ line is level triggered, it is taken between
+				// instructions as soon as the cpu doesn't mask it.
+				if (cpu.complete() && cart.irq())
+					cpu.IRQ();
 				cpu.clock();
 			}
 			// cpu.toString();
@@ -64,6 +76,111 @@ public class NesRunner {
 			cpu.NMI();
 		}
 		systemClock++;
+
+		// The PPU's flag is left for the caller, it is how tick-mode loops see
+		// a frame end. The count is followed whether or not rewind or the
+		// profiler are on, so turning either on later doesn't end a frame early.
+		if (ppu.getFrameCount() != lastFrameCount) {
+			lastFrameCount = ppu.getFrameCount();
+			endFrame();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Runs a whole frame through the {@code Scheduler}, letting the cpu run ahead
+	 * of the PPU. Use either this or {@link #clock()} on a runner, not both.
+	 * </p>
+	 * 
+	 * <p>
+	 * With run-ahead on, the frame is run with the output off, then the machine
+	 * runs {@link #getRunAhead()} more frames with the same input, draws the last
+	 * one and goes back to the state after the real frame. The screen shows what
+	 * the game will draw that many frames from now, hiding the frames games take
+	 * to react to the controller.
+	 * </p>
+	 */
+	public void runFrame() {
+		long start = System.nanoTime();
+
+		if (runAhead == 0) {
+			stepFrame();
+			endFrame();
+
+			frameTime = System.nanoTime() - start;
+			runAheadTime = 0;
+			return;
+		}
+
+		ppu.setOutputEnabled(false);
+		stepFrame();
+		endFrame();
+		long real = System.nanoTime();
+
+		runAheadState.clear();
+		saveState(runAheadState);
+
+		for (int i = 1; i < runAhead; i++) {
+			stepFrame();
+		}
+		ppu.setOutputEnabled(true);
+		stepFrame();
+
+		runAheadState.flip();
+		loadState(runAheadState);
+
+		long end = System.nanoTime();
+		frameTime = end - start;
+		runAheadTime = end - real;
+	}
+
+	// Runs one frame, nothing else.
+	private void stepFrame() {
+		scheduler.runFrame();
+		systemClock = (int) scheduler.getClock();
+	}
+
+	// After every real frame, not the ones run ahead.
+	private void endFrame() {
+		if (CpuProfiler.ENABLED)
+			cpu.getProfiler().frame();
+		if (rewind != null)
+			rewind.record();
+	}
+
+	public int getRunAhead() {
+		return runAhead;
+	}
+
+	/**
+	 * <p>
+	 * Sets how many frames {@link #runFrame()} runs ahead, 0 to turn run-ahead
+	 * off. Use as many frames as the game takes to show a button press, usually
+	 * 1 or 2; more than that shows frames that didn't happen.
+	 * </p>
+	 * 
+	 * @param frames
+	 */
+	public void setRunAhead(int frames) {
+		if (frames < 0)
+			throw new IllegalArgumentException("Run-ahead can't be negative.");
+		runAhead = frames;
+	}
+
+	/**
+	 * @return The host time, in nanoseconds, the last {@link #runFrame()} took.
+	 */
+	public long getFrameTime() {
+		return frameTime;
+	}
+
+	/**
+	 * @return The part of {@link #getFrameTime()}, in nanoseconds, spent running
+	 *         ahead: saving, the frames run ahead and loading. 0 with run-ahead
+	 *         off.
+	 */
+	public long getRunAheadTime() {
+		return runAheadTime;
 	}
 
 	public CPU6502 getCpu() {
@@ -82,13 +199,108 @@ public class NesRunner {
 		return bus;
 	}
 
+	public Rewind getRewind() {
+		return rewind;
+	}
+
+	/**
+	 * <p>
+	 * Records every frame from now on so it can be stepped back with
+	 * {@link Rewind#stepBack()}. Passing <code>null</code> stops recording.
+	 * </p>
+	 * 
+	 * @param rewind
+	 */
+	public void setRewind(Rewind rewind) {
+		this.rewind = rewind;
+	}
+
+	/**
+	 * <p>
+	 * Writes the whole machine to the buffer, in the format described by
+	 * {@link SaveState}. Must be called between frames (or clocks), never from
+	 * inside the cpu. Use {@link SaveState#allocate()} for a buffer that is
+	 * always big enough; the state is written from the buffer's position on.
+	 * </p>
+	 * 
+	 * @param buffer
+	 */
+	public void saveState(ByteBuffer buffer) {
+		buffer.putInt(SaveState.MAGIC);
+		buffer.putShort((short) SaveState.VERSION);
+		String hash = rom.getHash();
+		for (int i = 0; i < hash.length(); i++) {
+			buffer.put((byte) hash.charAt(i));
+		}
+
+		buffer.putInt(systemClock);
+		buffer.putShort((short) dmaCycles);
+		cpu.saveState(buffer);
+		ppu.saveState(buffer);
+		bus.saveState(buffer);
+		cart.saveState(buffer);
+		scheduler.saveState(buffer);
+	}
+
+	/**
+	 * <p>
+	 * Puts the machine back in a state written by {@link #saveState(ByteBuffer)}.
+	 * The state must have been saved while running the same game.
+	 * </p>
+	 * 
+	 * @param buffer
+	 * @throws IllegalArgumentException
+	 *             If the buffer doesn't hold a state of this version or of this
+	 *             game.
+	 */
+	public void loadState(ByteBuffer buffer) {
+		if (buffer.getInt() != SaveState.MAGIC)
+			throw new IllegalArgumentException("Not a save state.");
+		if (buffer.getShort() != SaveState.VERSION)
+			throw new IllegalArgumentException("Unsupported save state version.");
+
+		String hash = rom.getHash();
+		boolean sameGame = true;
+		for (int i = 0; i < hash.length(); i++) {
+			sameGame &= buffer.get() == (byte) hash.charAt(i);
+		}
+		if (!sameGame)
+			throw new IllegalArgumentException("The save state is of another game.");
+
+		systemClock = buffer.getInt();
+		dmaCycles = buffer.getShort();
+		cpu.loadState(buffer);
+		ppu.loadState(buffer);
+		bus.loadState(buffer);
+		cart.loadState(buffer);
+		scheduler.loadState(buffer);
+		lastFrameCount = ppu.getFrameCount();
+	}
+
+	/**
+	 * <p>
+	 * Powers the system back on with the same game. The ROM is not read again,
+	 * and the palette, render mode and cpu core are kept.
+	 * </p>
+	 */
 	public void reset() {
-		cart = new Cartridge(filename);
+		Palette palette = ppu.getPalette();
+		CPU6502.Core core = cpu.getCore();
+		cart = new Cartridge(rom);
+		cart.setRenderMode(ppu.getRenderMode());
 		ppu = new PPU2C02(cart);
+		ppu.setPalette(palette);
 		bus = new Bus(ppu);
 		cpu = new CPU6502(bus);
+		cpu.setCore(core);
 
 		cpu.reset();
+		scheduler = new Scheduler(cpu, ppu, bus);
+		systemClock = 0;
+		dmaCycles = 0;
+		lastFrameCount = 0;
 
+		if (rewind != null)
+			rewind.clear();
 	}
 }
@@ -0,0 +1,242 @@
+package cpu;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * <p>
+ * Turns a trace written by a {@code TraceRecorder} into the nestest log
+ * format, to diff it against nestest.log or another emulator's log:
+ * </p>
+ *
+ * <pre>
+ * C000  4C F5 C5  JMP $C5F5                       A:00 X:00 Y:00 P:24 SP:FD PPU:  0, 21 CYC:7
+ * </pre>
+ *
+ * <p>
+ * The trace doesn't keep the memory the instructions touched, so the
+ * <code>= 00</code> values nestest.log prints after the operands are left
+ * out. The pre-render scanline is printed as 261. Traces without a PPU have no
+ * PPU column.
+ * </p>
+ *
+ * <pre>
+ * NestestLog trace [log]      writes to stdout without a log file
+ * </pre>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class NestestLog {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private final Instruction[][] instructions;
+	private final StringBuilder line = new StringBuilder(100);
+
+	private NestestLog() {
+		// A cpu on an empty bus, only for its instruction table.
+		instructions = new CPU6502(new Bus(new byte[0x10000])).instructions;
+	}
+
+	/**
+	 * <p>
+	 * Writes the log of a trace.
+	 * </p>
+	 *
+	 * @param trace
+	 * @param out
+	 * @return The number of instructions in the trace.
+	 * @throws IOException
+	 */
+	public static long export(Path trace, Writer out) throws IOException {
+		NestestLog log = new NestestLog();
+		long count = 0;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(trace), 1 << 16))) {
+			if (in.readInt() != TraceRecorder.MAGIC)
+				throw new IllegalArgumentException("Not a trace: " + trace);
+			int version = in.readInt();
+			if (version != TraceRecorder.VERSION)
+				throw new IllegalArgumentException("Unsupported trace version " + version + ".");
+
+			byte[] record = new byte[TraceRecorder.RECORD_SIZE];
+			while (true) {
+				try {
+					in.readFully(record);
+				} catch (EOFException e) {
+					break;
+				}
+				out.append(log.format(record)).append('\n');
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// Formats one record, without the line break.
+	private CharSequence format(byte[] r) {
+		int pc = ((r[0] & 0xff) << 8) | (r[1] & 0xff);
+		int opcode = r[2] & 0xff;
+		int lo = r[3] & 0xff;
+		int hi = r[4] & 0xff;
+		int dot = ((r[10] & 0xff) << 24) | ((r[11] & 0xff) << 16) | ((r[12] & 0xff) << 8) | (r[13] & 0xff);
+		int cycles = ((r[14] & 0xff) << 24) | ((r[15] & 0xff) << 16) | ((r[16] & 0xff) << 8) | (r[17] & 0xff);
+
+		Instruction instruction = instructions[opcode >> 4][opcode & 0x0f];
+		int length = (instruction != null) ? instruction.bytes : 1;
+
+		line.setLength(0);
+		hex(pc, 4);
+		line.append("  ");
+		hex(opcode, 2);
+		line.append(' ');
+		if (length > 1)
+			hex(lo, 2);
+		else
+			line.append("  ");
+		line.append(' ');
+		if (length > 2)
+			hex(hi, 2);
+		else
+			line.append("  ");
+		line.append("  ");
+
+		int column = line.length();
+		line.append((instruction != null) ? instruction.name : "???");
+		operand(instruction, opcode, pc, lo, hi);
+		while (line.length() < column + 32) {
+			line.append(' ');
+		}
+
+		line.append("A:");
+		hex(r[5], 2);
+		line.append(" X:");
+		hex(r[6], 2);
+		line.append(" Y:");
+		hex(r[7], 2);
+		line.append(" P:");
+		hex(r[8], 2);
+		line.append(" SP:");
+		hex(r[9], 2);
+
+		if (dot >= 0) {
+			int scanline = 261;
+			if (dot >= 341) {
+				scanline = (dot - 340) / 341;
+				dot = (dot - 340) % 341;
+			}
+			line.append(" PPU:");
+			pad(scanline);
+			line.append(',');
+			pad(dot);
+		}
+
+		line.append(" CYC:").append(cycles);
+		return line;
+	}
+
+	private void operand(Instruction instruction, int opcode, int pc, int lo, int hi) {
+		if (instruction == null || instruction.modeName == null)
+			return;
+
+		switch (instruction.modeName) {
+			case "immediate" :
+				line.append(" #$");
+				hex(lo, 2);
+				break;
+			case "zeroPage" :
+				line.append(" $");
+				hex(lo, 2);
+				break;
+			case "zeroPageX" :
+				line.append(" $");
+				hex(lo, 2);
+				line.append(",X");
+				break;
+			case "zeroPageY" :
+				line.append(" $");
+				hex(lo, 2);
+				line.append(",Y");
+				break;
+			case "absolute" :
+				line.append(" $");
+				hex((hi << 8) | lo, 4);
+				break;
+			case "absoluteX" :
+				line.append(" $");
+				hex((hi << 8) | lo, 4);
+				line.append(",X");
+				break;
+			case "absoluteY" :
+				line.append(" $");
+				hex((hi << 8) | lo, 4);
+				line.append(",Y");
+				break;
+			case "indirect" :
+				line.append(" ($");
+				hex((hi << 8) | lo, 4);
+				line.append(')');
+				break;
+			case "indirectX" :
+				line.append(" ($");
+				hex(lo, 2);
+				line.append(",X)");
+				break;
+			case "indirectY" :
+				line.append(" ($");
+				hex(lo, 2);
+				line.append("),Y");
+				break;
+			case "relative" :
+				line.append(" $");
+				hex((pc + 2 + (byte) lo) & 0xffff, 4);
+				break;
+			case "implied" :
+				// ASL, ROL, LSR and ROR on the accumulator.
+				if ((opcode & 0x9f) == 0x0a)
+					line.append(" A");
+				break;
+			default :
+				break;
+		}
+	}
+
+	private void hex(int n, int digits) {
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+			line.append(HEX[(n >> shift) & 0x0f]);
+		}
+	}
+
+	// Right aligned in 3 columns.
+	private void pad(int n) {
+		if (n < 100)
+			line.append(' ');
+		if (n < 10)
+			line.append(' ');
+		line.append(n);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: NestestLog trace [log]");
+			return;
+		}
+
+		Writer out = (args.length > 1) ? Files.newBufferedWriter(Paths.get(args[1]))
+				: new BufferedWriter(new OutputStreamWriter(System.out));
+		try {
+			export(Paths.get(args[0]), out);
+		} finally {
+			out.close();
+		}
+	}
+}
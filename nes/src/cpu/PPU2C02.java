@@ -1,11 +1,9 @@
 package cpu;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
-import PixelEngine.Pixel;
 import cpu.Cartridge.NametableMirror;
-//import nesPixelEngine.Sprite;
-import usingSlickTest.Sprite;
 
 /**
  * <p>
@@ -26,6 +24,24 @@ import usingSlickTest.Sprite;
  */
 public class PPU2C02 {
 
+	/**
+	 * <p>
+	 * How the PPU draws the visible scanlines. <code>DOT</code> runs the fetches,
+	 * shifters and sprite multiplexing on every dot like the hardware does.
+	 * <code>SCANLINE</code> draws a whole scanline in one pass on its first dot
+	 * and keeps the register visible timing (vertical blank, NMI, sprite zero hit
+	 * and the scroll updates) on the same dots. It is much faster but does not
+	 * see changes made in the middle of a scanline, so games that do raster
+	 * tricks mid-scanline should use <code>DOT</code>.
+	 * </p>
+	 * 
+	 * @author jorgejimenez
+	 *
+	 */
+	public static enum RenderMode {
+		DOT, SCANLINE;
+	}
+
 	// •–––––––––––––––––––––––––––•
 	// | OAM
 	// •–––––––––––––––––––––––––––•
@@ -35,6 +51,8 @@ public class PPU2C02 {
 
 	public int[] spriteShifterPatternLo = new int[8];
 	public int[] spriteShifterPatternHi = new int[8];
+	// The same rows packed by the TileCache, for SCANLINE mode.
+	private final int[] spritePatternRow = new int[8];
 	private boolean spriteZeroHitPossible = false;
 	private boolean spriteZeroBeingRendered = false;
 
@@ -50,13 +68,51 @@ public class PPU2C02 {
 	// | RENDERING
 	// | STUFF
 	// o-------------------------o
-	private final Pixel[] colorPallet = new Pixel[0x3F + 1];
-	private Sprite screen;
-	private Sprite[] patternTblScreen = {new Sprite(128, 128), new Sprite(128, 128)};
-	private Sprite nameTableScreen;
-
-	public static int PIXEL_SIZE = 1;
-	private int pixelSize = PPU2C02.PIXEL_SIZE;
+	public static final int SCREEN_WIDTH = 256;
+	public static final int SCREEN_HEIGHT = 240;
+
+	// The colors of the NES palette, the table of them for the emphasis bits
+	// in PPUMASK and the mask its grayscale bit puts on a color.
+	private Palette colorPallet = Palette.DEFAULT;
+	private int[] colors = colorPallet.table(0);
+	private int grayscale = 0x3f;
+	// The ARGB color of every palette RAM entry, kept up to date on palette
+	// and PPUMASK writes so drawing a pixel is a single lookup.
+	private final int[] paletteColors = new int[32];
+	// One ARGB int per pixel, row by row. Reused for every frame.
+	private final int[] screen = new int[SCREEN_WIDTH * SCREEN_HEIGHT];
+	private final int[][] patternTblScreen = {new int[128 * 128], new int[128 * 128]};
+
+	private RenderMode renderMode;
+	// Whether pixels are written to the screen. Hidden frames, e.g. the ones run
+	// ahead, only need the side effects.
+	private boolean output = true;
+
+	// The scanline being drawn in SCANLINE mode. Background entries hold
+	// (palette << 2) | pixel. Sprite entries also hold the priority and whether
+	// the pixel is from sprite zero.
+	private final int[] bgScanline = new int[SCREEN_WIDTH];
+	private final int[] fgScanline = new int[SCREEN_WIDTH];
+	private static final int FG_PRIORITY = 0x20;
+	private static final int FG_SPRITE_ZERO = 0x40;
+	// The dot the sprite zero hit happens on in SCANLINE mode, or -1.
+	private int spriteZeroHitCycle = -1;
+
+	// The dot A12 of the pattern fetches rises on, once per scanline after the
+	// MMC3's filter, or -1 when it doesn't: 260 when sprites come from $1000,
+	// 324 when only the background does. Only depends on PPUCTRL and PPUMASK.
+	private int counterDot = -1;
+
+	// Whether the cpu or the cartridge changed anything the background fetches
+	// use since the first two tiles of the next scanline were fetched (dot 321).
+	// Until it is cleared there, run() draws the scanline dot by dot.
+	private boolean prefetchTouched = true;
+	// In DOT mode run() draws a scanline nothing touched on its first dot. Then
+	// until dot 256 the dots only fetch, and while frozen they do nothing at
+	// all: the fetches and shifts are left as they were on the first dot and
+	// done when the scanline thaws, on dot 233 or when something is touched.
+	private boolean drawnAhead = false;
+	private boolean frozen = false;
 
 	// o-------------------------o
 	// | PPU RENDERING
@@ -100,12 +156,16 @@ public class PPU2C02 {
 
 	// Reference to the cartridge.
 	private Cartridge cart;
+	private TileCache tiles;
 
 	// •––––––––––––––––––––––––•
 	// | PPU RAM
 	// •––––––––––––––––––––––––•
 	private int[][] patternTable;
 	private int[][] nametable;
+	// The bank behind each nametable, $2000, $2400, $2800 and $2C00. Rebuilt
+	// only when the mirroring changes.
+	private final int[][] nametables = new int[4][];
 	private int[] palletRam;
 
 	private int scanline = 0;
@@ -120,16 +180,18 @@ public class PPU2C02 {
 
 	public PPU2C02(Cartridge cart) {
 
-		// this.screen = screen;
-		screen = new Sprite(0, 0, 256 * pixelSize, 240 * pixelSize);
-
 		// patternTable = new int[0x2000];
 		// nametable = new int[0x400 * 4];
 		patternTable = new int[2][4096];// for experimentation (j a v i d x9)
-		nametable = new int[2][1024];
+		// 2KB of VRAM, 4KB on four-screen boards.
+		nametable = new int[(cart.getMirroring() == NametableMirror.FOUR_SCREEN) ? 4 : 2][1024];
 		palletRam = new int[32];
 
 		this.cart = cart;
+		cart.connect(this);
+		mirroringChanged();
+		this.tiles = cart.getTileCache();
+		this.renderMode = cart.getRenderMode();
 
 		// Initiate the PPU I/O registers
 		status = new PPUIO.Status();
@@ -139,7 +201,7 @@ public class PPU2C02 {
 		loopyV = new PPUIO.loopyReg();
 
 		status.set(0);
-		createColorPallet();
+		maskChanged();
 
 	}
 
@@ -174,6 +236,7 @@ public class PPU2C02 {
 			case PPUADDR :
 				break;
 			case PPUDATA :
+				touch();
 				data = ppuDataBuffer;
 				ppuDataBuffer = ppuRead(loopyV.register, false);
 
@@ -196,16 +259,20 @@ public class PPU2C02 {
 	 */
 	public void cpuWrite(int addr, int data) {
 		// TODO Auto-generated method stub
+		touch();
 		switch (addr) {
 			case PPUCTRL :
 				control.set(data);
 
 				loopyT.nametableX(control.nametableX());
 				loopyT.nametableY(control.nametableY());
+				counterDotChanged();
 				// control.setEnableNMI(true);
 				break;
 			case PPUMASK :
 				mask.set(data);
+				maskChanged();
+				counterDotChanged();
 				break;
 			case PPUSTATUS :
 				break;
@@ -274,46 +341,7 @@ public class PPU2C02 {
 		}
 
 		if (addr >= 0x2000 && addr <= 0x3eff) {
-
-			addr &= 0x0fff;
-
-			if (cart.getMirroring() == NametableMirror.VERTICAL) {
-				if (addr >= 0x0000 && addr <= 0x03ff) {
-					data = nametable[0][addr & 0x03ff];
-					return data;
-				}
-				if (addr >= 0x0400 && addr <= 0x07ff) {
-					data = nametable[1][addr & 0x03ff];
-					return data;
-				}
-				if (addr >= 0x0800 && addr <= 0x0bff) {
-					data = nametable[0][addr & 0x03ff];
-					return data;
-				}
-				if (addr >= 0x0c00 && addr <= 0x0fff) {
-					data = nametable[1][addr & 0x03ff];
-					return data;
-				}
-
-			} else if (cart.getMirroring() == NametableMirror.HORIZONTAL) {
-				if (addr >= 0x0000 && addr <= 0x03ff) {
-					data = nametable[0][addr & 0x03ff];
-					return data;
-				}
-				if (addr >= 0x0400 && addr <= 0x07ff) {
-					data = nametable[0][addr & 0x03ff];
-					return data;
-				}
-				if (addr >= 0x0800 && addr <= 0x0bff) {
-					data = nametable[1][addr & 0x03ff];
-					return data;
-				}
-				if (addr >= 0x0c00 && addr <= 0x0fff) {
-					data = nametable[1][addr & 0x03ff];
-					return data;
-				}
-
-			}
+			return nametableRead(addr);
 		}
 
 		if (addr >= 0x3f00 && addr <= 0x3fff) {
@@ -358,42 +386,7 @@ public class PPU2C02 {
 
 		if (addr >= 0x2000 && addr <= 0x3eff) {
 
-			addr &= 0x0fff;
-			int top = (addr & 0x03ff) + 1; // DEBUG:
-
-			if (cart.getMirroring() == NametableMirror.VERTICAL) {
-				if (addr >= 0x0000 && addr <= 0x03ff) {
-					nametable[0][addr & 0x03ff] = data;
-					return;
-				}
-				if (addr >= 0x0400 && addr <= 0x07ff) {
-					nametable[1][addr & 0x03ff] = data;
-					return;
-				}
-				if (addr >= 0x0800 && addr <= 0x0bff) {
-					nametable[0][addr & 0x03ff] = data;
-					return;
-				}
-				if (addr >= 0x0c00 && addr <= 0x0fff) {
-					nametable[1][addr & 0x03ff] = data;
-					return;
-				}
-
-			} else if (cart.getMirroring() == NametableMirror.HORIZONTAL) {
-				if (addr >= 0x0000 && addr <= 0x03ff) {
-					nametable[0][addr & 0x03ff] = data;
-				}
-				if (addr >= 0x0400 && addr <= 0x07ff) {
-					nametable[0][addr & 0x03ff] = data;
-				}
-				if (addr >= 0x0800 && addr <= 0x0bff) {
-					nametable[1][addr & 0x03ff] = data;
-				}
-				if (addr >= 0x0c00 && addr <= 0x0fff) {
-					nametable[1][addr & 0x03ff] = data;
-				}
-			}
-			// Hexdump.print(0, top, nametable[0]);
+			nametables[(addr >> 10) & 3][addr & 0x03ff] = data;
 			return;
 		}
 
@@ -408,12 +401,58 @@ public class PPU2C02 {
 			if (addr == 0x001c)
 				addr = 0x000c;
 			palletRam[addr] = data;
+			paletteColors[addr] = colors[data & grayscale];
 			return;
 		}
 	}
 
+	/**
+	 * <p>
+	 * Reads a nametable or attribute byte. Cartridges never map $2000-$3EFF, so
+	 * the background fetches come straight here instead of going through
+	 * {@link #ppuRead(int, boolean)}.
+	 * </p>
+	 * 
+	 * @param addr
+	 *            Only the low 12 bits count.
+	 * @return
+	 */
+	private int nametableRead(int addr) {
+		return nametables[(addr >> 10) & 3][addr & 0x03ff];
+	}
+
+	/**
+	 * <p>
+	 * Called before the cpu writes to the cartridge, which can switch CHR banks
+	 * or the mirroring under the scanline being drawn.
+	 * </p>
+	 */
+	void cartridgeWrite() {
+		touch();
+	}
+
+	/**
+	 * <p>
+	 * Points the four nametables at the banks the cartridge's mirroring uses.
+	 * Called by the {@code Cartridge} whenever the mirroring changes.
+	 * </p>
+	 */
+	void mirroringChanged() {
+		touch();
+		NametableMirror mirroring = cart.getMirroring();
+		for (int i = 0; i < 4; i++) {
+			// Without the extra VRAM four-screen wraps to the 2KB there is.
+			nametables[i] = nametable[mirroring.bank(i) % nametable.length];
+		}
+	}
+
 	public void clock() {
 
+		if (renderMode == RenderMode.SCANLINE) {
+			clockScanline();
+			return;
+		}
+
 		if (scanline >= -1 && scanline < 240) {
 
 			if (scanline == 0 && cycle == 0) {
@@ -432,53 +471,12 @@ public class PPU2C02 {
 
 			}
 
-			if ((cycle >= 2 && cycle < 258) || (cycle >= 321 && cycle < 338)) {
-
-				updateShifters();
-				// System.out.println("pixel: " + (cycle - 1) % 8);
-				switch ((cycle - 1) % 8) {
-					case 0 :
-						loadBackgroundShifters();
-						bgNextTileId = ppuRead(0x2000 | (loopyV.register & 0x0fff), false);
-						break;
-					case 2 :
-						// int nametableY = loopyV.nametableY();
-						// int nametableX = loopyV.nametableX();
-
-						bgNextTileAttbr = ppuRead(0x23c0 | (loopyV.nametableY() << 11) | (loopyV.nametableX() << 10)
-								| ((loopyV.coarseY() >> 2) << 3) | (loopyV.coarseX() >> 2), false);
-
-						if ((loopyV.coarseY() & 0x02) == 0x02)
-							bgNextTileAttbr >>= 4;
-						if ((loopyV.coarseX() & 0x02) == 0x02)
-							bgNextTileAttbr >>= 2;
-						bgNextTileAttbr &= 0x03;
-						break;
-					case 4 :
-						int i = 0;
-						bgNextTileLsb = ppuRead(
-								(control.patternBackground() << 12) + (bgNextTileId << 4) + (loopyV.fineY()) + 0,
-								false);
-						// bgNextTileMsb =
-						// this.patternTable[control.patternBackground()][
-						// (bgNextTileId << 4) + (loopyV.fineY()) + 0];
-						break;
-
-					case 6 :
-						i = 0;
-						bgNextTileMsb = ppuRead(
-								(control.patternBackground() << 12) + (bgNextTileId << 4) + (loopyV.fineY()) + 8,
-								false);
-
-						// bgNextTileMsb =
-						// this.patternTable[control.patternBackground()][
-						// (bgNextTileId << 4) + (loopyV.fineY()) + 8];
-						break;
+			if (cycle == 321) {
+				prefetchTouched = false;
+			}
 
-					case 7 :
-						incrementScrollX();
-						break;
-				}
+			if ((cycle >= 2 && cycle < 258) || (cycle >= 321 && cycle < 338)) {
+				fetchBackground();
 			}
 
 			if (cycle == 256) {
@@ -490,7 +488,7 @@ public class PPU2C02 {
 			}
 
 			if (cycle == 338 || cycle == 340) {
-				bgNextTileId = ppuRead(0x2000 | (loopyV.register & 0x0fff), false);
+				bgNextTileId = nametableRead(loopyV.register);
 			}
 
 			if (scanline == -1 && cycle >= 280 && cycle < 305) {
@@ -498,126 +496,31 @@ public class PPU2C02 {
 
 			}
 
+			if (cycle == counterDot) {
+				cart.scanline();
+			}
+
 			// Foreground
 
 			if (cycle == 257 && scanline >= 0) {
-
-				Arrays.fill(spriteScanline, 0xff);
-				for (int i = 0; i < 8; i++) {
-					spriteShifterPatternLo[i] = 0;
-					spriteShifterPatternHi[i] = 0;
-				}
-				spriteCount = 0;
-				int spriteSize = (control.spriteSize() == 1) ? 16 : 8;
-				int OAMEntry = 0;
-				spriteZeroHitPossible = false;
-				// Hexdump.print(4, this.spriteScanline);
-				while (OAMEntry < 64 && spriteCount < 9) {
-
-					int diff = scanline - OAM[OAMEntry * 4 + 0];
-
-					if (diff >= 0 && diff < spriteSize) {
-
-						if (spriteCount < 8) {
-							spriteZeroHitPossible = OAMEntry == 0;
-							spriteScanline[spriteCount * 4 + 0] = OAM[OAMEntry * 4 + 0];
-							spriteScanline[spriteCount * 4 + 1] = OAM[OAMEntry * 4 + 1];
-							spriteScanline[spriteCount * 4 + 2] = OAM[OAMEntry * 4 + 2];
-							spriteScanline[spriteCount * 4 + 3] = OAM[OAMEntry * 4 + 3];
-							spriteCount++;
-						}
-
-					}
-					OAMEntry++;
-				}
-				// if (spriteCount > 3)
-				// Hexdump.print(4, this.spriteScanline);
-				status.setSpriteOveflow(spriteCount > 8);
+				evaluateSprites();
 			}
 
 			if (cycle == 340) {
-
-				for (int i = 0; i < spriteCount; i++) {
-					int spritePatternBitsLo;
-					int spritePatternBitsHi;
-					int spritePatternAddrLo;
-					int spritePatternAddrHi;
-
-					if (control.spriteSize() == 0) {
-						// 8x8
-						// check the attribute byte.
-						if ((spriteScanline[i * 4 + 2] & 0x80) == 0) {
-							// normal flip horizontal
-							spritePatternAddrLo = (control.patternSprite() << 12) | (spriteScanline[i * 4 + 1] << 4)
-									| (scanline - spriteScanline[i * 4 + 0]);
-						} else {
-							// flip vertically
-							spritePatternAddrLo = (control.patternSprite() << 12) | (spriteScanline[i * 4 + 1] << 4)
-									| (7 - (scanline - spriteScanline[i * 4 + 0]));
-						}
-
-					} else {
-						// 8x16
-						if ((spriteScanline[i * 4 + 2] & 0x80) == 0) {
-							// normal
-							if ((scanline - spriteScanline[i * 4 + 0]) < 8) {
-								spritePatternAddrLo = ((spriteScanline[i * 4 + 1] & 0x01) << 12)
-										| ((spriteScanline[i * 4 + 1] & 0xfe) << 4)
-										| ((scanline - spriteScanline[i * 4 + 0]) & 0x07);
-							} else {
-								spritePatternAddrLo = ((spriteScanline[i * 4 + 1] & 0x01) << 12)
-										| (((spriteScanline[i * 4 + 1] & 0xfe) + 1) << 4)
-										| ((scanline - spriteScanline[i * 4 + 0]) & 0x07);
-							}
-						} else {
-							// verticall flip
-							if ((scanline - spriteScanline[i * 4 + 0]) < 8) {
-								spritePatternAddrLo = ((spriteScanline[i * 4 + 1] & 0x01) << 12)
-										| (((spriteScanline[i * 4 + 1] & 0xfe) + 1) << 4)
-										| (7 - (scanline - spriteScanline[i * 4 + 0]) & 0x07);
-							} else {
-								spritePatternAddrLo = ((spriteScanline[i * 4 + 1] & 0x01) << 12)
-										| ((spriteScanline[i * 4 + 1] & 0xfe) << 4)
-										| (7 - (scanline - spriteScanline[i * 4 + 0]) & 0x07);
-							}
-						}
-					} // END OF ADDR CONDITIONS
-
-					spritePatternAddrHi = spritePatternAddrLo + 8;
-					spritePatternBitsLo = ppuRead(spritePatternAddrLo, false);
-					spritePatternBitsHi = ppuRead(spritePatternAddrHi, false);
-
-					if ((spriteScanline[i * 4 + 2] & 0x40) == 0x40) {
-						spritePatternBitsLo = flipByte(spritePatternBitsLo);
-						spritePatternBitsHi = flipByte(spritePatternBitsHi);
-					}
-
-					spriteShifterPatternLo[i] = spritePatternBitsLo;
-					spriteShifterPatternHi[i] = spritePatternBitsHi;
-					// System.out.println("low byte: " +
-					// Hexdump.printHexPadded(spritePatternBitsLo, 4));
-					// System.out.println("low byte: " +
-					// Hexdump.printHexPadded(spritePatternBitsHi, 4));
-				} // END OF FOR LOOP
+				loadSpritePatterns();
 			}
 		}
 
-		if (scanline == 240) {
-
+		if (scanline == 241 && cycle == 1) {
+			startVerticalBlank();
 		}
 
-		if (scanline >= 241 && scanline < 261) {
-			if (scanline == 241 && cycle == 1) {
-
-				status.setVerticalBlank(true);
-
-				if (control.enableNMI() == 1) {
-					nmi = true;
-				}
-
-			}
-		}
+		drawPixel();
+		nextDot();
+	}
 
+	// The pixel of the dot, from the shifters.
+	private void drawPixel() {
 		int bgPixel = 0x00;
 		int bgPalette = 0x00;
 		if (mask.renderBackground() == 1) {
@@ -709,8 +612,533 @@ public class PPU2C02 {
 
 		int x = cycle - 1;
 		int y = scanline;
-		screen.fillRect(x * pixelSize, y * pixelSize, pixelSize, pixelSize, getColorFromPalette(palette, pixel));
+		if (output && x >= 0 && x < SCREEN_WIDTH && y >= 0 && y < SCREEN_HEIGHT) {
+			// Palette RAM is read directly: a pixel of 0 always uses palette 0, so
+			// the mirrors at $3F10/$3F14/$3F18/$3F1C are never hit here.
+			screen[y * SCREEN_WIDTH + x] = paletteColors[(palette << 2) | pixel];
+		}
+	}
+
+	// The background fetches and shifts of one dot, for dots 2 to 257 and 321
+	// to 337.
+	private void fetchBackground() {
+		updateShifters();
+		// System.out.println("pixel: " + (cycle - 1) % 8);
+		switch ((cycle - 1) % 8) {
+			case 0 :
+				loadBackgroundShifters();
+				bgNextTileId = nametableRead(loopyV.register);
+				break;
+			case 2 :
+				// int nametableY = loopyV.nametableY();
+				// int nametableX = loopyV.nametableX();
+
+				bgNextTileAttbr = nametableRead(0x03c0 | (loopyV.nametableY() << 11) | (loopyV.nametableX() << 10)
+						| ((loopyV.coarseY() >> 2) << 3) | (loopyV.coarseX() >> 2));
+
+				if ((loopyV.coarseY() & 0x02) == 0x02)
+					bgNextTileAttbr >>= 4;
+				if ((loopyV.coarseX() & 0x02) == 0x02)
+					bgNextTileAttbr >>= 2;
+				bgNextTileAttbr &= 0x03;
+				break;
+			case 4 :
+				int i = 0;
+				bgNextTileLsb = ppuRead(
+						(control.patternBackground() << 12) + (bgNextTileId << 4) + (loopyV.fineY()) + 0,
+						false);
+				// bgNextTileMsb =
+				// this.patternTable[control.patternBackground()][
+				// (bgNextTileId << 4) + (loopyV.fineY()) + 0];
+				break;
+
+			case 6 :
+				i = 0;
+				bgNextTileMsb = ppuRead(
+						(control.patternBackground() << 12) + (bgNextTileId << 4) + (loopyV.fineY()) + 8,
+						false);
+
+				// bgNextTileMsb =
+				// this.patternTable[control.patternBackground()][
+				// (bgNextTileId << 4) + (loopyV.fineY()) + 8];
+				break;
+
+			case 7 :
+				incrementScrollX();
+				break;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Clocks the PPU for a number of dots, as many calls to {@link #clock()}
+	 * would. In <code>DOT</code> mode a visible scanline nothing has touched
+	 * since its first tiles were fetched is drawn in one pass on its first dot,
+	 * and its dots up to 256 only do what the cpu can see or the dots after them
+	 * use. If the cpu changes something before dot 256, the rest of the scanline
+	 * is drawn dot by dot. Stretches of dots that only draw off the screen, in
+	 * horizontal and vertical blank, take one step.
+	 * </p>
+	 * 
+	 * @param dots
+	 */
+	public void run(int dots) {
+		while (dots > 0) {
+			if (frozen) {
+				int skip = Math.min(dots, 233 - cycle);
+				if (spriteZeroHitCycle >= cycle && spriteZeroHitCycle < cycle + skip) {
+					status.setSpriteZeroHit(true);
+					spriteZeroHitCycle = -1;
+				}
+				dots -= skip;
+				if (cycle + skip == 233)
+					thaw(233);
+				else
+					cycle += skip;
+				continue;
+			}
+
+			if (drawnAhead) {
+				if (cycle == spriteZeroHitCycle) {
+					status.setSpriteZeroHit(true);
+					spriteZeroHitCycle = -1;
+				}
+				fetchBackground();
+				if (cycle == 256) {
+					incrementScrollY();
+					drawnAhead = false;
+					spriteZeroDrawn(256);
+				}
+				cycle++;
+				dots--;
+				continue;
+			}
+
+			if (renderMode == RenderMode.DOT) {
+				int idle = Math.min(idleDots(), dots);
+				if (idle > 0) {
+					skipIdle(idle);
+					dots -= idle;
+					continue;
+				}
+			}
 
+			if (cycle == 0 && scanline >= 0 && scanline < 240 && !prefetchTouched && renderMode == RenderMode.DOT) {
+				drawAhead();
+				// Scanline 0 skips dot 0.
+				if (scanline != 0)
+					dots--;
+				continue;
+			}
+
+			clock();
+			dots--;
+		}
+	}
+
+	// How many dots from this one on clock() would only draw the same pixel over
+	// and over, off the screen: 258 to 320 of the rendered scanlines, and the
+	// scanlines after them but for where vertical blank starts.
+	private int idleDots() {
+		if (scanline < 240)
+			return (cycle >= 258 && cycle <= 320) ? 321 - cycle : 0;
+		return (cycle >= 2) ? 341 - cycle : 0;
+	}
+
+	// Clocks that many idle dots: the pixel is drawn once, and the scroll and the
+	// mapper's counter are done once if one of the dots does them.
+	private void skipIdle(int dots) {
+		int last = cycle + dots - 1;
+		if (scanline < 240) {
+			if (scanline == -1 && cycle < 305 && last >= 280)
+				transferAddressY();
+			if (counterDot >= cycle && counterDot <= last)
+				cart.scanline();
+		}
+
+		drawPixel();
+		cycle = last;
+		nextDot();
+	}
+
+	// Draws the scanline on dot 0 and freezes it.
+	private void drawAhead() {
+		// The tiles in the shifters were fetched two tiles before loopyV.
+		int coarseX = loopyV.coarseX();
+		int nametableX = loopyV.nametableX();
+		if (mask.renderBackground() == 1) {
+			coarseX -= 2;
+			if (coarseX < 0) {
+				coarseX += 32;
+				nametableX ^= 1;
+			}
+		}
+
+		drawScanline(coarseX, nametableX);
+		drawnAhead = true;
+		frozen = true;
+		cycle = 1;
+	}
+
+	/**
+	 * <p>
+	 * Does what a frozen scanline skipped, up to the given dot: the tile
+	 * increments and the sprite counters are worked out, the last 24 dots of
+	 * fetches and shifts are done, which is all the background shifters still
+	 * hold.
+	 * </p>
+	 * 
+	 * @param until
+	 *            The dot the scanline goes on from.
+	 */
+	private void thaw(int until) {
+		frozen = false;
+		int from = Math.max(2, until - 24);
+
+		// Dots 8, 16, ... before from.
+		for (int i = 0; i < (from - 1) / 8; i++) {
+			incrementScrollX();
+		}
+
+		// Each dot from 2 on counts a sprite's x down, then shifts its pattern.
+		int updates = from - 2;
+		if (mask.renderSprites() == 1 && updates > 0) {
+			for (int i = 0; i < spriteCount; i++) {
+				int x = spriteScanline[i * 4 + 3];
+				if (x >= updates) {
+					spriteScanline[i * 4 + 3] = x - updates;
+					continue;
+				}
+				int shifts = updates - x;
+				spriteScanline[i * 4 + 3] = 0;
+				spriteShifterPatternLo[i] = (shifts < 32) ? spriteShifterPatternLo[i] << shifts : 0;
+				spriteShifterPatternHi[i] = (shifts < 32) ? spriteShifterPatternHi[i] << shifts : 0;
+			}
+		}
+
+		for (int dot = from; dot < until; dot++) {
+			cycle = dot;
+			fetchBackground();
+		}
+		cycle = until;
+	}
+
+	// Leaves spriteZeroBeingRendered as clock() would after the dot, of a
+	// scanline drawn ahead.
+	private void spriteZeroDrawn(int dot) {
+		if (mask.renderSprites() == 1 && dot >= 1)
+			spriteZeroBeingRendered = (fgScanline[dot - 1] & FG_SPRITE_ZERO) != 0;
+	}
+
+	// Something the scanline being drawn uses is about to change.
+	private void touch() {
+		prefetchTouched = true;
+		if (!drawnAhead)
+			return;
+
+		if (frozen)
+			thaw(cycle);
+		drawnAhead = false;
+		spriteZeroDrawn(cycle - 1);
+		// If it hasn't happened yet, clock() finds it again.
+		spriteZeroHitCycle = -1;
+	}
+
+	/**
+	 * <p>
+	 * One dot in <code>SCANLINE</code> mode. Visible scanlines are drawn on their
+	 * first dot; the rest of the dots only do what the cpu can see.
+	 * </p>
+	 */
+	private void clockScanline() {
+
+		if (scanline >= -1 && scanline < 240) {
+
+			if (scanline == 0 && cycle == 0) {
+				cycle = 1;
+			}
+
+			if (scanline == -1 && cycle == 1) {
+				status.setVerticalBlank(false);
+				status.setSpriteZeroHit(false);
+				status.setSpriteOveflow(false);
+
+				for (int i = 0; i < 8; i++) {
+					spriteShifterPatternLo[i] = 0;
+					spriteShifterPatternHi[i] = 0;
+				}
+			}
+
+			if (scanline >= 0 && cycle == 1) {
+				drawScanline(loopyV.coarseX(), loopyV.nametableX());
+			}
+
+			if (cycle == spriteZeroHitCycle) {
+				status.setSpriteZeroHit(true);
+				spriteZeroHitCycle = -1;
+			}
+
+			// The scroll register is only updated where the cpu can tell. The
+			// horizontal tile increments are not kept since they are undone by the
+			// copy from loopyT on dot 257.
+			if (cycle == 256) {
+				incrementScrollY();
+			}
+
+			if (cycle == 257) {
+				transferAddressX();
+				if (scanline >= 0) {
+					evaluateSprites();
+				} else if (mask.renderSprites() == 1) {
+					// Nothing picks sprites on the pre-render scanline, so the ones from
+					// scanline 239 count down to x = 0 and show up there on scanline 0.
+					for (int i = 0; i < spriteCount; i++) {
+						spriteScanline[i * 4 + 3] = 0;
+					}
+				}
+			}
+
+			if (scanline == -1 && cycle >= 280 && cycle < 305) {
+				transferAddressY();
+			}
+
+			if (cycle == counterDot) {
+				cart.scanline();
+			}
+
+			if (cycle == 340) {
+				loadSpritePatterns();
+			}
+		}
+
+		if (scanline == 241 && cycle == 1) {
+			startVerticalBlank();
+		}
+
+		nextDot();
+	}
+
+	/**
+	 * <p>
+	 * Draws the current scanline in one pass from the scroll register, the
+	 * sprites picked on the last scanline and the palette, the same way the
+	 * <code>DOT</code> mode would if nothing changed during the scanline. Works
+	 * out the dot of the sprite zero hit, if there is one.
+	 * </p>
+	 * 
+	 * @param coarseX
+	 *            The tile column of the first tile, fine x scrolls from there.
+	 * @param nametableX
+	 */
+	private void drawScanline(int coarseX, int nametableX) {
+		spriteZeroHitCycle = -1;
+
+		// Background, 33 tiles since fine x can push the row 7 pixels to the left.
+		Arrays.fill(bgScanline, 0);
+		if (mask.renderBackground() == 1) {
+			int coarseY = loopyV.coarseY();
+			int nametableY = loopyV.nametableY();
+			int fineY = loopyV.fineY();
+			int patternTable = control.patternBackground() << 12;
+
+			for (int tile = 0; tile < 33; tile++) {
+				int tileId = nametableRead((nametableY << 11) | (nametableX << 10) | (coarseY << 5) | coarseX);
+
+				int attribute = nametableRead(0x03c0 | (nametableY << 11) | (nametableX << 10) | ((coarseY >> 2) << 3)
+						| (coarseX >> 2));
+				if ((coarseY & 0x02) == 0x02)
+					attribute >>= 4;
+				if ((coarseX & 0x02) == 0x02)
+					attribute >>= 2;
+				attribute &= 0x03;
+
+				int tileRow = tiles.row(patternTable + (tileId << 4) + fineY);
+
+				for (int col = 0; col < 8; col++) {
+					int x = tile * 8 + col - fineX;
+					if (x < 0 || x >= SCREEN_WIDTH)
+						continue;
+
+					int pixel = (tileRow >> ((7 - col) << 1)) & 0x03;
+					if (pixel != 0)
+						bgScanline[x] = (attribute << 2) | pixel;
+				}
+
+				if (coarseX == 31) {
+					coarseX = 0;
+					nametableX ^= 1;
+				} else {
+					coarseX++;
+				}
+			}
+		}
+
+		// Sprites, back to front so the lowest slot ends up on top.
+		Arrays.fill(fgScanline, 0);
+		if (mask.renderSprites() == 1) {
+			for (int i = spriteCount - 1; i >= 0; i--) {
+				int spriteX = spriteScanline[i * 4 + 3];
+				int attribute = spriteScanline[i * 4 + 2];
+				int entry = (((attribute & 0x03) + 0x04) << 2) | (((attribute & 0x20) == 0) ? FG_PRIORITY : 0)
+						| ((i == 0) ? FG_SPRITE_ZERO : 0);
+
+				int spriteRow = spritePatternRow[i];
+
+				for (int col = 0; col < 8; col++) {
+					int x = spriteX + col;
+					if (x >= SCREEN_WIDTH)
+						break;
+
+					int pixel = (spriteRow >> ((7 - col) << 1)) & 0x03;
+					if (pixel != 0)
+						fgScanline[x] = entry | pixel;
+				}
+			}
+		}
+
+		int row = scanline * SCREEN_WIDTH;
+		for (int x = 0; x < SCREEN_WIDTH; x++) {
+			int bg = bgScanline[x];
+			int fg = fgScanline[x];
+			int color = bg;
+
+			if (fg != 0) {
+				if (bg == 0 || (fg & FG_PRIORITY) != 0)
+					color = fg & 0x1f;
+
+				if (bg != 0 && (fg & FG_SPRITE_ZERO) != 0 && spriteZeroHitPossible && spriteZeroHitCycle == -1)
+					spriteZeroHitCycle = x + 1;
+			}
+
+			if (output)
+				screen[row + x] = paletteColors[color];
+		}
+	}
+
+	// O---------------------------#
+	// | HELPER FUNCTIONS
+	// O---------------------------#
+
+	// Picks the first 8 sprites on the scanline from OAM.
+	private void evaluateSprites() {
+		Arrays.fill(spriteScanline, 0xff);
+		for (int i = 0; i < 8; i++) {
+			spriteShifterPatternLo[i] = 0;
+			spriteShifterPatternHi[i] = 0;
+		}
+		spriteCount = 0;
+		int spriteSize = (control.spriteSize() == 1) ? 16 : 8;
+		int OAMEntry = 0;
+		spriteZeroHitPossible = false;
+		// Hexdump.print(4, this.spriteScanline);
+		while (OAMEntry < 64 && spriteCount < 9) {
+
+			int diff = scanline - OAM[OAMEntry * 4 + 0];
+
+			if (diff >= 0 && diff < spriteSize) {
+
+				if (spriteCount < 8) {
+					spriteZeroHitPossible = OAMEntry == 0;
+					spriteScanline[spriteCount * 4 + 0] = OAM[OAMEntry * 4 + 0];
+					spriteScanline[spriteCount * 4 + 1] = OAM[OAMEntry * 4 + 1];
+					spriteScanline[spriteCount * 4 + 2] = OAM[OAMEntry * 4 + 2];
+					spriteScanline[spriteCount * 4 + 3] = OAM[OAMEntry * 4 + 3];
+					spriteCount++;
+				}
+
+			}
+			OAMEntry++;
+		}
+		// if (spriteCount > 3)
+		// Hexdump.print(4, this.spriteScanline);
+		status.setSpriteOveflow(spriteCount > 8);
+	}
+
+	// Fetches the pattern rows of the sprites picked for the next scanline.
+	private void loadSpritePatterns() {
+		for (int i = 0; i < spriteCount; i++) {
+			int spritePatternBitsLo;
+			int spritePatternBitsHi;
+			int spritePatternAddrLo;
+			int spritePatternAddrHi;
+
+			if (control.spriteSize() == 0) {
+				// 8x8
+				// check the attribute byte.
+				if ((spriteScanline[i * 4 + 2] & 0x80) == 0) {
+					// normal flip horizontal
+					spritePatternAddrLo = (control.patternSprite() << 12) | (spriteScanline[i * 4 + 1] << 4)
+							| (scanline - spriteScanline[i * 4 + 0]);
+				} else {
+					// flip vertically
+					spritePatternAddrLo = (control.patternSprite() << 12) | (spriteScanline[i * 4 + 1] << 4)
+							| (7 - (scanline - spriteScanline[i * 4 + 0]));
+				}
+
+			} else {
+				// 8x16
+				if ((spriteScanline[i * 4 + 2] & 0x80) == 0) {
+					// normal
+					if ((scanline - spriteScanline[i * 4 + 0]) < 8) {
+						spritePatternAddrLo = ((spriteScanline[i * 4 + 1] & 0x01) << 12)
+								| ((spriteScanline[i * 4 + 1] & 0xfe) << 4)
+								| ((scanline - spriteScanline[i * 4 + 0]) & 0x07);
+					} else {
+						spritePatternAddrLo = ((spriteScanline[i * 4 + 1] & 0x01) << 12)
+								| (((spriteScanline[i * 4 + 1] & 0xfe) + 1) << 4)
+								| ((scanline - spriteScanline[i * 4 + 0]) & 0x07);
+					}
+				} else {
+					// verticall flip
+					if ((scanline - spriteScanline[i * 4 + 0]) < 8) {
+						spritePatternAddrLo = ((spriteScanline[i * 4 + 1] & 0x01) << 12)
+								| (((spriteScanline[i * 4 + 1] & 0xfe) + 1) << 4)
+								| (7 - (scanline - spriteScanline[i * 4 + 0]) & 0x07);
+					} else {
+						spritePatternAddrLo = ((spriteScanline[i * 4 + 1] & 0x01) << 12)
+								| ((spriteScanline[i * 4 + 1] & 0xfe) << 4)
+								| (7 - (scanline - spriteScanline[i * 4 + 0]) & 0x07);
+					}
+				}
+			} // END OF ADDR CONDITIONS
+
+			// The sprites on the pre-render scanline can point outside the pattern
+			// tables, those are left to ppuRead.
+			if (renderMode == RenderMode.SCANLINE && (spritePatternAddrLo & 0x3fff) < 0x2000) {
+				spritePatternRow[i] = ((spriteScanline[i * 4 + 2] & 0x40) == 0x40)
+						? tiles.flippedRow(spritePatternAddrLo)
+						: tiles.row(spritePatternAddrLo);
+				continue;
+			}
+
+			spritePatternAddrHi = spritePatternAddrLo + 8;
+			spritePatternBitsLo = ppuRead(spritePatternAddrLo, false);
+			spritePatternBitsHi = ppuRead(spritePatternAddrHi, false);
+
+			if ((spriteScanline[i * 4 + 2] & 0x40) == 0x40) {
+				spritePatternBitsLo = flipByte(spritePatternBitsLo);
+				spritePatternBitsHi = flipByte(spritePatternBitsHi);
+			}
+
+			spriteShifterPatternLo[i] = spritePatternBitsLo;
+			spriteShifterPatternHi[i] = spritePatternBitsHi;
+			spritePatternRow[i] = TileCache.packRow(spritePatternBitsLo, spritePatternBitsHi);
+			// System.out.println("low byte: " +
+			// Hexdump.printHexPadded(spritePatternBitsLo, 4));
+			// System.out.println("low byte: " +
+			// Hexdump.printHexPadded(spritePatternBitsHi, 4));
+		} // END OF FOR LOOP
+	}
+
+	private void startVerticalBlank() {
+		status.setVerticalBlank(true);
+
+		if (control.enableNMI() == 1) {
+			nmi = true;
+		}
+	}
+
+	private void nextDot() {
 		cycle++;
 		if (cycle >= 341) {
 
@@ -725,13 +1153,8 @@ public class PPU2C02 {
 				setFrameComplete(true);
 			}
 		}
-
 	}
 
-	// O---------------------------#
-	// | HELPER FUNCTIONS
-	// O---------------------------#
-
 	private void incrementScrollX() {
 		if (mask.renderBackground() == 1 || mask.renderSprites() == 1) {
 			if (loopyV.coarseX() == 31) {
@@ -832,10 +1255,150 @@ public class PPU2C02 {
 		}
 	}
 
+	// O---------------------------#
+	// | SAVE STATES
+	// O---------------------------#
+
+	/**
+	 * <p>
+	 * Writes the OAM, the nametables, the palette, the registers, the loopy
+	 * registers, the background and sprite shifters and where the PPU is in the
+	 * frame. The frame buffer isn't saved, the next frame draws all of it again.
+	 * The pattern tables aren't either, the cartridge always maps $0000-$1FFF.
+	 * </p>
+	 * 
+	 * @param buffer
+	 */
+	public void saveState(ByteBuffer buffer) {
+		SaveState.putBytes(buffer, OAM);
+		for (int[] bank : nametable) {
+			SaveState.putBytes(buffer, bank);
+		}
+		SaveState.putBytes(buffer, palletRam);
+
+		buffer.put((byte) status.register());
+		buffer.put((byte) mask.register());
+		buffer.put((byte) control.register());
+		buffer.putInt(loopyV.register);
+		buffer.putInt(loopyT.register);
+		buffer.put((byte) fineX);
+		buffer.put((byte) addressLatch);
+		buffer.put((byte) ppuDataBuffer);
+		SaveState.putBoolean(buffer, nmi);
+
+		// The shifters (and loopy V) aren't masked, keep every bit.
+		buffer.putInt(bgNextTileId);
+		buffer.putInt(bgNextTileAttbr);
+		buffer.putInt(bgNextTileLsb);
+		buffer.putInt(bgNextTileMsb);
+		buffer.putInt(bgShifterPatternLO);
+		buffer.putInt(bgShifterPatternHI);
+		buffer.putInt(bgShifterAttributeLO);
+		buffer.putInt(bgShifterAttributeHI);
+
+		SaveState.putBytes(buffer, spriteScanline);
+		buffer.put((byte) spriteCount);
+		SaveState.putInts(buffer, spriteShifterPatternLo);
+		SaveState.putInts(buffer, spriteShifterPatternHi);
+		SaveState.putInts(buffer, spritePatternRow);
+		SaveState.putBoolean(buffer, spriteZeroHitPossible);
+		SaveState.putBoolean(buffer, spriteZeroBeingRendered);
+		buffer.putShort((short) spriteZeroHitCycle);
+
+		buffer.putShort((short) scanline);
+		buffer.putShort((short) cycle);
+		SaveState.putBoolean(buffer, frameComplete);
+		SaveState.putBoolean(buffer, scanlineComplete);
+		buffer.putInt(frameCount);
+	}
+
+	public void loadState(ByteBuffer buffer) {
+		SaveState.getBytes(buffer, OAM);
+		for (int[] bank : nametable) {
+			SaveState.getBytes(buffer, bank);
+		}
+		SaveState.getBytes(buffer, palletRam);
+
+		status.set(buffer.get() & 0xff);
+		mask.set(buffer.get() & 0xff);
+		maskChanged();
+		control.set(buffer.get() & 0xff);
+		counterDotChanged();
+		loopyV.register(buffer.getInt());
+		loopyT.register(buffer.getInt());
+		fineX = buffer.get() & 0xff;
+		addressLatch = buffer.get() & 0xff;
+		ppuDataBuffer = buffer.get() & 0xff;
+		nmi = SaveState.getBoolean(buffer);
+
+		bgNextTileId = buffer.getInt();
+		bgNextTileAttbr = buffer.getInt();
+		bgNextTileLsb = buffer.getInt();
+		bgNextTileMsb = buffer.getInt();
+		bgShifterPatternLO = buffer.getInt();
+		bgShifterPatternHI = buffer.getInt();
+		bgShifterAttributeLO = buffer.getInt();
+		bgShifterAttributeHI = buffer.getInt();
+
+		SaveState.getBytes(buffer, spriteScanline);
+		spriteCount = buffer.get() & 0xff;
+		SaveState.getInts(buffer, spriteShifterPatternLo);
+		SaveState.getInts(buffer, spriteShifterPatternHi);
+		SaveState.getInts(buffer, spritePatternRow);
+		spriteZeroHitPossible = SaveState.getBoolean(buffer);
+		spriteZeroBeingRendered = SaveState.getBoolean(buffer);
+		spriteZeroHitCycle = buffer.getShort();
+
+		scanline = buffer.getShort();
+		cycle = buffer.getShort();
+		frameComplete = SaveState.getBoolean(buffer);
+		scanlineComplete = SaveState.getBoolean(buffer);
+		frameCount = buffer.getInt();
+		prefetchTouched = true;
+		drawnAhead = false;
+		frozen = false;
+	}
+
 	// O---------------------------#
 	// | GETTERS & SETTERS
 	// O---------------------------#
 
+	public RenderMode getRenderMode() {
+		return renderMode;
+	}
+
+	/**
+	 * <p>
+	 * Switches between drawing dot by dot and scanline by scanline. The switch
+	 * takes effect on the next dot; going back to <code>DOT</code> is always
+	 * safe.
+	 * </p>
+	 * 
+	 * @param renderMode
+	 */
+	public void setRenderMode(RenderMode renderMode) {
+		touch();
+		this.renderMode = renderMode;
+		spriteZeroHitCycle = -1;
+	}
+
+	public boolean isOutputEnabled() {
+		return output;
+	}
+
+	/**
+	 * <p>
+	 * Turns off writing pixels to the screen for frames nobody will see. The
+	 * registers, sprite zero hits and everything else the cpu can see behave
+	 * the same; the screen keeps the last frame drawn with output on.
+	 * </p>
+	 * 
+	 * @param output
+	 */
+	public void setOutputEnabled(boolean output) {
+		this.output = output;
+	}
+
 	public int getTileId() {
 		return bgNextTileId;
 	}
@@ -856,7 +1419,17 @@ public class PPU2C02 {
 		return cycle;
 	}
 
-	public Sprite getScreen() {
+	/**
+	 * <p>
+	 * The frame buffer the PPU draws into, {@link #SCREEN_WIDTH} by
+	 * {@link #SCREEN_HEIGHT} ARGB ints stored row by row. The same array is
+	 * reused for every frame, so it should be read (or copied) once the frame is
+	 * complete.
+	 * </p>
+	 * 
+	 * @return
+	 */
+	public int[] getScreen() {
 		return screen;
 	}
 
@@ -868,11 +1441,21 @@ public class PPU2C02 {
 		this.frameComplete = frameComplete;
 	}
 
-	public Sprite getPatternTblScreen(int i) {
+	public int[] getPatternTblScreen(int i) {
 		return patternTblScreen[i];
 	}
 
-	public Sprite drawPatternTblScreen(int i, int palette) {
+	/**
+	 * <p>
+	 * Draws pattern table {@code i} with the given palette into a 128 by 128
+	 * ARGB buffer.
+	 * </p>
+	 * 
+	 * @param i
+	 * @param palette
+	 * @return
+	 */
+	public int[] drawPatternTblScreen(int i, int palette) {
 
 		// Get the tiles
 		for (int tileY = 0; tileY < 16; tileY++) {
@@ -882,18 +1465,13 @@ public class PPU2C02 {
 
 				// Get the pixels
 				for (int row = 0; row < 8; row++) {
-					// First plane
-					int tileLsb = ppuRead(i * 0x1000 + offset + row, false);
-					// Second plane
-					int tileMsb = ppuRead(i * 0x1000 + offset + row + 8, false);
+					int tileRow = tiles.row(i * 0x1000 + offset + row);
 
 					for (int col = 0; col < 8; col++) {
-						int pixel = (tileLsb & 0x01) + (tileMsb & 0x01);
-						tileLsb >>= 1;
-						tileMsb >>= 1;
+						int pixel = (tileRow >> ((7 - col) << 1)) & 0x03;
 
-						patternTblScreen[i].fillRect((tileX * 8 + (7 - col)), (tileY * 8 + row), 1, 1,
-								getColorFromPalette(palette, pixel));
+						patternTblScreen[i][(tileY * 8 + row) * 128 + (tileX * 8 + col)] = getColorFromPalette(palette,
+								pixel);
 					}
 				}
 
@@ -903,15 +1481,11 @@ public class PPU2C02 {
 		return patternTblScreen[i];
 	}
 
-	public Pixel getColorFromPalette(int palette, int pixel) {
-		return colorPallet[ppuRead(0x3f00 + (palette << 2) + pixel, false) & 0x3f];
+	public int getColorFromPalette(int palette, int pixel) {
+		return colors[ppuRead(0x3f00 + (palette << 2) + pixel, false) & grayscale];
 
 	}
 
-	public Sprite getNameTableScreen() {
-		return nameTableScreen;
-	}
-
 	public int[] getPatternMem(int i) {
 		return patternTable[i];
 	}
@@ -927,75 +1501,32 @@ public class PPU2C02 {
 	// •---------------------------------
 	// | COLOR PALETTE
 	// •---------------------------------
-	private void createColorPallet() {
-		colorPallet[0x00] = new Pixel(84, 84, 84);
-		colorPallet[0x01] = new Pixel(0, 30, 116);
-		colorPallet[0x02] = new Pixel(8, 16, 144);
-		colorPallet[0x03] = new Pixel(48, 0, 136);
-		colorPallet[0x04] = new Pixel(68, 0, 100);
-		colorPallet[0x05] = new Pixel(92, 0, 48);
-		colorPallet[0x06] = new Pixel(84, 4, 0);
-		colorPallet[0x07] = new Pixel(60, 24, 0);
-		colorPallet[0x08] = new Pixel(32, 42, 0);
-		colorPallet[0x09] = new Pixel(8, 58, 0);
-		colorPallet[0x0A] = new Pixel(0, 64, 0);
-		colorPallet[0x0B] = new Pixel(0, 60, 0);
-		colorPallet[0x0C] = new Pixel(0, 50, 60);
-		colorPallet[0x0D] = new Pixel(0, 0, 0);
-		colorPallet[0x0E] = new Pixel(0, 0, 0);
-		colorPallet[0x0F] = new Pixel(0, 0, 0);
-
-		colorPallet[0x10] = new Pixel(152, 150, 152);
-		colorPallet[0x11] = new Pixel(8, 76, 196);
-		colorPallet[0x12] = new Pixel(48, 50, 236);
-		colorPallet[0x13] = new Pixel(92, 30, 228);
-		colorPallet[0x14] = new Pixel(136, 20, 176);
-		colorPallet[0x15] = new Pixel(160, 20, 100);
-		colorPallet[0x16] = new Pixel(152, 34, 32);
-		colorPallet[0x17] = new Pixel(120, 60, 0);
-		colorPallet[0x18] = new Pixel(84, 90, 0);
-		colorPallet[0x19] = new Pixel(40, 114, 0);
-		colorPallet[0x1A] = new Pixel(8, 124, 0);
-		colorPallet[0x1B] = new Pixel(0, 118, 40);
-		colorPallet[0x1C] = new Pixel(0, 102, 120);
-		colorPallet[0x1D] = new Pixel(0, 0, 0);
-		colorPallet[0x1E] = new Pixel(0, 0, 0);
-		colorPallet[0x1F] = new Pixel(0, 0, 0);
-
-		colorPallet[0x20] = new Pixel(236, 238, 236);
-		colorPallet[0x21] = new Pixel(76, 154, 236);
-		colorPallet[0x22] = new Pixel(120, 124, 236);
-		colorPallet[0x23] = new Pixel(176, 98, 236);
-		colorPallet[0x24] = new Pixel(228, 84, 236);
-		colorPallet[0x25] = new Pixel(236, 88, 180);
-		colorPallet[0x26] = new Pixel(236, 106, 100);
-		colorPallet[0x27] = new Pixel(212, 136, 32);
-		colorPallet[0x28] = new Pixel(160, 170, 0);
-		colorPallet[0x29] = new Pixel(116, 196, 0);
-		colorPallet[0x2A] = new Pixel(76, 208, 32);
-		colorPallet[0x2B] = new Pixel(56, 204, 108);
-		colorPallet[0x2C] = new Pixel(56, 180, 204);
-		colorPallet[0x2D] = new Pixel(60, 60, 60);
-		colorPallet[0x2E] = new Pixel(0, 0, 0);
-		colorPallet[0x2F] = new Pixel(0, 0, 0);
-
-		colorPallet[0x30] = new Pixel(236, 238, 236);
-		colorPallet[0x31] = new Pixel(168, 204, 236);
-		colorPallet[0x32] = new Pixel(188, 188, 236);
-		colorPallet[0x33] = new Pixel(212, 178, 236);
-		colorPallet[0x34] = new Pixel(236, 174, 236);
-		colorPallet[0x35] = new Pixel(236, 174, 212);
-		colorPallet[0x36] = new Pixel(236, 180, 176);
-		colorPallet[0x37] = new Pixel(228, 196, 144);
-		colorPallet[0x38] = new Pixel(204, 210, 120);
-		colorPallet[0x39] = new Pixel(180, 222, 120);
-		colorPallet[0x3A] = new Pixel(168, 226, 144);
-		colorPallet[0x3B] = new Pixel(152, 226, 180);
-		colorPallet[0x3C] = new Pixel(160, 214, 228);
-		colorPallet[0x3D] = new Pixel(160, 162, 160);
-		colorPallet[0x3E] = new Pixel(0, 0, 0);
-		colorPallet[0x3F] = new Pixel(0, 0, 0);
 
+	public Palette getPalette() {
+		return colorPallet;
+	}
+
+	/**
+	 * <p>
+	 * Draws with another palette from now on, e.g. one read by
+	 * {@link Palette#load(java.nio.file.Path)}.
+	 * </p>
+	 * 
+	 * @param palette
+	 */
+	public void setPalette(Palette palette) {
+		colorPallet = palette;
+		maskChanged();
+	}
+
+	// Picks the table for the emphasis bits and the grayscale mask. Only called
+	// when PPUMASK is written.
+	private void maskChanged() {
+		colors = colorPallet.table((mask.register() >> 5) & 0x07);
+		grayscale = (mask.grayscale() == 1) ? 0x30 : 0x3f;
+		for (int i = 0; i < paletteColors.length; i++) {
+			paletteColors[i] = colors[palletRam[i] & grayscale];
+		}
 	}
 
 	public int getLoopyV() {
@@ -1006,6 +1537,28 @@ public class PPU2C02 {
 		return control.register();
 	}
 
+	/**
+	 * @return The dot of scanlines -1 to 239 the cartridge's scanline counter is
+	 *         clocked on, or -1 while it isn't.
+	 */
+	int getCounterDot() {
+		return counterDot;
+	}
+
+	// Rendering off leaves A12 low. With 8x16 sprites the empty slots fetch tile
+	// $FF from $1000, so A12 rises in the sprite fetches as with 8x8 sprites
+	// from $1000.
+	private void counterDotChanged() {
+		if (mask.renderBackground() == 0 && mask.renderSprites() == 0)
+			counterDot = -1;
+		else if (control.patternSprite() == 1 || control.spriteSize() == 1)
+			counterDot = 260;
+		else if (control.patternBackground() == 1)
+			counterDot = 324;
+		else
+			counterDot = -1;
+	}
+
 	public void connect(Bus bus) {
 		this.bus = bus;
 
@@ -1,148 +1,114 @@
 package cpu;
 
 /**
- * 
- * TODO: https://wiki.nesdev.com/w/index.php/PPU_registers#PPUMASK
- * 
+ * <p>
+ * The PPU registers. Each one is the int it is on the chip and nothing else:
+ * the getters and setters mask and shift their bits out of it, so they cost a
+ * couple of instructions and get inlined into {@code PPU2C02.clock()}.
+ * </p>
+ *
+ * <p>
+ * https://wiki.nesdev.com/w/index.php/PPU_registers
+ * </p>
+ *
  * @author jorgejimenez
  *
  */
 public class PPUIO {
 
+	// VSO- ----
 	public static class Status {
+		private static final int SPRITE_OVERFLOW = 5;
+		private static final int SPRITE_ZERO_HIT = 6;
+		private static final int VERTICAL_BLANK = 7;
+
 		private int register = 0;
-		private boolean spriteOveflow = false;
-		private boolean spriteZeroHit = false;
-		private boolean verticalBlank = false;
 
 		public void set(int data) {
-
-			if (data == 0) {
-				reset();
-				return;
-			}
-			spriteOveflow = getBitBool(5, data);
-			spriteZeroHit = getBitBool(6, data);
-			verticalBlank = getBitBool(7, data);
 			register = data;
 		}
 
-		private void reset() {
-			spriteOveflow = false;
-			spriteZeroHit = false;
-			verticalBlank = false;
-			register = 0;
-		}
-
 		public int register() {
 			return register;
 		}
 
 		public int spriteOveflow() {
-			return spriteOveflow ? 1 : 0;
+			return (register >> SPRITE_OVERFLOW) & 1;
 		}
 
 		public int spriteZeroHit() {
-			return spriteZeroHit ? 1 : 0;
+			return (register >> SPRITE_ZERO_HIT) & 1;
 		}
 
 		public int verticalBlank() {
-			return verticalBlank ? 1 : 0;
+			return (register >> VERTICAL_BLANK) & 1;
 		}
 
 		public void setSpriteOveflow(boolean spriteOveflow) {
-			this.spriteOveflow = spriteOveflow;
-			register = spriteOveflow ? setBit(register, 5) : clearBit(register, 5);
+			register = setBit(register, SPRITE_OVERFLOW, spriteOveflow);
 		}
 
 		public void setSpriteZeroHit(boolean spriteZeroHit) {
-			this.spriteZeroHit = spriteZeroHit;
-			register = spriteZeroHit ? setBit(register, 6) : clearBit(register, 6);
+			register = setBit(register, SPRITE_ZERO_HIT, spriteZeroHit);
 		}
 
 		public void setVerticalBlank(boolean verticalBlank) {
-			this.verticalBlank = verticalBlank;
-			register = verticalBlank ? setBit(register, 7) : clearBit(register, 7);
+			register = setBit(register, VERTICAL_BLANK, verticalBlank);
 		}
 
 	}
 
+	// BGRs bMmG
 	public static class Mask {
+		private static final int GRAYSCALE = 0;
+		private static final int RENDER_BACKGROUND_LEFT = 1;
+		private static final int RENDER_SPRITES_LEFT = 2;
+		private static final int RENDER_BACKGROUND = 3;
+		private static final int RENDER_SPRITES = 4;
+		private static final int EMPHASIZE_RED = 5;
+		private static final int EMPHASIZE_GREEN = 6;
+		private static final int EMPHASIZE_BLUE = 7;
+
 		private int register = 0;
-		private boolean grayscale = false;
-		private boolean renderBackgroundLeft = false;
-		private boolean renderSpritesLeft = false;
-		private boolean renderBackground = false;
-		private boolean renderSprites = false;
-		private boolean emphasizeRed = false;
-		private boolean emphasizeGreen = false;
-		private boolean emphasizeBlue = false;
 
 		public void set(int data) {
-
-			if (data == 0) {
-				reset();
-				return;
-			}
-
-			grayscale = getBitBool(0, data);
-			renderBackgroundLeft = getBitBool(1, data);
-			renderSpritesLeft = getBitBool(2, data);
-			renderBackground = getBitBool(3, data);
-			renderSprites = getBitBool(4, data);
-			emphasizeRed = getBitBool(5, data);
-			emphasizeGreen = getBitBool(6, data);
-			emphasizeBlue = getBitBool(7, data);
-
 			register = data;
 		}
 
-		private void reset() {
-			grayscale = false;
-			renderBackgroundLeft = false;
-			renderSpritesLeft = false;
-			renderBackground = false;
-			renderSprites = false;
-			emphasizeRed = false;
-			emphasizeGreen = false;
-			emphasizeBlue = false;
-			register = 0;
-		}
-
 		public int register() {
 			return register;
 		}
 
 		public int grayscale() {
-			return grayscale ? 1 : 0;
+			return (register >> GRAYSCALE) & 1;
 		}
 
 		public int renderBackgroundLeft() {
-			return renderBackgroundLeft ? 1 : 0;
+			return (register >> RENDER_BACKGROUND_LEFT) & 1;
 		}
 
 		public int renderSpritesLeft() {
-			return renderSpritesLeft ? 1 : 0;
+			return (register >> RENDER_SPRITES_LEFT) & 1;
 		}
 
 		public int renderBackground() {
-			return renderBackground ? 1 : 0;
+			return (register >> RENDER_BACKGROUND) & 1;
 		}
 
 		public int renderSprites() {
-			return renderSprites ? 1 : 0;
+			return (register >> RENDER_SPRITES) & 1;
 		}
 
 		public int emphasizeRed() {
-			return emphasizeRed ? 1 : 0;
+			return (register >> EMPHASIZE_RED) & 1;
 		}
 
 		public int emphasizeGreen() {
-			return emphasizeGreen ? 1 : 0;
+			return (register >> EMPHASIZE_GREEN) & 1;
 		}
 
 		public int emphasizeBlue() {
-			return emphasizeBlue ? 1 : 0;
+			return (register >> EMPHASIZE_BLUE) & 1;
 		}
 
 		public void setRegister(int register) {
@@ -150,71 +116,51 @@ public class PPUIO {
 		}
 
 		public void setGrayscale(boolean grayscale) {
-			this.grayscale = grayscale;
-			register = grayscale ? setBit(register, 0) : clearBit(register, 0);
+			register = setBit(register, GRAYSCALE, grayscale);
 		}
 
 		public void setRenderBackgroundLeft(boolean renderBackgroundLeft) {
-			this.renderBackgroundLeft = renderBackgroundLeft;
-			register = renderBackgroundLeft ? setBit(register, 1) : clearBit(register, 1);
+			register = setBit(register, RENDER_BACKGROUND_LEFT, renderBackgroundLeft);
 		}
 
 		public void setRenderSpritesLeft(boolean renderSpritesLeft) {
-			this.renderSpritesLeft = renderSpritesLeft;
-			register = renderSpritesLeft ? setBit(register, 2) : clearBit(register, 2);
+			register = setBit(register, RENDER_SPRITES_LEFT, renderSpritesLeft);
 		}
 
 		public void setRenderBackground(boolean renderBackground) {
-			this.renderBackground = renderBackground;
-			register = renderBackground ? setBit(register, 3) : clearBit(register, 3);
+			register = setBit(register, RENDER_BACKGROUND, renderBackground);
 		}
 
 		public void setRenderSprites(boolean renderSprites) {
-			this.renderSprites = renderSprites;
-			register = renderSprites ? setBit(register, 4) : clearBit(register, 4);
+			register = setBit(register, RENDER_SPRITES, renderSprites);
 		}
 
 		public void setEmphasizeRed(boolean emphasizeRed) {
-			this.emphasizeRed = emphasizeRed;
-			register = emphasizeRed ? setBit(register, 5) : clearBit(register, 5);
+			register = setBit(register, EMPHASIZE_RED, emphasizeRed);
 		}
 
 		public void setEmphasizeGreen(boolean emphasizeGreen) {
-			this.emphasizeGreen = emphasizeGreen;
-			register = emphasizeGreen ? setBit(register, 6) : clearBit(register, 6);
+			register = setBit(register, EMPHASIZE_GREEN, emphasizeGreen);
 		}
 
 		public void setEmphasizeBlue(boolean emphasizeBlue) {
-			this.emphasizeBlue = emphasizeBlue;
-			register = emphasizeBlue ? setBit(register, 7) : clearBit(register, 7);
+			register = setBit(register, EMPHASIZE_BLUE, emphasizeBlue);
 		}
 	}
 
+	// VPHB SINN
 	public static class Controller {
+		private static final int NAMETABLE_X = 0;
+		private static final int NAMETABLE_Y = 1;
+		private static final int INCREMENT_MODE = 2;
+		private static final int PATTERN_SPRITE = 3;
+		private static final int PATTERN_BACKGROUND = 4;
+		private static final int SPRITE_SIZE = 5;
+		private static final int ENABLE_NMI = 7;
+
 		private int register = 0;
-		private boolean nametableX = false;
-		private boolean nametableY = false;
-		private boolean incrementMode = false;
-		private boolean patternSprite = false;
-		private boolean patternBackground = false;
-		private boolean spriteSize = false;
-		private boolean enableNMI = false;
 
 		public void set(int data) {
-
-			if (data == 0) {
-				reset();
-				return;
-			}
-
-			nametableX = getBitBool(0, data);
-			nametableY = getBitBool(1, data);
-			incrementMode = getBitBool(2, data);
-			patternSprite = getBitBool(3, data);
-			patternBackground = getBitBool(4, data);
-			spriteSize = getBitBool(5, data);
-			enableNMI = getBitBool(7, data);
-
 			register = data;
 		}
 
@@ -222,48 +168,36 @@ public class PPUIO {
 
 		}
 
-		private void reset() {
-			nametableX = false;
-			nametableY = false;
-			incrementMode = false;
-			patternSprite = false;
-			patternBackground = false;
-			spriteSize = false;
-			enableNMI = false;
-			register = 0;
-
-		}
-
 		public int register() {
 			return register;
 		}
 
 		public int nametableX() {
-			return nametableX ? 1 : 0;
+			return (register >> NAMETABLE_X) & 1;
 		}
 
 		public int nametableY() {
-			return nametableY ? 1 : 0;
+			return (register >> NAMETABLE_Y) & 1;
 		}
 
 		public int incrementMode() {
-			return incrementMode ? 1 : 0;
+			return (register >> INCREMENT_MODE) & 1;
 		}
 
 		public int patternSprite() {
-			return patternSprite ? 1 : 0;
+			return (register >> PATTERN_SPRITE) & 1;
 		}
 
 		public int patternBackground() {
-			return patternBackground ? 1 : 0;
+			return (register >> PATTERN_BACKGROUND) & 1;
 		}
 
 		public int spriteSize() {
-			return spriteSize ? 1 : 0;
+			return (register >> SPRITE_SIZE) & 1;
 		}
 
 		public int enableNMI() {
-			return enableNMI ? 1 : 0;
+			return (register >> ENABLE_NMI) & 1;
 		}
 
 		public void setRegister(int register) {
@@ -271,42 +205,58 @@ public class PPUIO {
 		}
 
 		public void setNametableX(boolean nametableX) {
-			this.nametableX = nametableX;
-			register = nametableX ? setBit(register, 0) : clearBit(register, 0);
+			register = setBit(register, NAMETABLE_X, nametableX);
 		}
 
 		public void setNametableY(boolean nametableY) {
-			this.nametableY = nametableY;
-			register = nametableY ? setBit(register, 1) : clearBit(register, 1);
+			register = setBit(register, NAMETABLE_Y, nametableY);
 		}
 
 		public void setIncrementMode(boolean incrementMode) {
-			this.incrementMode = incrementMode;
-			register = incrementMode ? setBit(register, 2) : clearBit(register, 2);
+			register = setBit(register, INCREMENT_MODE, incrementMode);
 		}
 
 		public void setPatternSprite(boolean patternSprite) {
-			this.patternSprite = patternSprite;
-			register = patternSprite ? setBit(register, 3) : clearBit(register, 3);
+			register = setBit(register, PATTERN_SPRITE, patternSprite);
 		}
 
 		public void setPatternBackground(boolean patternBackground) {
-			this.patternBackground = patternBackground;
-			register = patternBackground ? setBit(register, 4) : clearBit(register, 4);
+			register = setBit(register, PATTERN_BACKGROUND, patternBackground);
 		}
 
 		public void setSpriteSize(boolean spriteSize) {
-			this.spriteSize = spriteSize;
-			register = spriteSize ? setBit(register, 5) : clearBit(register, 5);
+			register = setBit(register, SPRITE_SIZE, spriteSize);
 		}
 
 		public void setEnableNMI(boolean enableNMI) {
-			this.enableNMI = enableNMI;
-			register = enableNMI ? setBit(register, 7) : clearBit(register, 7);
+			register = setBit(register, ENABLE_NMI, enableNMI);
 		}
 	}
 
+	/**
+	 * <p>
+	 * Loopy V or T, the VRAM address and scroll.
+	 * </p>
+	 *
+	 * <pre>
+	 * yyy NN YYYYY XXXXX
+	 * ||| || ||||| +++++-- coarse X
+	 * ||| || +++++-------- coarse Y
+	 * ||| ++-------------- nametable X and Y
+	 * +++----------------- fine Y
+	 * </pre>
+	 *
+	 * <p>
+	 * The setters only touch their own bits, whatever is above bit 14 is kept.
+	 * </p>
+	 */
 	public static class loopyReg {
+		private static final int COARSE_X = 0x001f;
+		private static final int COARSE_Y = 0x03e0;
+		private static final int NAMETABLE_X = 0x0400;
+		private static final int NAMETABLE_Y = 0x0800;
+		private static final int FINE_Y = 0x7000;
+
 		public int register = 0;
 
 		public void register(int data) {
@@ -322,93 +272,43 @@ public class PPUIO {
 		}
 
 		public int coarseX() {
-			int coarseX = 0;
-
-			for (int i = 0; i < 5; i++) {
-				coarseX |= (getBit(i, register) << i);
-			}
-
-			return coarseX;
+			return register & COARSE_X;
 		}
 
 		public void coarseX(int data) {
-
-			register &= ~0b11111;
-			if (data == 0) {
-				return;
-			}
-
-			data &= 0x1f;
-			int c = 0;
-
-			for (int i = 0; i < 5; i++) {
-
-				c = (getBitBool(i, data)) ? setBit(c, i) : clearBit(c, i);
-
-			}
-
-			register |= c;
+			register = (register & ~COARSE_X) | (data & 0x1f);
 		}
 
 		public int coarseY() {
-			int coarseY = 0;
-
-			for (int i = 5; i < 10; i++) {
-				coarseY |= (getBit(i, register) << i - 5);
-			}
-
-			return coarseY;
+			return (register & COARSE_Y) >> 5;
 		}
 
 		public void coarseY(int data) {
-			register &= ~(0b11111 << 5);
-			if (data == 0) {
-				return;
-			}
-
-			data &= 0x1f;
-			int c = 0;
-
-			for (int i = 0; i < 5; i++) {
-
-				c = (getBitBool(i, data)) ? setBit(c, i + 5) : clearBit(c, i + 5);
-
-			}
-
-			register |= c;
+			register = (register & ~COARSE_Y) | ((data & 0x1f) << 5);
 		}
 
 		public int nametableX() {
-			return getBit(10, register);
+			return (register & NAMETABLE_X) >> 10;
 		}
 
 		public void nametableX(int data) {
-			data &= 1;
-			register = (data == 1) ? setBit(register, 10) : clearBit(register, 10);
+			register = (register & ~NAMETABLE_X) | ((data & 1) << 10);
 		}
 
 		public int nametableY() {
-			return getBit(11, register);
+			return (register & NAMETABLE_Y) >> 11;
 		}
 
 		public void nametableY(int data) {
-			data &= 1;
-
-			register = (data == 1) ? setBit(register, 11) : clearBit(register, 11);
+			register = (register & ~NAMETABLE_Y) | ((data & 1) << 11);
 		}
 
 		public void fineY(int data) {
-			register = (getBitBool(0, data)) ? setBit(register, 12) : clearBit(register, 12);
-			register = (getBitBool(1, data)) ? setBit(register, 13) : clearBit(register, 13);
-			register = (getBitBool(2, data)) ? setBit(register, 14) : clearBit(register, 14);
+			register = (register & ~FINE_Y) | ((data & 0x07) << 12);
 		}
 
 		public int fineY() {
-			int fineY = 0;
-			fineY |= getBit(12, register) << 0;
-			fineY |= getBit(13, register) << 1;
-			fineY |= getBit(14, register) << 2;
-			return fineY;
+			return (register & FINE_Y) >> 12;
 		}
 
 		@Override
@@ -421,50 +321,24 @@ public class PPUIO {
 	// | HELPERS
 	// •---------------------------
 
-	private static boolean getBitBool(int position, int value) {
-		return ((value >> position) & 1) == 1;
-	}
-
-	private static int getBit(int position, int value) {
-		return (value >> position) & 1;
-	}
-
-	private static int setBit(int value, int position) {
-		value |= 1 << position;
-		return value;
-	}
-
-	private static int clearBit(int value, int position) {
-		value &= ~(1 << position);
-		return value;
-
+	private static int setBit(int value, int position, boolean on) {
+		return (value & ~(1 << position)) | ((on ? 1 : 0) << position);
 	}
 
 	public static void main(String[] arg) {
 		loopyReg v = new loopyReg();
 
-//		v.register(0b1110_1011_1111);
-//
-//		System.out.println((~0b11111));
-//		System.out.println(v.register & (~0b11111));
-//		System.out.println(v.register & ~(((1 << (6 - 1)) - 1) ^ ((1 << (10)) - 1)));
 		v.register(0b10_00000_00010);
 
 		System.out.println(v);
 		printBinary(v.register);
 
-//		v.fineY(0b100);
-
-//		printBinary(v.register);
 		printBinary(v.fineY());
 		System.out.println(v.fineY());
-//		System.out.println(v.nametableX());
-//		System.out.println(v.nametableY());
-
 	}
 
 	private static void printBinary(int i) {
 		System.out.println(Integer.toBinaryString(i));
 
 	}
-}
\ No newline at end of file
+}
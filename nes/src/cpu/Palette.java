@@ -0,0 +1,159 @@
+package cpu;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * The ARGB colors of the 64 NES colors under each of the 8 combinations of the
+ * PPUMASK emphasis bits, as 8 tables of 64 ints. The {@code PPU2C02} picks one
+ * table when PPUMASK is written, so a pixel is a single lookup.
+ * </p>
+ *
+ * <p>
+ * Every emphasis bit darkens the other two colors, so with more than one bit
+ * set they add up; the black columns ($xE and $xF) stay black. A palette
+ * loaded from a <code>.pal</code> file of 64 colors gets its emphasis tables
+ * computed the same way; a file of 512 colors already has them, in emphasis
+ * order.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public final class Palette {
+
+	// How much emphasis darkens the other channels.
+	private static final double ATTENUATION = 0.816328;
+
+	// NTSC: bit 5 of PPUMASK emphasizes red, bit 6 green and bit 7 blue.
+	private static final int EMPHASIZE_RED = 1;
+	private static final int EMPHASIZE_GREEN = 2;
+	private static final int EMPHASIZE_BLUE = 4;
+
+	// R, G, B of every color, $00 to $3F.
+	private static final int[] RGB = {
+			84, 84, 84, 0, 30, 116, 8, 16, 144, 48, 0, 136,
+			68, 0, 100, 92, 0, 48, 84, 4, 0, 60, 24, 0,
+			32, 42, 0, 8, 58, 0, 0, 64, 0, 0, 60, 0,
+			0, 50, 60, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+			152, 150, 152, 8, 76, 196, 48, 50, 236, 92, 30, 228,
+			136, 20, 176, 160, 20, 100, 152, 34, 32, 120, 60, 0,
+			84, 90, 0, 40, 114, 0, 8, 124, 0, 0, 118, 40,
+			0, 102, 120, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+			236, 238, 236, 76, 154, 236, 120, 124, 236, 176, 98, 236,
+			228, 84, 236, 236, 88, 180, 236, 106, 100, 212, 136, 32,
+			160, 170, 0, 116, 196, 0, 76, 208, 32, 56, 204, 108,
+			56, 180, 204, 60, 60, 60, 0, 0, 0, 0, 0, 0,
+			236, 238, 236, 168, 204, 236, 188, 188, 236, 212, 178, 236,
+			236, 174, 236, 236, 174, 212, 236, 180, 176, 228, 196, 144,
+			204, 210, 120, 180, 222, 120, 168, 226, 144, 152, 226, 180,
+			160, 214, 228, 160, 162, 160, 0, 0, 0, 0, 0, 0
+	};
+
+	/**
+	 * The palette the PPU starts with.
+	 */
+	public static final Palette DEFAULT = fromRgb(toBytes(RGB));
+
+	// (emphasis << 6) | color.
+	private final int[][] tables = new int[8][64];
+
+	private Palette() {
+	}
+
+	/**
+	 * <p>
+	 * Reads a <code>.pal</code> file: 64 or 512 colors of 3 bytes each, red,
+	 * green and blue.
+	 * </p>
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             If the file isn't 192 or 1536 bytes long.
+	 */
+	public static Palette load(Path file) throws IOException {
+		byte[] rgb = Files.readAllBytes(file);
+		if (rgb.length != 64 * 3 && rgb.length != 512 * 3)
+			throw new IllegalArgumentException("A palette has 64 or 512 colors, " + file + " has " + rgb.length
+					+ " bytes.");
+		return fromRgb(rgb);
+	}
+
+	/**
+	 * @param emphasis
+	 *            The emphasis bits of PPUMASK, 0 to 7.
+	 * @return The 64 colors under that emphasis. Not a copy.
+	 */
+	int[] table(int emphasis) {
+		return tables[emphasis];
+	}
+
+	/**
+	 * @param emphasis
+	 *            The emphasis bits of PPUMASK, 0 to 7.
+	 * @param color
+	 *            $00 to $3F.
+	 * @return The ARGB color.
+	 */
+	public int color(int emphasis, int color) {
+		return tables[emphasis & 7][color & 0x3f];
+	}
+
+	// O---------------------------#
+	// | HELPER FUNCTIONS
+	// O---------------------------#
+
+	private static Palette fromRgb(byte[] rgb) {
+		Palette palette = new Palette();
+
+		for (int emphasis = 0; emphasis < 8; emphasis++) {
+			for (int color = 0; color < 64; color++) {
+				if (rgb.length == 512 * 3) {
+					int i = ((emphasis << 6) | color) * 3;
+					palette.tables[emphasis][color] = argb(rgb[i] & 0xff, rgb[i + 1] & 0xff, rgb[i + 2] & 0xff);
+					continue;
+				}
+
+				int i = color * 3;
+				int r = rgb[i] & 0xff;
+				int g = rgb[i + 1] & 0xff;
+				int b = rgb[i + 2] & 0xff;
+				double red = 1;
+				double green = 1;
+				double blue = 1;
+				if ((color & 0x0e) != 0x0e) {
+					if ((emphasis & EMPHASIZE_RED) != 0) {
+						green *= ATTENUATION;
+						blue *= ATTENUATION;
+					}
+					if ((emphasis & EMPHASIZE_GREEN) != 0) {
+						red *= ATTENUATION;
+						blue *= ATTENUATION;
+					}
+					if ((emphasis & EMPHASIZE_BLUE) != 0) {
+						red *= ATTENUATION;
+						green *= ATTENUATION;
+					}
+				}
+				palette.tables[emphasis][color] = argb((int) (r * red), (int) (g * green), (int) (b * blue));
+			}
+		}
+		return palette;
+	}
+
+	private static byte[] toBytes(int[] values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte) values[i];
+		}
+		return bytes;
+	}
+
+	private static int argb(int r, int g, int b) {
+		return 0xff000000 | (r << 16) | (g << 8) | b;
+	}
+}
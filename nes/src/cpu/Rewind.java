@@ -0,0 +1,326 @@
+package cpu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Keeps the last frames of a {@code NesRunner} so the game can be stepped back
+ * one frame at a time. Every frame a save state is taken and stored as the XOR
+ * of the state and the last keyframe (a full state taken every few frames),
+ * which is almost all zeros, run-length encoded. The entries live in one ring
+ * of bytes of a fixed size; when it is full the oldest keyframe and its frames
+ * are dropped.
+ * </p>
+ *
+ * <p>
+ * An encoded state is a list of runs until the state is complete:
+ * </p>
+ *
+ * <pre>
+ * varint  number of zero bytes
+ * varint  number of literal bytes
+ * byte[]  the literal bytes
+ * </pre>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class Rewind {
+
+	// Deltas between frames rarely get under a few dozen bytes, 73 was the
+	// least measured, on a game that changes almost nothing. The index has room
+	// for one entry every this many bytes of the ring; past that the oldest
+	// frames are dropped early.
+	private static final int MIN_ENTRY_SIZE = 64;
+	// The offsets, lengths and keyframes of an entry.
+	private static final int INDEX_ENTRY_SIZE = 12;
+
+	private final NesRunner runner;
+	private final int keyframeInterval;
+
+	// •–––––––––––––––––––––––––––•
+	// | RING
+	// •–––––––––––––––––––––––––––•
+
+	// The encoded entries, oldest first from the head, the next one written at
+	// the tail. An entry never wraps; if it doesn't fit before the end of the
+	// ring it is written at the start.
+	private final byte[] ring;
+	private int tail = 0;
+
+	// Entries by sequence number modulo their capacity. first is the sequence
+	// number of the oldest entry, which is always a keyframe.
+	private final int[] offsets;
+	private final int[] lengths;
+	private final int[] keyframes;
+	private int first = 0;
+	private int count = 0;
+
+	// •–––––––––––––––––––––––––––•
+	// | SCRATCH
+	// •–––––––––––––––––––––––––––•
+
+	private final ByteBuffer state = SaveState.allocate();
+	private final byte[] keyframe = new byte[SaveState.MAX_SIZE];
+	// The sequence number of the keyframe in keyframe[], or -1.
+	private int cachedKeyframe = -1;
+	// Every run but the first starts with 2 zero bytes or more, which pay for
+	// its lengths, so a state encodes to at most 1/128 more plus a few bytes.
+	private final byte[] encoded = new byte[SaveState.MAX_SIZE + SaveState.MAX_SIZE / 64 + 16];
+
+	/**
+	 * <p>
+	 * The ring and its index are allocated from the budget together, about 84%
+	 * of it for the ring. On top of the budget come 3 buffers of about
+	 * {@link SaveState#MAX_SIZE} each for the state being recorded, the
+	 * keyframe and the encoded entry, about 100KB.
+	 * </p>
+	 * 
+	 * @param runner
+	 * @param budget
+	 *            The bytes the frames and their index can take, e.g.
+	 *            <code>16 << 20</code>. Should hold a good number of keyframes.
+	 * @param keyframeInterval
+	 *            Frames between keyframes. Longer intervals make bigger deltas
+	 *            but fewer keyframes.
+	 */
+	public Rewind(NesRunner runner, int budget, int keyframeInterval) {
+		if (budget < SaveState.MAX_SIZE * 4)
+			throw new IllegalArgumentException("The budget must be at least " + SaveState.MAX_SIZE * 4 + " bytes.");
+		if (keyframeInterval < 1)
+			throw new IllegalArgumentException("The keyframe interval must be at least 1.");
+
+		this.runner = runner;
+		this.keyframeInterval = keyframeInterval;
+
+		int capacity = budget / (MIN_ENTRY_SIZE + INDEX_ENTRY_SIZE);
+		ring = new byte[budget - capacity * INDEX_ENTRY_SIZE];
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+		keyframes = new int[capacity];
+	}
+
+	/**
+	 * <p>
+	 * Stores the state the runner is in now. Called by the {@code NesRunner} at
+	 * the end of every frame.
+	 * </p>
+	 */
+	public void record() {
+		state.clear();
+		runner.saveState(state);
+		int size = state.position();
+		byte[] data = state.array();
+
+		int seq = first + count;
+		boolean isKeyframe = count == 0 || seq - keyframes[slot(seq - 1)] >= keyframeInterval;
+		int length = isKeyframe ? encode(data, null, size) : encode(data, keyframe, size);
+		int offset = allocate(length);
+
+		// Making room dropped the keyframe this delta is against.
+		if (!isKeyframe && (count == 0 || first > cachedKeyframe)) {
+			isKeyframe = true;
+			length = encode(data, null, size);
+			offset = allocate(length);
+		}
+
+		if (isKeyframe) {
+			System.arraycopy(data, 0, keyframe, 0, size);
+			cachedKeyframe = seq;
+		}
+
+		System.arraycopy(encoded, 0, ring, offset, length);
+		tail = offset + length;
+
+		int slot = slot(seq);
+		offsets[slot] = offset;
+		lengths[slot] = length;
+		keyframes[slot] = cachedKeyframe;
+		count++;
+	}
+
+	/**
+	 * <p>
+	 * Drops the newest frame and puts the runner back in the frame before it.
+	 * </p>
+	 *
+	 * @return false if there is no older frame left, the runner is untouched.
+	 */
+	public boolean stepBack() {
+		if (count < 2)
+			return false;
+
+		count--;
+		int seq = first + count - 1;
+		int slot = slot(seq);
+		tail = offsets[slot] + lengths[slot];
+
+		int key = keyframes[slot];
+		if (key != cachedKeyframe) {
+			int keySlot = slot(key);
+			decode(offsets[keySlot], lengths[keySlot], null, keyframe);
+			cachedKeyframe = key;
+		}
+
+		// Keyframes are stored as they are, not against themselves.
+		int size = decode(offsets[slot], lengths[slot], (seq == key) ? null : keyframe, state.array());
+		state.clear();
+		state.limit(size);
+		runner.loadState(state);
+		return true;
+	}
+
+	/**
+	 * @return The number of frames that can be stepped back.
+	 */
+	public int frames() {
+		return Math.max(0, count - 1);
+	}
+
+	/**
+	 * @return The bytes the stored frames take in the ring.
+	 */
+	public int bytesUsed() {
+		if (count == 0)
+			return 0;
+
+		int used = 0;
+		for (int seq = first; seq < first + count; seq++) {
+			used += lengths[slot(seq)];
+		}
+		return used;
+	}
+
+	/**
+	 * Forgets every frame.
+	 */
+	public void clear() {
+		first = 0;
+		count = 0;
+		tail = 0;
+		cachedKeyframe = -1;
+	}
+
+	// O---------------------------#
+	// | HELPER FUNCTIONS
+	// O---------------------------#
+
+	private int slot(int seq) {
+		return seq % offsets.length;
+	}
+
+	// Finds length free bytes in the ring, dropping the oldest keyframes until
+	// there are.
+	private int allocate(int length) {
+		if (length > ring.length)
+			throw new IllegalStateException("A frame doesn't fit in the rewind budget.");
+
+		while (true) {
+			if (count == 0)
+				return 0;
+
+			if (count < offsets.length) {
+				int head = offsets[slot(first)];
+				if (head < tail) {
+					if (tail + length <= ring.length)
+						return tail;
+					if (length <= head)
+						return 0;
+				} else if (tail + length <= head) {
+					return tail;
+				}
+			}
+
+			dropOldestKeyframe();
+		}
+	}
+
+	private void dropOldestKeyframe() {
+		do {
+			first++;
+			count--;
+		} while (count > 0 && keyframes[slot(first)] != first);
+	}
+
+	// Encodes data ^ reference into encoded[], a null reference is all zeros.
+	private int encode(byte[] data, byte[] reference, int size) {
+		int out = 0;
+		int i = 0;
+
+		while (i < size) {
+			int zeros = i;
+			while (i < size && xor(data, reference, i) == 0) {
+				i++;
+			}
+			zeros = i - zeros;
+
+			int literals = i;
+			while (i < size && (xor(data, reference, i) != 0 || (i + 1 < size && xor(data, reference, i + 1) != 0))) {
+				i++;
+			}
+			literals = i - literals;
+
+			out = putVarint(encoded, out, zeros);
+			out = putVarint(encoded, out, literals);
+			for (int j = i - literals; j < i; j++) {
+				encoded[out++] = (byte) xor(data, reference, j);
+			}
+		}
+		return out;
+	}
+
+	// Decodes an entry of the ring into out[], XORing it with the reference.
+	// Returns the size of the state.
+	private int decode(int offset, int length, byte[] reference, byte[] out) {
+		int in = offset;
+		int end = offset + length;
+		int i = 0;
+
+		while (in < end) {
+			int zeros = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = ring[in++];
+				zeros |= (b & 0x7f) << shift;
+				if (b >= 0)
+					break;
+			}
+
+			int literals = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = ring[in++];
+				literals |= (b & 0x7f) << shift;
+				if (b >= 0)
+					break;
+			}
+
+			if (reference == null) {
+				for (int j = 0; j < zeros; j++) {
+					out[i++] = 0;
+				}
+				System.arraycopy(ring, in, out, i, literals);
+				i += literals;
+			} else {
+				System.arraycopy(reference, i, out, i, zeros);
+				i += zeros;
+				for (int j = 0; j < literals; j++, i++) {
+					out[i] = (byte) (ring[in + j] ^ reference[i]);
+				}
+			}
+			in += literals;
+		}
+		return i;
+	}
+
+	private static int xor(byte[] data, byte[] reference, int i) {
+		return (reference == null) ? data[i] : (data[i] ^ reference[i]);
+	}
+
+	private static int putVarint(byte[] out, int pos, int value) {
+		while (value >= 0x80) {
+			out[pos++] = (byte) (value | 0x80);
+			value >>>= 7;
+		}
+		out[pos++] = (byte) value;
+		return pos;
+	}
+}
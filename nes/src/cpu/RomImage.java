@@ -0,0 +1,222 @@
+package cpu;
+
+import java.io.File;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cpu.Cartridge.NametableMirror;
+import helpers.NesRead;
+
+/**
+ * <p>
+ * The read-only part of an iNES file: the PRG and CHR ROM and what the header
+ * says about the board. Images are kept in a process wide registry keyed by a
+ * hash of their contents, so every {@code Cartridge} of the same game shares
+ * one copy of the ROM and building a new one never touches the disk again.
+ * </p>
+ *
+ * <p>
+ * The registry only holds the images weakly: an image is shared for as long as
+ * a cartridge (or anything else) uses it, and is dropped with the last one, so
+ * a process that goes through hundreds of ROMs only keeps those still running.
+ * </p>
+ *
+ * <p>
+ * The arrays are shared between cartridges and must never be written to.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public final class RomImage {
+
+	// Images by content hash, and the last one read from each file so a file is
+	// only read once.
+	private static final ConcurrentHashMap<String, Entry> BY_HASH = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, Entry> BY_FILE = new ConcurrentHashMap<>();
+	// The entries whose image was collected, to be taken out of the maps.
+	private static final ReferenceQueue<RomImage> COLLECTED = new ReferenceQueue<>();
+
+	/**
+	 * An entry of one of the registries. Entries by file also hold when the file
+	 * was modified and its length, to tell it was changed since.
+	 */
+	private static final class Entry extends WeakReference<RomImage> {
+		final String key;
+		final String stamp;
+
+		Entry(RomImage rom, String key, String stamp) {
+			super(rom, COLLECTED);
+			this.key = key;
+			this.stamp = stamp;
+		}
+	}
+
+	private final byte[] prgRom;
+	private final byte[] chrRom;
+	private final int prgBanks;
+	private final int chrBanks;
+	private final int mapperId;
+	private final NametableMirror mirroring;
+	private final String hash;
+
+	private RomImage(NesRead game) {
+		NesRead.Header header = game.readHeader();
+		int flag6 = header.mapper1;
+
+		// Check if the iNes file contains a trainer and get rid of it.
+		if (((flag6 >> 2) & 1) == 1)
+			game.skip(512);
+
+		// The mapper id's low 4 bits are given by bits 4-7 and the upper byble of the
+		// mapper id is 4-7 of mapper 2.
+		mapperId = (header.mapper2 & 0xf0) | (header.mapper1 >> 4);
+
+		// Nametable mirroring. Bit 3 is a board with its own 2KB of VRAM, which
+		// overrides bit 0.
+		if ((header.mapper1 & 0b0000_1000) != 0)
+			mirroring = NametableMirror.FOUR_SCREEN;
+		else
+			mirroring = ((header.mapper1 & 0b0000_0001) == 1) ? NametableMirror.VERTICAL : NametableMirror.HORIZONTAL;
+
+		prgBanks = header.sizeOfPrgRom;
+		chrBanks = header.sizeOfChrRom;
+
+		// Get the program ROM & the Char ROM.
+		prgRom = new byte[16384 * prgBanks];
+		chrRom = new byte[8192 * chrBanks];
+		game.readBytes(prgRom);
+		game.readBytes(chrRom);
+
+		hash = hash(prgRom, chrRom, mapperId, mirroring);
+	}
+
+	/**
+	 * <p>
+	 * Returns the image of an iNES file, reading it only if it isn't in use
+	 * already (or has changed since).
+	 * </p>
+	 *
+	 * @param filePath
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             If the file was not found.
+	 */
+	public static RomImage load(String filePath) {
+		removeCollected();
+
+		File file = new File(filePath);
+		String path = file.getAbsolutePath();
+		String stamp = file.lastModified() + ":" + file.length();
+
+		Entry entry = BY_FILE.get(path);
+		RomImage rom = (entry != null && entry.stamp.equals(stamp)) ? entry.get() : null;
+		if (rom != null)
+			return rom;
+
+		NesRead game = new NesRead(filePath);
+
+		// Did we find a game file.
+		if (!game.gameExists())
+			throw new IllegalArgumentException("The file was not found.");
+
+		rom = share(new RomImage(game));
+		// Replaces the entry of an older version of the file, if any.
+		BY_FILE.put(path, new Entry(rom, path, stamp));
+		return rom;
+	}
+
+	// The image with the same contents already in use, or this one.
+	private static RomImage share(RomImage rom) {
+		Entry entry = new Entry(rom, rom.hash, null);
+		while (true) {
+			Entry shared = BY_HASH.putIfAbsent(rom.hash, entry);
+			if (shared == null)
+				return rom;
+
+			RomImage sharedRom = shared.get();
+			if (sharedRom != null)
+				return sharedRom;
+
+			// Collected, but still in the map.
+			if (BY_HASH.replace(rom.hash, shared, entry))
+				return rom;
+		}
+	}
+
+	private static void removeCollected() {
+		Entry entry;
+		while ((entry = (Entry) COLLECTED.poll()) != null) {
+			// Only if it wasn't replaced by a newer entry in the meantime.
+			if (entry.stamp == null)
+				BY_HASH.remove(entry.key, entry);
+			else
+				BY_FILE.remove(entry.key, entry);
+		}
+	}
+
+	// O---------------------------#
+	// | GETTERS
+	// O---------------------------#
+
+	byte[] getPrgRom() {
+		return prgRom;
+	}
+
+	byte[] getChrRom() {
+		return chrRom;
+	}
+
+	public int getPrgBanks() {
+		return prgBanks;
+	}
+
+	/**
+	 * @return The number of 8KB CHR ROM banks, 0 if the board has CHR RAM.
+	 */
+	public int getChrBanks() {
+		return chrBanks;
+	}
+
+	public int getMapperId() {
+		return mapperId;
+	}
+
+	public NametableMirror getMirroring() {
+		return mirroring;
+	}
+
+	/**
+	 * @return The SHA-1 of the ROM contents and board, in hex.
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	private static String hash(byte[] prg, byte[] chr, int mapperId, NametableMirror mirroring) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(prg);
+			digest.update(chr);
+			digest.update((byte) mapperId);
+			digest.update((byte) mirroring.ordinal());
+
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest()) {
+				sb.append(String.format("%02x", b & 0xff));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-1.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RomImage: mapper " + mapperId + ", " + prgBanks + " PRG banks, " + chrBanks + " CHR banks, " + hash;
+	}
+}
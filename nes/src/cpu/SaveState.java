@@ -0,0 +1,80 @@
+package cpu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * The layout of a save state written by {@link NesRunner#saveState(ByteBuffer)}:
+ * </p>
+ *
+ * <pre>
+ * int    MAGIC ("NESS")
+ * short  VERSION
+ * byte[40] the hash of the RomImage, in hex
+ * ...    NesRunner, CPU6502, PPU2C02, Bus, Cartridge (and its Mapper), Scheduler
+ * </pre>
+ *
+ * <p>
+ * Every component writes its own fields in a fixed order with no tags, so the
+ * version has to change whenever one of them does. Bytes of memory are stored as
+ * bytes, everything else as the smallest type that holds it.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public final class SaveState {
+
+	public static final int MAGIC = 0x4e455353;
+	public static final int VERSION = 2;
+
+	// Enough for any state: a little over 12KB, plus 8KB of CHR RAM and 2KB of
+	// VRAM on four-screen boards.
+	public static final int MAX_SIZE = 0x8000;
+
+	private SaveState() {
+	}
+
+	/**
+	 * @return A buffer big enough for any save state.
+	 */
+	public static ByteBuffer allocate() {
+		return ByteBuffer.allocate(MAX_SIZE);
+	}
+
+	// O---------------------------#
+	// | HELPER FUNCTIONS
+	// O---------------------------#
+
+	static void putBytes(ByteBuffer buffer, int[] data) {
+		for (int i = 0; i < data.length; i++) {
+			buffer.put((byte) data[i]);
+		}
+	}
+
+	static void getBytes(ByteBuffer buffer, int[] data) {
+		for (int i = 0; i < data.length; i++) {
+			data[i] = buffer.get() & 0xff;
+		}
+	}
+
+	static void putInts(ByteBuffer buffer, int[] data) {
+		for (int i = 0; i < data.length; i++) {
+			buffer.putInt(data[i]);
+		}
+	}
+
+	static void getInts(ByteBuffer buffer, int[] data) {
+		for (int i = 0; i < data.length; i++) {
+			data[i] = buffer.getInt();
+		}
+	}
+
+	static void putBoolean(ByteBuffer buffer, boolean b) {
+		buffer.put((byte) (b ? 1 : 0));
+	}
+
+	static boolean getBoolean(ByteBuffer buffer) {
+		return buffer.get() != 0;
+	}
+}
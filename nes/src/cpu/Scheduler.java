@@ -0,0 +1,289 @@
+package cpu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Runs the {@code CPU6502} in bursts of whole instructions and only catches
+ * the {@code PPU2C02} up when it has to: when the cpu touches the PPU registers
+ * ($2000-$3FFF), when the PPU can raise an NMI and at the end of a frame.
+ * </p>
+ * 
+ * <p>
+ * Time is counted in master clock ticks, one per PPU dot and three per cpu
+ * cycle, the same way {@code NesRunner.clock()} counts its system clock. The
+ * cpu sees the same PPU state it would see running tick by tick: an
+ * instruction that starts on cpu cycle <code>k</code> executes after the PPU
+ * has drawn <code>3k + 1</code> dots.
+ * </p>
+ * 
+ * <p>
+ * A mapper's scanline IRQ is an event like the NMI: the mapper says how many
+ * scanlines away it is, the scheduler works out the tick the PPU clocks its
+ * counter for the last time and the cpu runs up to it. Writes to the mapper,
+ * and to PPUCTRL and PPUMASK while an IRQ is on its way, end the cpu's run so
+ * the prediction is made again.
+ * </p>
+ *
+ * <p>
+ * Each catch-up is one {@link PPU2C02#run(int)}, which in <code>DOT</code>
+ * mode draws a scanline nothing touches in one pass and skips the dots that
+ * have nothing to do. On the bench's test ROM, timed against
+ * {@code NesRunner.clock()} in the same JVM, a frame takes 3.5x less time with
+ * the MICROCODE core and 3.8x less with SWITCH (about 590 and 680 frames a
+ * second against 175 on a loaded machine); the SCANLINE renderer, still
+ * clocked dot by dot, is at 2.9-3.1x.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class Scheduler {
+
+	// Dots in a frame. The PPU always skips dot 0 of scanline 0.
+	static final int DOTS_PER_FRAME = 341 * 262 - 1;
+	// The dot where the PPU sets vertical blank and raises the NMI.
+	static final int VBLANK_DOT = dotIndex(241, 1);
+
+	private final CPU6502 cpu;
+	private final PPU2C02 ppu;
+	private final Bus bus;
+	private final Cartridge cart;
+
+	// Master ticks the PPU has been clocked for.
+	private long ppuClock = 0;
+	// The cpu cycle the next instruction starts on, before any cycles the cpu
+	// still owes.
+	private long cpuClock = 0;
+	// The cpu cycle the current run started on.
+	private long runStart = 0;
+
+	// The cpu cycle the pending OAM DMA starts on, or -1, and the cycle after the
+	// last DMA ended.
+	private long dmaStart = -1;
+	private long dmaEnd = 0;
+
+	// The tick the PPU raises the mapper's IRQ on, as last predicted, or
+	// Long.MAX_VALUE.
+	private long irqTick = Long.MAX_VALUE;
+
+	// Only while running a frame. NesRunner.clock() keeps the PPU in step
+	// itself and the clocks above mean nothing to it.
+	private boolean running = false;
+
+	public Scheduler(CPU6502 cpu, PPU2C02 ppu, Bus bus) {
+		this.cpu = cpu;
+		this.ppu = ppu;
+		this.bus = bus;
+		this.cart = ppu.getCart();
+		bus.connect(this);
+	}
+
+	/**
+	 * <p>
+	 * Runs the system until the PPU completes the current frame.
+	 * </p>
+	 */
+	public void runFrame() {
+		running = true;
+		ppu.setFrameComplete(false);
+
+		int dot = dotIndex(ppu.getScanline(), ppu.getCycle());
+		long frameEnd = ppuClock + (DOTS_PER_FRAME - dot);
+
+		if (dot <= VBLANK_DOT) {
+			// The tick on which the PPU raises the NMI.
+			long vblank = ppuClock + (VBLANK_DOT - dot);
+			runUntil(vblank + 1);
+			catchUp(vblank + 1);
+
+			if (ppu.nmi) {
+				ppu.nmi = false;
+				// As with NesRunner.clock(), the cycles left of the instruction in
+				// flight are dropped.
+				cpuClock = Math.max(vblank / 3 + 1, dmaEnd);
+				cpu.NMI();
+			}
+		}
+
+		runUntil(frameEnd);
+		catchUp(frameEnd);
+		running = false;
+	}
+
+	/**
+	 * @return The number of master clock ticks the system has run for.
+	 */
+	public long getClock() {
+		return ppuClock;
+	}
+
+	/**
+	 * <p>
+	 * Writes the clocks and the pending DMA. Only valid between runs, as is any
+	 * save state.
+	 * </p>
+	 * 
+	 * @param buffer
+	 */
+	public void saveState(ByteBuffer buffer) {
+		buffer.putLong(ppuClock);
+		buffer.putLong(cpuClock);
+		buffer.putLong(dmaStart);
+		buffer.putLong(dmaEnd);
+	}
+
+	public void loadState(ByteBuffer buffer) {
+		ppuClock = buffer.getLong();
+		cpuClock = buffer.getLong();
+		dmaStart = buffer.getLong();
+		dmaEnd = buffer.getLong();
+	}
+
+	// •–––––––––––––––––––––––––––––––––––––––
+	// | CALLED BY THE BUS
+	// •–––––––––––––––––––––––––––––––––––––––
+
+	/**
+	 * Brings the PPU up to the instruction the cpu is executing.
+	 */
+	void catchUp() {
+		if (running)
+			catchUp((runStart + cpu.getRunCycles()) * 3 + 1);
+	}
+
+	/**
+	 * @return The dot the PPU is on, from the start of the frame (see
+	 *         {@link #dotIndex(int, int)}), when the instruction the cpu is
+	 *         executing started. The PPU itself may still be behind.
+	 */
+	int instructionDot() {
+		long behind = running ? Math.max(0, (runStart + cpu.getRunCycles()) * 3 + 1 - ppuClock) : 0;
+		return (int) ((dotIndex(ppu.getScanline(), ppu.getCycle()) + behind) % DOTS_PER_FRAME);
+	}
+
+	/**
+	 * The cpu is writing to the cartridge, outside of its RAM. The PPU is caught
+	 * up first, since the write can switch CHR banks or touch the scanline
+	 * counter, and the run ends after the instruction so the next IRQ is
+	 * predicted again.
+	 */
+	void cartridgeWrite() {
+		if (!running)
+			return;
+
+		catchUp();
+		ppu.cartridgeWrite();
+		cpu.endRun();
+	}
+
+	/**
+	 * The cpu wrote to a PPU register. PPUCTRL and PPUMASK move the dot the
+	 * scanline counter is clocked on, or stop it.
+	 * 
+	 * @param addr
+	 */
+	void ppuWrite(int addr) {
+		if (running && irqTick != Long.MAX_VALUE && (addr & 0x0007) <= 1)
+			cpu.endRun();
+	}
+
+	/**
+	 * Called when the cpu writes to $4014. The DMA starts on the cycle after the
+	 * instruction and the cpu stops to let it run.
+	 */
+	void dmaRequest() {
+		if (!running)
+			return;
+
+		dmaStart = runStart + cpu.getRunCycles() + 1;
+		cpu.endRun();
+	}
+
+	// O---------------------------#
+	// | HELPER FUNCTIONS
+	// O---------------------------#
+
+	// Runs every instruction that starts before the master tick limit.
+	private void runUntil(long limit) {
+		while (cpuClock * 3 < limit) {
+			if (bus.isDmaPending()) {
+				dma();
+				continue;
+			}
+
+			long stop = limit;
+			irqTick = predictIrq();
+			if (irqTick - 1 <= cpuClock * 3) {
+				// The next instruction starts after the PPU raises the IRQ.
+				catchUp(cpuClock * 3 + 1);
+			} else if (irqTick - 1 < stop) {
+				stop = irqTick - 1;
+			}
+
+			if (cart.irq()) {
+				// The line stays low until the game acknowledges it, so while it
+				// is masked the cpu goes an instruction at a time to see it
+				// unmasked.
+				if (!cpu.getFlag(Flag.INTERRUPT_DISABLE))
+					cpu.IRQ();
+				stop = cpuClock * 3 + 1;
+			}
+
+			runStart = cpuClock;
+			cpuClock += cpu.run((int) ((stop - cpuClock * 3 + 2) / 3));
+		}
+		irqTick = Long.MAX_VALUE;
+	}
+
+	// The tick after the one the PPU clocks the mapper's scanline counter for the
+	// last time before its IRQ, if nothing changes, or Long.MAX_VALUE.
+	private long predictIrq() {
+		int scanlines = cart.scanlinesToIrq();
+		int counterDot = ppu.getCounterDot();
+		if (scanlines < 0 || counterDot < 0)
+			return Long.MAX_VALUE;
+
+		// The counter is clocked on scanlines -1 to 239, 241 times a frame. Count
+		// them from the first one the PPU hasn't reached.
+		int dot = dotIndex(ppu.getScanline(), ppu.getCycle());
+		int first;
+		if (dot <= dotIndex(-1, counterDot))
+			first = 0;
+		else
+			first = Math.max(0, (dot - dotIndex(0, counterDot) + 340) / 341) + 1;
+
+		int clock = first + scanlines - 1;
+		long target = (long) (clock / 241) * DOTS_PER_FRAME + dotIndex(clock % 241 - 1, counterDot);
+		return ppuClock + (target - dot) + 1;
+	}
+
+	// The PPU clocked up to the tick, every dot in between in one run.
+	private void catchUp(long target) {
+		if (ppuClock < target) {
+			ppu.run((int) (target - ppuClock));
+			ppuClock = target;
+		}
+	}
+
+	// Copies the page into OAM and stalls the cpu for the length of the
+	// transfer, as one event.
+	private void dma() {
+		long start = (dmaStart >= 0) ? dmaStart : cpuClock;
+		catchUp(start * 3 + 1);
+
+		int length = bus.oamDma(start);
+		cpuClock += length;
+		dmaEnd = start + length;
+		dmaStart = -1;
+	}
+
+	// The position of a dot from the start of the frame (scanline -1, cycle 0).
+	static int dotIndex(int scanline, int cycle) {
+		if (scanline == -1)
+			return cycle;
+		if (scanline == 0 && cycle == 0)
+			cycle = 1;
+		return 340 + scanline * 341 + cycle;
+	}
+}
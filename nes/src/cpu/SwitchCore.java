@@ -0,0 +1,1328 @@
+package cpu;
+
+import helpers.Hexdump;
+
+/**
+ * <p>
+ * An alternative interpretation core for the {@code CPU6502}. Instead of
+ * looking up an {@code Instruction} and running its addressing mode and
+ * operation as two {@code Executable} calls, every opcode is a case of one flat
+ * {@code switch} with its addressing mode written inline. The registers are
+ * loaded into locals for the duration of a call to {@link #run(int)} and
+ * written back to the {@code CPU6502} when it returns.
+ * </p>
+ * 
+ * <p>
+ * The core mirrors the behavior of {@code InstructionSet} (including its stack
+ * pointer and BRK handling) so both cores produce the same trace. The only
+ * difference is that CMP and CPX read their operand once. The
+ * {@code handlingData} and current instruction of the {@code CPU6502} are not
+ * updated by this core.
+ * </p>
+ * 
+ * @author jorgejimenez
+ *
+ */
+final class SwitchCore {
+
+	// Processor status bits. NV-BDIZC
+	private static final int CARRY = 0x01;
+	private static final int ZERO = 0x02;
+	private static final int INTERRUPT_DISABLE = 0x04;
+	private static final int DECIMAL_MODE = 0x08;
+	private static final int BREAK = 0x10;
+	private static final int UNUSED = 0x20;
+	private static final int OVERFLOW = 0x40;
+	private static final int NEGATIVE = 0x80;
+
+	// The Z and N bits of every byte value.
+	private static final int[] NZ = new int[256];
+
+	static {
+		NZ[0] = ZERO;
+		for (int value = 1; value < 256; value++) {
+			NZ[value] = value & NEGATIVE;
+		}
+	}
+
+	// Base number of cycles of every opcode. Zero for the opcodes that are not
+	// implemented.
+	static final byte[] CYCLES = {
+			7, 6, 0, 0, 0, 3, 5, 0, 3, 2, 2, 0, 0, 4, 6, 0, // 0_
+			2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0, // 1_
+			6, 6, 0, 0, 3, 3, 5, 0, 4, 2, 2, 0, 4, 4, 6, 0, // 2_
+			2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0, // 3_
+			6, 6, 0, 0, 0, 3, 5, 0, 3, 2, 2, 0, 3, 4, 6, 0, // 4_
+			2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0, // 5_
+			6, 6, 0, 0, 0, 3, 5, 0, 4, 2, 2, 0, 5, 4, 6, 0, // 6_
+			2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0, // 7_
+			0, 6, 0, 0, 3, 3, 3, 0, 2, 0, 2, 0, 4, 4, 4, 0, // 8_
+			2, 6, 0, 0, 4, 4, 4, 0, 2, 5, 2, 0, 0, 5, 0, 0, // 9_
+			2, 6, 2, 0, 3, 3, 3, 0, 2, 2, 2, 0, 4, 4, 4, 0, // A_
+			2, 5, 0, 0, 4, 4, 4, 0, 2, 4, 2, 0, 4, 4, 4, 0, // B_
+			2, 6, 0, 0, 3, 3, 5, 0, 2, 2, 2, 0, 4, 4, 6, 0, // C_
+			2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0, // D_
+			2, 6, 0, 0, 3, 3, 5, 0, 2, 2, 2, 0, 4, 4, 6, 0, // E_
+			2, 5, 0, 0, 0, 4, 6, 0, 2, 4, 0, 0, 0, 4, 7, 0 // F_
+	};
+
+	private final CPU6502 cpu;
+	private final Bus bus;
+
+	// Cycles used by the current run up to the start of the instruction being
+	// executed, and the cycle budget of the run.
+	int elapsed = 0;
+	private int budget = 0;
+
+	SwitchCore(CPU6502 cpu, Bus bus) {
+		this.cpu = cpu;
+		this.bus = bus;
+	}
+
+	/**
+	 * <p>
+	 * Executes whole instructions until at least {@code budget} cycles have been
+	 * used or {@link #stop()} is called.
+	 * </p>
+	 * 
+	 * @param start
+	 *            The number of cycles already used, i.e. cycles still owed from a
+	 *            previous instruction or interrupt.
+	 * @param budget
+	 *            The number of cycles to run for.
+	 * @return The number of cycles used, including {@code start}.
+	 */
+	int run(int start, int budget) {
+		int pc = cpu.getProgramCounter();
+		int sp = cpu.getStackPointer();
+		int a = cpu.getA();
+		int x = cpu.getX();
+		int y = cpu.getY();
+		int p = cpu.getStatus();
+		TraceRecorder trace = cpu.trace;
+		Debugger debugger = cpu.debugger;
+
+		this.elapsed = start;
+		this.budget = budget;
+		int ea, base, t;
+
+		while (elapsed < this.budget) {
+			p |= UNUSED;
+			int opcode = read(pc) & 0xff;
+			int c = CYCLES[opcode];
+
+			// The debugger looks at the cpu, not at the locals.
+			if (debugger != null) {
+				store(pc, sp, a, x, y, p);
+				debugger.execute(pc & 0xffff, opcode);
+			}
+			if (trace != null)
+				trace.record(pc, opcode, a, x, y, p, sp, cpu.totalCycles + elapsed - start);
+
+			switch (opcode) {
+				// ADC - Add memory to accumulator with carry
+				case 0x61 :
+					ea = indirectX(pc, x);
+					t = adc(a, read(ea), p);
+					a = t & 0xff;
+					p = t >>> 8;
+					pc += 2;
+					break;
+				case 0x65 :
+					ea = read(pc + 1) & 0xff;
+					t = adc(a, read(ea), p);
+					a = t & 0xff;
+					p = t >>> 8;
+					pc += 2;
+					break;
+				case 0x69 :
+					ea = pc + 1;
+					t = adc(a, read(ea), p);
+					a = t & 0xff;
+					p = t >>> 8;
+					pc += 2;
+					break;
+				case 0x6D :
+					ea = absolute(pc);
+					t = adc(a, read(ea), p);
+					a = t & 0xff;
+					p = t >>> 8;
+					pc += 3;
+					break;
+				case 0x71 :
+					base = indirectY(pc);
+					ea = (base + y) & 0xffff;
+					t = adc(a, read(ea), p);
+					a = t & 0xff;
+					p = t >>> 8;
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 2;
+					break;
+				case 0x75 :
+					ea = (read(pc + 1) + x) & 0xff;
+					t = adc(a, read(ea), p);
+					a = t & 0xff;
+					p = t >>> 8;
+					pc += 2;
+					break;
+				case 0x79 :
+					base = absolute(pc);
+					ea = (base + y) & 0xffff;
+					t = adc(a, read(ea), p);
+					a = t & 0xff;
+					p = t >>> 8;
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+				case 0x7D :
+					base = absolute(pc);
+					ea = base + x;
+					t = adc(a, read(ea), p);
+					a = t & 0xff;
+					p = t >>> 8;
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+
+				// AND - "AND" memory with accumulator
+				case 0x21 :
+					ea = indirectX(pc, x);
+					a &= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x25 :
+					ea = read(pc + 1) & 0xff;
+					a &= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x29 :
+					ea = pc + 1;
+					a &= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x2D :
+					ea = absolute(pc);
+					a &= read(ea);
+					p = nz(p, a);
+					pc += 3;
+					break;
+				case 0x31 :
+					base = indirectY(pc);
+					ea = (base + y) & 0xffff;
+					a &= read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 2;
+					break;
+				case 0x35 :
+					ea = (read(pc + 1) + x) & 0xff;
+					a &= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x39 :
+					base = absolute(pc);
+					ea = (base + y) & 0xffff;
+					a &= read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+				case 0x3D :
+					base = absolute(pc);
+					ea = base + x;
+					a &= read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+
+				// ASL - Shift left one bit
+				case 0x06 :
+					ea = read(pc + 1) & 0xff;
+					t = read(ea) << 1;
+					p = nz((p & ~CARRY) | (t >> 8), t & 0xff);
+					write(ea, t & 0xff);
+					pc += 2;
+					break;
+				case 0x0A :
+					t = a << 1;
+					p = nz((p & ~CARRY) | (t >> 8), t & 0xff);
+					a = t & 0xff;
+					pc += 1;
+					break;
+				case 0x0E :
+					ea = absolute(pc);
+					t = read(ea) << 1;
+					p = nz((p & ~CARRY) | (t >> 8), t & 0xff);
+					write(ea, t & 0xff);
+					pc += 3;
+					break;
+				case 0x16 :
+					ea = (read(pc + 1) + x) & 0xff;
+					t = read(ea) << 1;
+					p = nz((p & ~CARRY) | (t >> 8), t & 0xff);
+					write(ea, t & 0xff);
+					pc += 2;
+					break;
+				case 0x1E :
+					base = absolute(pc);
+					ea = base + x;
+					t = read(ea) << 1;
+					p = nz((p & ~CARRY) | (t >> 8), t & 0xff);
+					write(ea, t & 0xff);
+					pc += 3;
+					break;
+
+				// BCC - Branch if carry clear
+				case 0x90 :
+					if ((p & CARRY) == 0) {
+						t = (byte) read(pc + 1);
+						c++;
+						if (((pc + 2 + t) & 0xff00) != ((pc + 2) & 0xff00))
+							c++;
+						pc += t;
+					}
+					pc += 2;
+					break;
+
+				// BCS - Branch if carry set
+				case 0xB0 :
+					if ((p & CARRY) != 0) {
+						t = (byte) read(pc + 1);
+						c++;
+						if (((pc + 2 + t) & 0xff00) != ((pc + 2) & 0xff00))
+							c++;
+						pc += t;
+					}
+					pc += 2;
+					break;
+
+				// BEQ - Branch if equal
+				case 0xF0 :
+					if ((p & ZERO) != 0) {
+						t = (byte) read(pc + 1);
+						c++;
+						if (((pc + 2 + t) & 0xff00) != ((pc + 2) & 0xff00))
+							c++;
+						pc += t;
+					}
+					pc += 2;
+					break;
+
+				// BIT - Bit test
+				case 0x24 :
+					ea = read(pc + 1) & 0xff;
+					t = read(ea);
+					p = (p & ~(ZERO | OVERFLOW | NEGATIVE)) | (t & (OVERFLOW | NEGATIVE)) | (NZ[a & t] & ZERO);
+					pc += 2;
+					break;
+				case 0x2C :
+					ea = absolute(pc);
+					t = read(ea);
+					p = (p & ~(ZERO | OVERFLOW | NEGATIVE)) | (t & (OVERFLOW | NEGATIVE)) | (NZ[a & t] & ZERO);
+					pc += 3;
+					break;
+
+				// BMI - Branch if minus
+				case 0x30 :
+					if ((p & NEGATIVE) != 0) {
+						t = (byte) read(pc + 1);
+						c++;
+						if (((pc + 2 + t) & 0xff00) != ((pc + 2) & 0xff00))
+							c++;
+						pc += t;
+					}
+					pc += 2;
+					break;
+
+				// BNE - Branch if not equal
+				case 0xD0 :
+					if ((p & ZERO) == 0) {
+						t = (byte) read(pc + 1);
+						c++;
+						if (((pc + 2 + t) & 0xff00) != ((pc + 2) & 0xff00))
+							c++;
+						pc += t;
+					}
+					pc += 2;
+					break;
+
+				// BPL - Branch if positive
+				case 0x10 :
+					if ((p & NEGATIVE) == 0) {
+						t = (byte) read(pc + 1);
+						c++;
+						if (((pc + 2 + t) & 0xff00) != ((pc + 2) & 0xff00))
+							c++;
+						pc += t;
+					}
+					pc += 2;
+					break;
+
+				// BRK - Force interrupt
+				case 0x00 :
+					// Mirrors InstructionSet.BRK() so both cores stay trace compatible.
+					pc++;
+					p |= INTERRUPT_DISABLE;
+					write(0x100 + sp--, (pc >> 8) & 0xff);
+					write(0x100 + sp--, pc & 0xff);
+					write(0x100 + sp--, p | BREAK);
+					p &= ~BREAK;
+					pc = (read(0xfffe) | (read(0xffff) << 8)) + 1;
+					break;
+
+				// BVC - Branch if overflow clear
+				case 0x50 :
+					if ((p & OVERFLOW) == 0) {
+						t = (byte) read(pc + 1);
+						c++;
+						if (((pc + 2 + t) & 0xff00) != ((pc + 2) & 0xff00))
+							c++;
+						pc += t;
+					}
+					pc += 2;
+					break;
+
+				// BVS - Branch if overflow set
+				case 0x70 :
+					if ((p & OVERFLOW) != 0) {
+						t = (byte) read(pc + 1);
+						c++;
+						if (((pc + 2 + t) & 0xff00) != ((pc + 2) & 0xff00))
+							c++;
+						pc += t;
+					}
+					pc += 2;
+					break;
+
+				// CLC - Clear carry flag
+				case 0x18 :
+					p &= ~CARRY;
+					pc += 1;
+					break;
+
+				// CLD - Clear decimal mode
+				case 0xD8 :
+					p &= ~DECIMAL_MODE;
+					pc += 1;
+					break;
+
+				// CLI - Clear interrupt disable
+				case 0x58 :
+					p &= ~INTERRUPT_DISABLE;
+					pc += 1;
+					break;
+
+				// CLV - Clear overflow flag
+				case 0xB8 :
+					p &= ~OVERFLOW;
+					pc += 1;
+					break;
+
+				// CMP - Compare accumulator
+				case 0xC1 :
+					ea = indirectX(pc, x);
+					p = compare(p, a, read(ea));
+					pc += 2;
+					break;
+				case 0xC5 :
+					ea = read(pc + 1) & 0xff;
+					p = compare(p, a, read(ea));
+					pc += 2;
+					break;
+				case 0xC9 :
+					ea = pc + 1;
+					p = compare(p, a, read(ea));
+					pc += 2;
+					break;
+				case 0xCD :
+					ea = absolute(pc);
+					p = compare(p, a, read(ea));
+					pc += 3;
+					break;
+				case 0xD1 :
+					base = indirectY(pc);
+					ea = (base + y) & 0xffff;
+					p = compare(p, a, read(ea));
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 2;
+					break;
+				case 0xD5 :
+					ea = (read(pc + 1) + x) & 0xff;
+					p = compare(p, a, read(ea));
+					pc += 2;
+					break;
+				case 0xD9 :
+					base = absolute(pc);
+					ea = (base + y) & 0xffff;
+					p = compare(p, a, read(ea));
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+				case 0xDD :
+					base = absolute(pc);
+					ea = base + x;
+					p = compare(p, a, read(ea));
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+
+				// CPX - Compare X register
+				case 0xE0 :
+					ea = pc + 1;
+					p = compare(p, x, read(ea));
+					pc += 2;
+					break;
+				case 0xE4 :
+					ea = read(pc + 1) & 0xff;
+					p = compare(p, x, read(ea));
+					pc += 2;
+					break;
+				case 0xEC :
+					ea = absolute(pc);
+					p = compare(p, x, read(ea));
+					pc += 3;
+					break;
+
+				// CPY - Compare Y register
+				case 0xC0 :
+					ea = pc + 1;
+					p = compare(p, y, read(ea));
+					pc += 2;
+					break;
+				case 0xC4 :
+					ea = read(pc + 1) & 0xff;
+					p = compare(p, y, read(ea));
+					pc += 2;
+					break;
+				case 0xCC :
+					ea = absolute(pc);
+					p = compare(p, y, read(ea));
+					pc += 3;
+					break;
+
+				// DEC - Decrement memory
+				case 0xC6 :
+					ea = read(pc + 1) & 0xff;
+					t = (read(ea) - 1) & 0xff;
+					write(ea, t);
+					p = nz(p, t);
+					pc += 2;
+					break;
+				case 0xCE :
+					ea = absolute(pc);
+					t = (read(ea) - 1) & 0xff;
+					write(ea, t);
+					p = nz(p, t);
+					pc += 3;
+					break;
+				case 0xD6 :
+					ea = (read(pc + 1) + x) & 0xff;
+					t = (read(ea) - 1) & 0xff;
+					write(ea, t);
+					p = nz(p, t);
+					pc += 2;
+					break;
+				case 0xDE :
+					base = absolute(pc);
+					ea = base + x;
+					t = (read(ea) - 1) & 0xff;
+					write(ea, t);
+					p = nz(p, t);
+					pc += 3;
+					break;
+
+				// DEX - Decrement X register
+				case 0xCA :
+					x = (x - 1) & 0xff;
+					p = nz(p, x);
+					pc += 1;
+					break;
+
+				// DEY - Decrement Y register
+				case 0x88 :
+					y = (y - 1) & 0xff;
+					p = nz(p, y);
+					pc += 1;
+					break;
+
+				// EOR - Exclusive OR
+				case 0x41 :
+					ea = indirectX(pc, x);
+					a ^= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x45 :
+					ea = read(pc + 1) & 0xff;
+					a ^= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x49 :
+					ea = pc + 1;
+					a ^= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x4D :
+					ea = absolute(pc);
+					a ^= read(ea);
+					p = nz(p, a);
+					pc += 3;
+					break;
+				case 0x51 :
+					base = indirectY(pc);
+					ea = (base + y) & 0xffff;
+					a ^= read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 2;
+					break;
+				case 0x55 :
+					ea = (read(pc + 1) + x) & 0xff;
+					a ^= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x59 :
+					base = absolute(pc);
+					ea = (base + y) & 0xffff;
+					a ^= read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+				case 0x5D :
+					base = absolute(pc);
+					ea = base + x;
+					a ^= read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+
+				// INC - Increment memory
+				case 0xE6 :
+					ea = read(pc + 1) & 0xff;
+					t = (read(ea) + 1) & 0xff;
+					p = nz(p, t);
+					write(ea, t);
+					pc += 2;
+					break;
+				case 0xEE :
+					ea = absolute(pc);
+					t = (read(ea) + 1) & 0xff;
+					p = nz(p, t);
+					write(ea, t);
+					pc += 3;
+					break;
+				case 0xF6 :
+					ea = (read(pc + 1) + x) & 0xff;
+					t = (read(ea) + 1) & 0xff;
+					p = nz(p, t);
+					write(ea, t);
+					pc += 2;
+					break;
+				case 0xFE :
+					base = absolute(pc);
+					ea = base + x;
+					t = (read(ea) + 1) & 0xff;
+					p = nz(p, t);
+					write(ea, t);
+					pc += 3;
+					break;
+
+				// INX - Increment X register
+				case 0xE8 :
+					x = (x + 1) & 0xff;
+					p = nz(p, x);
+					pc += 1;
+					break;
+
+				// INY - Increment Y register
+				case 0xC8 :
+					y = (y + 1) & 0xff;
+					p = nz(p, y);
+					pc += 1;
+					break;
+
+				// JMP - Jump
+				case 0x4C :
+					ea = absolute(pc);
+					pc = ea;
+					break;
+				case 0x6C :
+					ea = indirect(pc);
+					pc = ea;
+					break;
+
+				// JSR - Jump to subroutine
+				case 0x20 :
+					ea = absolute(pc);
+					write(0x100 + sp--, (pc + 2) >> 8);
+					write(0x100 + sp--, (pc + 2) & 0xff);
+					pc = ea;
+					break;
+
+				// LDA - Load accumulator
+				case 0xA1 :
+					ea = indirectX(pc, x);
+					a = read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0xA5 :
+					ea = read(pc + 1) & 0xff;
+					a = read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0xA9 :
+					ea = pc + 1;
+					a = read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0xAD :
+					ea = absolute(pc);
+					a = read(ea);
+					p = nz(p, a);
+					pc += 3;
+					break;
+				case 0xB1 :
+					base = indirectY(pc);
+					ea = (base + y) & 0xffff;
+					a = read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 2;
+					break;
+				case 0xB5 :
+					ea = (read(pc + 1) + x) & 0xff;
+					a = read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0xB9 :
+					base = absolute(pc);
+					ea = (base + y) & 0xffff;
+					a = read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+				case 0xBD :
+					base = absolute(pc);
+					ea = base + x;
+					a = read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+
+				// LDX - Load X register
+				case 0xA2 :
+					ea = pc + 1;
+					x = read(ea);
+					p = nz(p, x);
+					pc += 2;
+					break;
+				case 0xA6 :
+					ea = read(pc + 1) & 0xff;
+					x = read(ea);
+					p = nz(p, x);
+					pc += 2;
+					break;
+				case 0xAE :
+					ea = absolute(pc);
+					x = read(ea);
+					p = nz(p, x);
+					pc += 3;
+					break;
+				case 0xB6 :
+					ea = (read(pc + 1) + y) & 0xff;
+					x = read(ea);
+					p = nz(p, x);
+					pc += 2;
+					break;
+				case 0xBE :
+					base = absolute(pc);
+					ea = (base + y) & 0xffff;
+					x = read(ea);
+					p = nz(p, x);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+
+				// LDY - Load Y register
+				case 0xA0 :
+					ea = pc + 1;
+					y = read(ea);
+					p = nz(p, y);
+					pc += 2;
+					break;
+				case 0xA4 :
+					ea = read(pc + 1) & 0xff;
+					y = read(ea);
+					p = nz(p, y);
+					pc += 2;
+					break;
+				case 0xAC :
+					ea = absolute(pc);
+					y = read(ea);
+					p = nz(p, y);
+					pc += 3;
+					break;
+				case 0xB4 :
+					ea = (read(pc + 1) + x) & 0xff;
+					y = read(ea);
+					p = nz(p, y);
+					pc += 2;
+					break;
+				case 0xBC :
+					base = absolute(pc);
+					ea = base + x;
+					y = read(ea);
+					p = nz(p, y);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+
+				// LSR - Logical shift right
+				case 0x46 :
+					ea = read(pc + 1) & 0xff;
+					t = read(ea);
+					p = nz((p & ~CARRY) | (t & CARRY), t >> 1);
+					write(ea, t >> 1);
+					pc += 2;
+					break;
+				case 0x4A :
+					t = a;
+					p = nz((p & ~CARRY) | (t & CARRY), t >> 1);
+					a = t >> 1;
+					pc += 1;
+					break;
+				case 0x4E :
+					ea = absolute(pc);
+					t = read(ea);
+					p = nz((p & ~CARRY) | (t & CARRY), t >> 1);
+					write(ea, t >> 1);
+					pc += 3;
+					break;
+				case 0x56 :
+					ea = (read(pc + 1) + x) & 0xff;
+					t = read(ea);
+					p = nz((p & ~CARRY) | (t & CARRY), t >> 1);
+					write(ea, t >> 1);
+					pc += 2;
+					break;
+				case 0x5E :
+					base = absolute(pc);
+					ea = base + x;
+					t = read(ea);
+					p = nz((p & ~CARRY) | (t & CARRY), t >> 1);
+					write(ea, t >> 1);
+					pc += 3;
+					break;
+
+				// NOP - No operation
+				case 0xEA :
+					pc += 1;
+					break;
+
+				// ORA - Logical inclusive OR
+				case 0x01 :
+					ea = indirectX(pc, x);
+					a |= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x05 :
+					ea = read(pc + 1) & 0xff;
+					a |= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x09 :
+					ea = pc + 1;
+					a |= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x0D :
+					ea = absolute(pc);
+					a |= read(ea);
+					p = nz(p, a);
+					pc += 3;
+					break;
+				case 0x11 :
+					base = indirectY(pc);
+					ea = (base + y) & 0xffff;
+					a |= read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 2;
+					break;
+				case 0x15 :
+					ea = (read(pc + 1) + x) & 0xff;
+					a |= read(ea);
+					p = nz(p, a);
+					pc += 2;
+					break;
+				case 0x19 :
+					base = absolute(pc);
+					ea = (base + y) & 0xffff;
+					a |= read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+				case 0x1D :
+					base = absolute(pc);
+					ea = base + x;
+					a |= read(ea);
+					p = nz(p, a);
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+
+				// PHA - Push accumulator
+				case 0x48 :
+					write(0x100 + sp--, a);
+					pc += 1;
+					break;
+
+				// PHP - Push processor status
+				case 0x08 :
+					write(0x100 + sp--, p | BREAK | UNUSED);
+					p &= ~(BREAK | UNUSED);
+					pc += 1;
+					break;
+
+				// PLA - Pull accumulator
+				case 0x68 :
+					a = read(0x100 + ++sp);
+					p = nz(p, a);
+					pc += 1;
+					break;
+
+				// PLP - Pull processor status
+				case 0x28 :
+					p = read(0x100 + ++sp) | UNUSED;
+					pc += 1;
+					break;
+
+				// ROL - Rotate left
+				case 0x26 :
+					ea = read(pc + 1) & 0xff;
+					t = (read(ea) << 1) | (p & CARRY);
+					p = nz((p & ~CARRY) | (t >> 8), t & 0xff);
+					write(ea, t & 0xff);
+					pc += 2;
+					break;
+				case 0x2A :
+					t = (a << 1) | (p & CARRY);
+					p = nz((p & ~CARRY) | (t >> 8), t & 0xff);
+					a = t & 0xff;
+					pc += 1;
+					break;
+				case 0x2E :
+					ea = absolute(pc);
+					t = (read(ea) << 1) | (p & CARRY);
+					p = nz((p & ~CARRY) | (t >> 8), t & 0xff);
+					write(ea, t & 0xff);
+					pc += 3;
+					break;
+				case 0x36 :
+					ea = (read(pc + 1) + x) & 0xff;
+					t = (read(ea) << 1) | (p & CARRY);
+					p = nz((p & ~CARRY) | (t >> 8), t & 0xff);
+					write(ea, t & 0xff);
+					pc += 2;
+					break;
+				case 0x3E :
+					base = absolute(pc);
+					ea = base + x;
+					t = (read(ea) << 1) | (p & CARRY);
+					p = nz((p & ~CARRY) | (t >> 8), t & 0xff);
+					write(ea, t & 0xff);
+					pc += 3;
+					break;
+
+				// ROR - Rotate right
+				case 0x66 :
+					ea = read(pc + 1) & 0xff;
+					t = read(ea);
+					t = ((p & CARRY) << 8) | t;
+					p = nz((p & ~CARRY) | (t & CARRY), t >> 1);
+					write(ea, t >> 1);
+					pc += 2;
+					break;
+				case 0x6A :
+					t = a;
+					t = ((p & CARRY) << 8) | t;
+					p = nz((p & ~CARRY) | (t & CARRY), t >> 1);
+					a = t >> 1;
+					pc += 1;
+					break;
+				case 0x6E :
+					ea = absolute(pc);
+					t = read(ea);
+					t = ((p & CARRY) << 8) | t;
+					p = nz((p & ~CARRY) | (t & CARRY), t >> 1);
+					write(ea, t >> 1);
+					pc += 3;
+					break;
+				case 0x76 :
+					ea = (read(pc + 1) + x) & 0xff;
+					t = read(ea);
+					t = ((p & CARRY) << 8) | t;
+					p = nz((p & ~CARRY) | (t & CARRY), t >> 1);
+					write(ea, t >> 1);
+					pc += 2;
+					break;
+				case 0x7E :
+					base = absolute(pc);
+					ea = base + x;
+					t = read(ea);
+					t = ((p & CARRY) << 8) | t;
+					p = nz((p & ~CARRY) | (t & CARRY), t >> 1);
+					write(ea, t >> 1);
+					pc += 3;
+					break;
+
+				// RTI - Return from interrupt
+				case 0x40 :
+					p = read(0x100 + ++sp) & ~(BREAK | UNUSED);
+					t = read(0x100 + ++sp);
+					pc = (read(0x100 + ++sp) << 8) | t;
+					break;
+
+				// RTS - Return from subroutine
+				case 0x60 :
+					t = read(0x100 + ++sp);
+					pc = ((read(0x100 + ++sp) << 8) | t) + 1;
+					break;
+
+				// SBC - Subtract memory from accumulator with borrow
+				case 0xE1 :
+					ea = indirectX(pc, x);
+					t = adc(a, read(ea) ^ 0xff, p);
+					a = t & 0xff;
+					p = t >>> 8;
+					pc += 2;
+					break;
+				case 0xE5 :
+					ea = read(pc + 1) & 0xff;
+					t = adc(a, read(ea) ^ 0xff, p);
+					a = t & 0xff;
+					p = t >>> 8;
+					pc += 2;
+					break;
+				case 0xE9 :
+					ea = pc + 1;
+					t = adc(a, read(ea) ^ 0xff, p);
+					a = t & 0xff;
+					p = t >>> 8;
+					pc += 2;
+					break;
+				case 0xED :
+					ea = absolute(pc);
+					t = adc(a, read(ea) ^ 0xff, p);
+					a = t & 0xff;
+					p = t >>> 8;
+					pc += 3;
+					break;
+				case 0xF1 :
+					base = indirectY(pc);
+					ea = (base + y) & 0xffff;
+					t = adc(a, read(ea) ^ 0xff, p);
+					a = t & 0xff;
+					p = t >>> 8;
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 2;
+					break;
+				case 0xF5 :
+					ea = (read(pc + 1) + x) & 0xff;
+					t = adc(a, read(ea) ^ 0xff, p);
+					a = t & 0xff;
+					p = t >>> 8;
+					pc += 2;
+					break;
+				case 0xF9 :
+					base = absolute(pc);
+					ea = (base + y) & 0xffff;
+					t = adc(a, read(ea) ^ 0xff, p);
+					a = t & 0xff;
+					p = t >>> 8;
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+				case 0xFD :
+					base = absolute(pc);
+					ea = base + x;
+					t = adc(a, read(ea) ^ 0xff, p);
+					a = t & 0xff;
+					p = t >>> 8;
+					if ((ea & 0xff00) != (base & 0xff00))
+						c++;
+					pc += 3;
+					break;
+
+				// SEC - Set carry flag
+				case 0x38 :
+					p |= CARRY;
+					pc += 1;
+					break;
+
+				// SED - Set decimal flag
+				case 0xF8 :
+					p |= DECIMAL_MODE;
+					pc += 1;
+					break;
+
+				// SEI - Set interrupt disable
+				case 0x78 :
+					p |= INTERRUPT_DISABLE;
+					pc += 1;
+					break;
+
+				// STA - Store accumulator
+				case 0x81 :
+					ea = indirectX(pc, x);
+					write(ea, a);
+					pc += 2;
+					break;
+				case 0x85 :
+					ea = read(pc + 1) & 0xff;
+					write(ea, a);
+					pc += 2;
+					break;
+				case 0x8D :
+					ea = absolute(pc);
+					write(ea, a);
+					pc += 3;
+					break;
+				case 0x91 :
+					base = indirectY(pc);
+					ea = (base + y) & 0xffff;
+					write(ea, a);
+					pc += 2;
+					break;
+				case 0x95 :
+					ea = (read(pc + 1) + x) & 0xff;
+					write(ea, a);
+					pc += 2;
+					break;
+				case 0x99 :
+					base = absolute(pc);
+					ea = (base + y) & 0xffff;
+					write(ea, a);
+					pc += 3;
+					break;
+				case 0x9D :
+					base = absolute(pc);
+					ea = base + x;
+					write(ea, a);
+					pc += 3;
+					break;
+
+				// STX - Store X register
+				case 0x86 :
+					ea = read(pc + 1) & 0xff;
+					write(ea, x);
+					pc += 2;
+					break;
+				case 0x8E :
+					ea = absolute(pc);
+					write(ea, x);
+					pc += 3;
+					break;
+				case 0x96 :
+					ea = (read(pc + 1) + y) & 0xff;
+					write(ea, x);
+					pc += 2;
+					break;
+
+				// STY - Store Y register
+				case 0x84 :
+					ea = read(pc + 1) & 0xff;
+					write(ea, y);
+					pc += 2;
+					break;
+				case 0x8C :
+					ea = absolute(pc);
+					write(ea, y);
+					pc += 3;
+					break;
+				case 0x94 :
+					ea = (read(pc + 1) + x) & 0xff;
+					write(ea, y);
+					pc += 2;
+					break;
+
+				// TAX - Transfer accumulator to X
+				case 0xAA :
+					x = a;
+					p = nz(p, x);
+					pc += 1;
+					break;
+
+				// TAY - Transfer accumulator to Y
+				case 0xA8 :
+					y = a;
+					p = nz(p, y);
+					pc += 1;
+					break;
+
+				// TSX - Transfer stack pointer to X
+				case 0xBA :
+					x = sp % 256;
+					p = nz(p, x & 0xff);
+					pc += 1;
+					break;
+
+				// TXA - Transfer X to accumulator
+				case 0x8A :
+					a = x;
+					p = nz(p, a);
+					pc += 1;
+					break;
+
+				// TXS - Transfer X to stack pointer
+				case 0x9A :
+					sp = x;
+					pc += 1;
+					break;
+
+				// TYA - Transfer Y to accumulator
+				case 0x98 :
+					a = y;
+					p = nz(p, a);
+					pc += 1;
+					break;
+				default :
+					throw new IllegalArgumentException("Illegal opcode: " + Hexdump.printHexPadded(opcode, 2));
+			}
+
+			if (CpuProfiler.ENABLED)
+				cpu.profiler.instruction(opcode, c - CYCLES[opcode]);
+
+			elapsed += c;
+		}
+
+		store(pc, sp, a, x, y, p);
+		return elapsed;
+	}
+
+	/**
+	 * Ends the current run after the instruction being executed.
+	 */
+	void stop() {
+		budget = 0;
+	}
+
+	// O------------------------x
+	// | HELPER
+	// | FUNCTIONS
+	// O------------------------x
+
+	private int read(int addr) {
+		return bus.cpuRead(addr, false);
+	}
+
+	// Copies the registers back to the cpu.
+	private void store(int pc, int sp, int a, int x, int y, int p) {
+		cpu.setProgramCounter(pc);
+		cpu.setStackPointer(sp);
+		cpu.setA(a);
+		cpu.setX(x);
+		cpu.setY(y);
+		cpu.setStatus(p);
+	}
+
+	private void write(int addr, int data) {
+		bus.cpuWrite(addr, data);
+	}
+
+	// The two bytes after the opcode.
+	private int absolute(int pc) {
+		int lowByte = read(pc + 1);
+		int highByte = read(pc + 2);
+		return (highByte << 8) | lowByte;
+	}
+
+	// JMP ($xxxx) including the page wrap bug of the 6502.
+	private int indirect(int pc) {
+		int lowByte = read(pc + 1);
+		int pointer = (read(pc + 2) << 8) | lowByte;
+
+		if (lowByte == 0xff)
+			return (read(pointer & 0xff00) << 8) | read(pointer);
+
+		return (read(pointer + 1) << 8) | read(pointer);
+	}
+
+	private int indirectX(int pc, int x) {
+		int temp = read(pc + 1);
+		int lowByte = read((temp + x) % 256);
+		int highByte = read((temp + x + 1) % 256);
+		return (highByte << 8) | lowByte;
+	}
+
+	// The base address of ($xx),Y before Y is added.
+	private int indirectY(int pc) {
+		int pointer = read(pc + 1);
+		int lowByte = read(pointer & 0x00ff);
+		int highByte = read((pointer + 1) & 0x00ff);
+		return (highByte << 8) | lowByte;
+	}
+
+	// Sets the zero and negative flags from an 8-bit value.
+	private static int nz(int p, int value) {
+		return (p & ~(ZERO | NEGATIVE)) | NZ[value];
+	}
+
+	// Z,C,N = register - M
+	private static int compare(int p, int register, int m) {
+		// C = register >= M, when the sign bit of register - M is clear.
+		return nz((p & ~CARRY) | (((register - m) >>> 31) ^ 1), (register - m) & 0xff);
+	}
+
+	// A + M + C. Returns the new status in the high bits and the result in the
+	// low byte. SBC passes the inverted operand.
+	private static int adc(int a, int m, int p) {
+		int result = a + m + (p & CARRY);
+
+		p = (p & ~(CARRY | OVERFLOW)) | (result >> 8) | (((result ^ a) & (result ^ m) & 0x80) >> 1);
+
+		return (nz(p, result & 0xff) << 8) | (result & 0xff);
+	}
+}
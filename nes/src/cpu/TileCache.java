@@ -0,0 +1,131 @@
+package cpu;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Pattern table rows of the cartridge's CHR memory, decoded once. A row is the
+ * 8 pixels of one line of a tile packed as 2-bit color indices, leftmost pixel
+ * in the highest bits:
+ * </p>
+ * 
+ * <pre>
+ * pixel(col) = (row >> ((7 - col) << 1)) & 0x03
+ * </pre>
+ * 
+ * <p>
+ * Each row is also kept flipped horizontally for sprites. Tiles are kept by
+ * where they are in CHR memory, not by the pattern table address the PPU sees
+ * them at, and looked up through the cartridge's 1KB CHR windows: switching
+ * banks throws nothing away, a tile is only decoded again when a CHR-RAM write
+ * changes it.
+ * </p>
+ * 
+ * @author jorgejimenez
+ *
+ */
+final class TileCache {
+
+	// Spreads the 8 bits of a byte out to the even bits of a short.
+	private static final int[] SPREAD = new int[256];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			int s = 0;
+			for (int bit = 0; bit < 8; bit++) {
+				s |= ((b >> bit) & 1) << (bit << 1);
+			}
+			SPREAD[b] = s;
+		}
+	}
+
+	private final byte[] chrMem;
+	// The offset in chrMem of each 1KB window of $0000-$1FFF, the cartridge's.
+	private final int[] windows;
+	// 8 rows per tile of chrMem.
+	private final int[] rows;
+	private final int[] flippedRows;
+	private final boolean[] decoded;
+
+	TileCache(byte[] chrMem, int[] windows) {
+		this.chrMem = chrMem;
+		this.windows = windows;
+		int tiles = chrMem.length >> 4;
+		rows = new int[tiles * 8];
+		flippedRows = new int[tiles * 8];
+		decoded = new boolean[tiles];
+	}
+
+	/**
+	 * @param addr
+	 *            The pattern table address of the row's low bit plane, i.e.
+	 *            <code>(table << 12) | (tile << 4) | fineY</code>.
+	 * @return The packed row.
+	 */
+	int row(int addr) {
+		int tile = tile(addr);
+		if (!decoded[tile])
+			decode(tile);
+		return rows[(tile << 3) | (addr & 0x07)];
+	}
+
+	/**
+	 * @param addr
+	 *            The pattern table address of the row's low bit plane.
+	 * @return The packed row flipped horizontally.
+	 */
+	int flippedRow(int addr) {
+		int tile = tile(addr);
+		if (!decoded[tile])
+			decode(tile);
+		return flippedRows[(tile << 3) | (addr & 0x07)];
+	}
+
+	/**
+	 * A byte of CHR memory changed.
+	 * 
+	 * @param offset
+	 *            Where in CHR memory, not its pattern table address.
+	 */
+	void invalidate(int offset) {
+		decoded[offset >> 4] = false;
+	}
+
+	/**
+	 * All of CHR memory changed, e.g. a state was loaded.
+	 */
+	void invalidateAll() {
+		Arrays.fill(decoded, false);
+	}
+
+	/**
+	 * Packs the two bit planes of a row, the same way the cache does.
+	 * 
+	 * @param lsb
+	 * @param msb
+	 * @return
+	 */
+	static int packRow(int lsb, int msb) {
+		return SPREAD[lsb & 0xff] | (SPREAD[msb & 0xff] << 1);
+	}
+
+	// The tile of chrMem the pattern table address shows.
+	private int tile(int addr) {
+		return (windows[(addr >> 10) & 0x07] + (addr & 0x03f0)) >> 4;
+	}
+
+	private void decode(int tile) {
+		for (int row = 0; row < 8; row++) {
+			int lsb = chrMem[(tile << 4) | row];
+			int msb = chrMem[(tile << 4) | row | 0x08];
+
+			rows[(tile << 3) | row] = packRow(lsb, msb);
+			flippedRows[(tile << 3) | row] = packRow(reverse(lsb), reverse(msb));
+		}
+		decoded[tile] = true;
+	}
+
+	private static int reverse(int b) {
+		return Integer.reverse(b & 0xff) >>> 24;
+	}
+}
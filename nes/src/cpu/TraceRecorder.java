@@ -0,0 +1,260 @@
+package cpu;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>
+ * Records every instruction a {@code CPU6502} executes to a file, as fixed
+ * size binary records instead of text. The cpu fills preallocated chunks and a
+ * background thread writes the full ones out, so tracing costs the cpu a few
+ * array stores per instruction. When the writer falls behind the cpu waits
+ * for a free chunk; no record is ever dropped.
+ * </p>
+ *
+ * <p>
+ * A trace is an int {@link #MAGIC} and an int {@link #VERSION} followed by the
+ * records, each one the state before the instruction ran:
+ * </p>
+ *
+ * <pre>
+ * short  program counter
+ * byte   opcode
+ * byte[] the 2 bytes after the opcode, 0 past the instruction's length
+ * byte   A, X, Y, P and SP
+ * int    PPU dot in the frame (see Scheduler.dotIndex), -1 with no PPU
+ * int    cpu cycles
+ * </pre>
+ *
+ * <p>
+ * {@link NestestLog} turns a trace into the nestest log format.
+ * </p>
+ *
+ * @author jorgejimenez
+ *
+ */
+public class TraceRecorder implements AutoCloseable {
+
+	public static final int MAGIC = 0x4e455354;
+	public static final int VERSION = 1;
+	static final int RECORD_SIZE = 18;
+
+	private final CPU6502 cpu;
+	private final Bus bus;
+	private final FileChannel channel;
+
+	// Instruction lengths by opcode.
+	private final int[] lengths = new int[256];
+
+	// •–––––––––––––––––––––––––––•
+	// | CHUNKS
+	// •–––––––––––––––––––––––––––•
+
+	// Every chunk is either the one being filled, full and waiting for the
+	// writer, or free. An empty array tells the writer to stop.
+	private final BlockingQueue<byte[]> full;
+	private final BlockingQueue<byte[]> free;
+	private byte[] chunk;
+	private int position = 0;
+	private long records = 0;
+
+	private final Thread writer;
+	private volatile IOException error;
+
+	/**
+	 * A recorder with 16 chunks of 64KB.
+	 *
+	 * @param cpu
+	 * @param file
+	 * @throws IOException
+	 */
+	public TraceRecorder(CPU6502 cpu, Path file) throws IOException {
+		this(cpu, file, 64 << 10, 16);
+	}
+
+	/**
+	 * <p>
+	 * Opens the file and starts the writer. Nothing is recorded until the
+	 * recorder is given to {@link CPU6502#setTrace(TraceRecorder)}.
+	 * </p>
+	 *
+	 * @param cpu
+	 * @param file
+	 *            Overwritten if it exists.
+	 * @param chunkSize
+	 *            The bytes in a chunk.
+	 * @param chunks
+	 *            At least 2.
+	 * @throws IOException
+	 */
+	public TraceRecorder(CPU6502 cpu, Path file, int chunkSize, int chunks) throws IOException {
+		if (chunkSize < RECORD_SIZE)
+			throw new IllegalArgumentException("A chunk must hold at least one record.");
+		if (chunks < 2)
+			throw new IllegalArgumentException("There must be at least 2 chunks.");
+
+		this.cpu = cpu;
+		this.bus = cpu.getBus();
+
+		for (int opcode = 0; opcode < 256; opcode++) {
+			Instruction instruction = cpu.instructions[opcode >> 4][opcode & 0x0f];
+			lengths[opcode] = (instruction != null) ? instruction.bytes : 1;
+		}
+
+		full = new ArrayBlockingQueue<>(chunks);
+		free = new ArrayBlockingQueue<>(chunks);
+		int size = chunkSize - chunkSize % RECORD_SIZE;
+		for (int i = 1; i < chunks; i++) {
+			free.add(new byte[size]);
+		}
+		chunk = new byte[size];
+
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.flip();
+		write(header);
+
+		writer = new Thread(this::drain, "trace writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * <p>
+	 * Records an instruction about to run. Called by the cpu with its registers
+	 * as they are before the instruction.
+	 * </p>
+	 */
+	void record(int pc, int opcode, int a, int x, int y, int p, int sp, int cycles) {
+		if (position == chunk.length)
+			flush();
+
+		int length = lengths[opcode];
+		int dot = bus.ppuDot();
+
+		byte[] b = chunk;
+		int i = position;
+		b[i] = (byte) (pc >> 8);
+		b[i + 1] = (byte) pc;
+		b[i + 2] = (byte) opcode;
+		b[i + 3] = (length > 1) ? (byte) bus.cpuRead(pc + 1, true) : 0;
+		b[i + 4] = (length > 2) ? (byte) bus.cpuRead(pc + 2, true) : 0;
+		b[i + 5] = (byte) a;
+		b[i + 6] = (byte) x;
+		b[i + 7] = (byte) y;
+		b[i + 8] = (byte) p;
+		b[i + 9] = (byte) sp;
+		b[i + 10] = (byte) (dot >> 24);
+		b[i + 11] = (byte) (dot >> 16);
+		b[i + 12] = (byte) (dot >> 8);
+		b[i + 13] = (byte) dot;
+		b[i + 14] = (byte) (cycles >> 24);
+		b[i + 15] = (byte) (cycles >> 16);
+		b[i + 16] = (byte) (cycles >> 8);
+		b[i + 17] = (byte) cycles;
+		position = i + RECORD_SIZE;
+		records++;
+	}
+
+	/**
+	 * @return The number of instructions recorded.
+	 */
+	public long records() {
+		return records;
+	}
+
+	/**
+	 * <p>
+	 * Takes the recorder off the cpu if it is still on it, writes what is left
+	 * and closes the file.
+	 * </p>
+	 *
+	 * @throws IOException
+	 *             If any write failed, the trace is incomplete.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (cpu.getTrace() == this)
+			cpu.setTrace(null);
+
+		put(full, new byte[0]);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+
+		try {
+			if (error == null)
+				write(ByteBuffer.wrap(chunk, 0, position));
+		} finally {
+			channel.close();
+		}
+
+		if (error != null)
+			throw error;
+	}
+
+	// O---------------------------#
+	// | HELPER FUNCTIONS
+	// O---------------------------#
+
+	// Hands the full chunk to the writer and takes a free one.
+	private void flush() {
+		put(full, chunk);
+		try {
+			chunk = free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		position = 0;
+	}
+
+	// The writer thread. After a failed write it keeps taking chunks, without
+	// writing them, so the cpu never waits on a dead writer.
+	private void drain() {
+		try {
+			while (true) {
+				byte[] data = full.take();
+				if (data.length == 0)
+					return;
+
+				if (error == null) {
+					try {
+						write(ByteBuffer.wrap(data));
+					} catch (IOException e) {
+						error = e;
+					}
+				}
+				free.add(data);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static void put(BlockingQueue<byte[]> queue, byte[] data) {
+		try {
+			queue.put(data);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}
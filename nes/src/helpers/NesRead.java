@@ -1,11 +1,18 @@
 package helpers;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
+ * <p>
+ * Reads an iNES file. The whole file is read into memory with a single
+ * {@code FileChannel} read and then handed out in order: the header first,
+ * then the trainer, PRG ROM and CHR ROM.
+ * </p>
+ * 
  * @author jorgejimenez
  *
  */
@@ -31,17 +38,24 @@ public class NesRead {
 		}
 	}
 
-	private BufferedInputStream in;
+	// The contents of the file and the position of the next byte to read.
+	private byte[] rom;
+	private int position = 0;
 	private boolean nesFileExists;
 
 	public NesRead(String name) {
 		try {
 			File file = new File(name);
 			if (file.exists()) {
-				
+
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					rom = new byte[(int) channel.size()];
+					ByteBuffer buffer = ByteBuffer.wrap(rom);
+					while (buffer.hasRemaining() && channel.read(buffer) != -1)
+						;
+				}
+
 				nesFileExists = true;
-				FileInputStream fis = new FileInputStream(file);
-				in = new BufferedInputStream(fis);
 				return;
 			}
 			throw new IOException("The file does " + name + " not exist.");
@@ -49,47 +63,37 @@ public class NesRead {
 			System.err.println("Could not open " + name);
 
 		}
-		 nesFileExists = false;
+		nesFileExists = false;
 	}
-	
+
 	public boolean gameExists() {
 		return nesFileExists;
 	}
 
 	public Header readHeader() {
 		Header h = new Header();
-		try {
 
-			readBytes(h.name);
+		readBytes(h.name);
 
-			h.sizeOfPrgRom = in.read();
-			h.sizeOfChrRom = in.read();
-			h.mapper1 = in.read();
-			h.mapper2 = in.read();
-			h.prgRamSize = in.read();
-			h.tvsystem = in.read();
-			h.tvsystem2 = in.read();
-			readBytes(new int[5]);
+		h.sizeOfPrgRom = readByte();
+		h.sizeOfChrRom = readByte();
+		h.mapper1 = readByte();
+		h.mapper2 = readByte();
+		h.prgRamSize = readByte();
+		h.tvsystem = readByte();
+		h.tvsystem2 = readByte();
+		skip(5);
 
-//			System.out.println(Integer.toHexString(in.read()));
-		} catch (Exception e) {
-			// TODO: handle exception
-		}
 		return h;
 	}
 
+	/**
+	 * @return The next byte or -1 at the end of the file.
+	 */
 	public int readByte() {
-		int b = 0;
-
-		try {
-			b = in.read();
-
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		return b;
-
+		if (position >= rom.length)
+			return -1;
+		return rom[position++] & 0xff;
 	}
 
 	public int[] readData() {
@@ -98,22 +102,35 @@ public class NesRead {
 	}
 
 	public void readBytes(int[] b) {
-		try {
-			int val = 0;
-			for (int i = 0; i < b.length; i++) {
-				val = in.read();
+		for (int i = 0; i < b.length; i++) {
+			int val = readByte();
 
-				b[i] = val;
-				if (val == -1)
-					return;
-			}
-
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			b[i] = val;
+			if (val == -1)
+				return;
 		}
 	}
 
+	/**
+	 * <p>
+	 * Copies the next {@code b.length} bytes of the file into {@code b}, or as
+	 * many as are left.
+	 * </p>
+	 * 
+	 * @param b
+	 * @return The number of bytes copied.
+	 */
+	public int readBytes(byte[] b) {
+		int length = Math.min(b.length, rom.length - position);
+		System.arraycopy(rom, position, b, 0, length);
+		position += length;
+		return length;
+	}
+
+	public void skip(int n) {
+		position = Math.min(position + n, rom.length);
+	}
+
 	public static void main(String[] arg) {
 // /Users/jorgejimenez/Downloads/dkoe.nes
 //		String fileName = "/Users/jorgejimenez/Downloads/dkoe.nes";
@@ -137,11 +154,11 @@ public class NesRead {
 		System.out.println(h);
 		
 		if (((h.mapper1 >> 2) & 1) == 1) {
-			in.readBytes(new int[512]);
+			in.skip(512);
 		}
 		
-		int[] prgRom = new int[16384 * h.sizeOfPrgRom];
-		int[] chrRom = new int[8192 * h.sizeOfChrRom];
+		byte[] prgRom = new byte[16384 * h.sizeOfPrgRom];
+		byte[] chrRom = new byte[8192 * h.sizeOfChrRom];
 		
 		
 		